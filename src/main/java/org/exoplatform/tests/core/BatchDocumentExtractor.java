@@ -0,0 +1,504 @@
+package org.exoplatform.tests.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.exoplatform.services.document.DocumentReadException;
+import org.exoplatform.services.document.DocumentReader;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Extracts the text of a batch of documents (typically the documents to index) on an {@link Executor}.
+ * <p/>
+ * The Document Reader of a document is selected by its mimetype, by default :
+ * - the .xls documents are read by the {@link MSExcelDocumentReader_Stream_05}
+ * - the .xlsx documents are read by the {@link MSXExcelDocumentReader_Stream_04}
+ * <p/>
+ * A {@link Batch} is an iterator over the results, in the order of completion :
+ * - at most maxConcurrency documents of the batch are given to the executor at a time, the next documents are
+ * taken from the sources only when the results are consumed (so a large batch is never queued at once)
+ * - a document still extracted after the timeout is reported as {@link ExtractionResult.Status#TIMED_OUT}
+ * - {@link Batch#cancel()} stops the batch, the documents being extracted are reported as
+ * {@link ExtractionResult.Status#CANCELLED}
+ * <p/>
+ * The timeout is given to the {@link FileDocumentReader}s as the deadline of the extraction (see
+ * {@link ExtractionDeadline}, it replaces the time budgets of their policy), they stop parsing once it is expired and
+ * the text parsed so far is reported (see {@link ExtractionResult#isTruncated()}). An extraction still running after
+ * the timeout and the grace period (see {@link #setCancelGracePeriod(long)}) is cancelled without text.
+ * <p/>
+ * A cancelled extraction is interrupted, the Document Readers stop at the next interruptible I/O or at the next
+ * check of their deadline. The Document Readers are shared by the extractions, they must be thread safe.
+ * <p/>
+ * The number of documents parsed at the same time can be bounded apart from the number of documents extracted
+ * (see {@link #setMaxParseConcurrency(int)}), to run many extractions waiting for I/O on a thread per task executor
+ * (see {@link VirtualThreads}) without running more CPU bound parsings than cores.
+ */
+public class BatchDocumentExtractor {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.BatchDocumentExtractor");
+
+  /**
+   * No timeout, the extraction of a document is never cancelled
+   */
+  public static final long NO_TIMEOUT = -1;
+
+  /**
+   * Default time given to a Document Reader to stop by itself after the timeout, in milliseconds
+   */
+  public static final long DEFAULT_CANCEL_GRACE_PERIOD = 1000;
+
+  private final Executor executor;
+
+  private final int maxConcurrency;
+
+  private long timeout = NO_TIMEOUT;
+
+  private long cancelGracePeriod = DEFAULT_CANCEL_GRACE_PERIOD;
+
+  // Bounds the documents parsed at the same time, null if the parsing is not bounded
+  private volatile Semaphore parsePermits;
+
+  private int maxParseConcurrency = -1;
+
+  private int spoolThreshold = SpooledDocument.DEFAULT_THRESHOLD;
+
+  private final Map<String, DocumentReader> readers = new HashMap<String, DocumentReader>();
+
+  /**
+   * @param executor       the executor of the extractions
+   * @param maxConcurrency the maximum number of documents of a batch given to the executor at a time
+   */
+  public BatchDocumentExtractor(Executor executor, int maxConcurrency) {
+    if (executor == null) {
+      throw new IllegalArgumentException("Executor is null.");
+    }
+    if (maxConcurrency <= 0) {
+      throw new IllegalArgumentException("The maximum concurrency must be positive: " + maxConcurrency);
+    }
+    this.executor = executor;
+    this.maxConcurrency = maxConcurrency;
+    addReader(new MSExcelDocumentReader_Stream_05());
+    addReader(new MSXExcelDocumentReader_Stream_04());
+  }
+
+  /**
+   * Registers the Document Reader for its mimetypes, it replaces the Document Reader registered for the same mimetypes.
+   */
+  public void addReader(DocumentReader reader) {
+    for (String mimeType : reader.getMimeTypes()) {
+      readers.put(mimeType, reader);
+    }
+  }
+
+  /**
+   * @return the Document Reader registered for the mimetype, null if none
+   */
+  public DocumentReader getReader(String mimeType) {
+    return readers.get(mimeType);
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @param timeout the maximum time of the extraction of a document, in milliseconds, from the moment the executor
+   *                starts it, or {@link #NO_TIMEOUT}
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public long getCancelGracePeriod() {
+    return cancelGracePeriod;
+  }
+
+  /**
+   * @param cancelGracePeriod the time given to a Document Reader to return the text parsed before the timeout,
+   *                          in milliseconds, after which the extraction is cancelled
+   */
+  public void setCancelGracePeriod(long cancelGracePeriod) {
+    this.cancelGracePeriod = cancelGracePeriod;
+  }
+
+  public int getMaxParseConcurrency() {
+    return maxParseConcurrency;
+  }
+
+  /**
+   * Bounds the number of documents parsed at the same time. The content of a document which is not a file is
+   * then read (see {@link SpooledDocument}) before waiting for the parsing, so the extractions waiting for I/O
+   * do not hold a parsing.
+   *
+   * @param maxParseConcurrency the maximum number of documents parsed at the same time, or -1 to not bound it
+   */
+  public void setMaxParseConcurrency(int maxParseConcurrency) {
+    this.maxParseConcurrency = maxParseConcurrency;
+    this.parsePermits = maxParseConcurrency > 0 ? new Semaphore(maxParseConcurrency, true) : null;
+  }
+
+  public int getSpoolThreshold() {
+    return spoolThreshold;
+  }
+
+  /**
+   * @param spoolThreshold the size above which the content read before the parsing is spilled to a temporary file
+   */
+  public void setSpoolThreshold(int spoolThreshold) {
+    this.spoolThreshold = spoolThreshold;
+  }
+
+  public Batch extract(Iterable<? extends DocumentSource> sources) {
+    return extract(sources.iterator());
+  }
+
+  /**
+   * @param sources the documents to extract, read as the results are consumed
+   * @return the batch, which starts the extractions as soon as its results are asked for
+   */
+  public Batch extract(Iterator<? extends DocumentSource> sources) {
+    if (sources == null) {
+      throw new IllegalArgumentException("Sources is null.");
+    }
+    return new Batch(sources);
+  }
+
+  /**
+   * Extracts the text of one document, in the thread of the executor.
+   *
+   * @param deadline the deadline given to the {@link FileDocumentReader}s
+   */
+  String extractText(DocumentSource source, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    DocumentReader reader = readers.get(source.getMimeType());
+    if (reader == null) {
+      throw new DocumentReadException("No Document Reader for the mimetype " + source.getMimeType() + " of "
+          + source.getName());
+    }
+    if (source instanceof FileDocumentSource && reader instanceof FileDocumentReader) {
+      Semaphore permits = parsePermits;
+      acquire(permits);
+      try {
+        // read directly from the file, without copying it in memory
+        return ((FileDocumentReader) reader).getContentAsText(((FileDocumentSource) source).getFile().toPath(),
+                                                              deadline);
+      } finally {
+        release(permits);
+      }
+    }
+    InputStream is = source.openStream();
+    try {
+      Semaphore permits = parsePermits;
+      if (permits == null) {
+        return getContentAsText(reader, is, deadline);
+      }
+      // the content is read before waiting for the parsing
+      SpooledDocument document = SpooledDocument.spool(is, spoolThreshold);
+      try {
+        acquire(permits);
+        try {
+          if (!document.isSpilled()) {
+            return getContentAsText(reader, document.getInputStream(), deadline);
+          }
+          if (reader instanceof FileDocumentReader) {
+            return ((FileDocumentReader) reader).getContentAsText(document.getFile().toPath(), deadline);
+          }
+          InputStream spilled = new FileInputStream(document.getFile());
+          try {
+            return reader.getContentAsText(spilled);
+          } finally {
+            closeQuietly(spilled);
+          }
+        } finally {
+          release(permits);
+        }
+      } finally {
+        document.release();
+      }
+    } finally {
+      closeQuietly(is);
+    }
+  }
+
+  private static String getContentAsText(DocumentReader reader, InputStream is, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (reader instanceof FileDocumentReader) {
+      return ((FileDocumentReader) reader).getContentAsText(is, deadline);
+    }
+    return reader.getContentAsText(is);
+  }
+
+  private static void closeQuietly(InputStream is) {
+    try {
+      is.close();
+    } catch (IOException e) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("An exception occurred: " + e.getMessage());
+      }
+    }
+  }
+
+  private static void acquire(Semaphore permits) throws InterruptedIOException {
+    if (permits != null) {
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the parsing");
+      }
+    }
+  }
+
+  private static void release(Semaphore permits) {
+    if (permits != null) {
+      permits.release();
+    }
+  }
+
+  /**
+   * The extraction of one document, with the deadline of the timeout.
+   */
+  private class Extraction implements Callable<String> {
+
+    private final DocumentSource source;
+
+    private volatile ExtractionDeadline deadline;
+
+    Extraction(DocumentSource source) {
+      this.source = source;
+    }
+
+    public String call() throws Exception {
+      // the timeout starts when the executor runs the extraction
+      deadline = new ExtractionDeadline(timeout, ExtractionDeadline.UNLIMITED);
+      return extractText(source, deadline);
+    }
+  }
+
+  /**
+   * The results of a batch, in the order of completion. The iterator is meant to be consumed by one thread,
+   * {@link #cancel()} can be called by any thread.
+   */
+  public class Batch implements Iterator<ExtractionResult> {
+
+    private final Iterator<? extends DocumentSource> sources;
+
+    // The tasks given to the executor and not reported yet, in the order of submission
+    private final Queue<ExtractionTask> running = new ConcurrentLinkedQueue<ExtractionTask>();
+
+    // The tasks done, filled by the threads of the executor
+    private final BlockingQueue<ExtractionTask> completed = new LinkedBlockingQueue<ExtractionTask>();
+
+    private volatile boolean cancelled;
+
+    Batch(Iterator<? extends DocumentSource> sources) {
+      this.sources = sources;
+    }
+
+    /**
+     * Gives the next documents to the executor, up to maxConcurrency documents not reported yet.
+     */
+    private void submit() {
+      while (!cancelled && running.size() < maxConcurrency && sources.hasNext()) {
+        ExtractionTask task = new ExtractionTask(new Extraction(sources.next()));
+        running.add(task);
+        if (cancelled) {
+          // cancelled by another thread meanwhile
+          task.cancel(false);
+          return;
+        }
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          task.reject(e);
+        }
+      }
+    }
+
+    public boolean hasNext() {
+      submit();
+      return !running.isEmpty();
+    }
+
+    /**
+     * Waits for the next document done, the document being extracted for more than the timeout is cancelled.
+     */
+    public ExtractionResult next() {
+      submit();
+      if (running.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      while (true) {
+        ExtractionTask task;
+        try {
+          if (timeout < 0 || cancelled) {
+            task = completed.take();
+          } else {
+            task = completed.poll(expireTasks(), TimeUnit.MILLISECONDS);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          cancel();
+          // the tasks are all done now, the ones already finished keep their result
+          while ((task = completed.poll()) != null && !running.remove(task)) {
+            // the task has been reported already
+          }
+          if (task == null) {
+            // the task is done but not added to the completed tasks yet, it will be skipped once added
+            task = running.poll();
+          }
+          return task.getResult();
+        }
+        // a task timed out or cancelled may have been reported already
+        if (task != null && running.remove(task)) {
+          return task.getResult();
+        }
+      }
+    }
+
+    /**
+     * Cancels the tasks started for more than the timeout and the grace period, the Document Readers which check
+     * their deadline have already stopped by themselves.
+     *
+     * @return the time to wait before the next task to cancel, in milliseconds
+     */
+    private long expireTasks() {
+      long now = System.currentTimeMillis();
+      long maxTime = timeout + Math.max(cancelGracePeriod, 0);
+      long wait = maxTime;
+      for (ExtractionTask task : running) {
+        long startTime = task.startTime;
+        if (startTime == 0 || task.isDone()) {
+          continue;
+        }
+        long remaining = startTime + maxTime - now;
+        if (remaining <= 0) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("The extraction of " + task.getSource().getName() + " is cancelled after " + maxTime + "ms");
+          }
+          task.timedOut = true;
+          // the cancelled task is then taken from the completed tasks
+          task.cancel(true);
+        } else if (remaining < wait) {
+          wait = remaining;
+        }
+      }
+      return Math.max(wait, 1);
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * Stops the batch : no other document is extracted, the documents being extracted are cancelled.
+     */
+    public void cancel() {
+      cancelled = true;
+      for (ExtractionTask task : running) {
+        task.cancel(true);
+      }
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    private class ExtractionTask extends FutureTask<String> {
+
+      private final Extraction extraction;
+
+      private volatile long startTime;
+
+      private volatile long endTime;
+
+      private volatile boolean timedOut;
+
+      ExtractionTask(Extraction extraction) {
+        super(extraction);
+        this.extraction = extraction;
+      }
+
+      DocumentSource getSource() {
+        return extraction.source;
+      }
+
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        ExtractionDeadline deadline = extraction.deadline;
+        if (deadline != null) {
+          deadline.cancel();
+        }
+        return super.cancel(mayInterruptIfRunning);
+      }
+
+      @Override
+      public void run() {
+        startTime = System.currentTimeMillis();
+        super.run();
+      }
+
+      void reject(Throwable t) {
+        setException(t);
+      }
+
+      @Override
+      protected void done() {
+        endTime = System.currentTimeMillis();
+        completed.add(this);
+      }
+
+      long getDuration() {
+        long start = startTime;
+        if (start == 0) {
+          return 0;
+        }
+        long end = endTime;
+        return (end == 0 ? System.currentTimeMillis() : end) - start;
+      }
+
+      ExtractionResult getResult() {
+        DocumentSource source = extraction.source;
+        if (isCancelled()) {
+          return new ExtractionResult(source, timedOut ? ExtractionResult.Status.TIMED_OUT
+              : ExtractionResult.Status.CANCELLED, null, null, false, getDuration());
+        }
+        try {
+          String text = get();
+          // the Document Reader stopped by itself at the timeout
+          ExtractionDeadline deadline = extraction.deadline;
+          boolean truncated = deadline != null && deadline.isExpired();
+          return new ExtractionResult(source, truncated ? ExtractionResult.Status.TIMED_OUT
+              : ExtractionResult.Status.SUCCEEDED, text, null, truncated, getDuration());
+        } catch (ExecutionException e) {
+          return new ExtractionResult(source, ExtractionResult.Status.FAILED, null, e.getCause(), false, getDuration());
+        } catch (InterruptedException e) {
+          // the task is done, get() does not wait
+          Thread.currentThread().interrupt();
+          return new ExtractionResult(source, ExtractionResult.Status.CANCELLED, null, null, false, getDuration());
+        }
+      }
+    }
+  }
+}
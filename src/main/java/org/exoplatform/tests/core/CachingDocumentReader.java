@@ -0,0 +1,342 @@
+package org.exoplatform.tests.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.exoplatform.services.document.DocumentReadException;
+import org.exoplatform.services.document.DocumentReader;
+import org.exoplatform.services.document.impl.BaseDocumentReader;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Document Reader keeping the text and the DC properties extracted by another reader in an {@link ExtractionCache},
+ * so a document read again (a new version with the same content, a copy, the indexing after a restart, ...)
+ * is not parsed again.
+ * <p/>
+ * The entries are keyed by the SHA-256 digest of the content of the document, computed while the document is read
+ * (and spooled, see {@link SpooledDocument}), and by the reader and the budgets of its policy which change the text
+ * (the time budgets are not part of the key).
+ * <p/>
+ * The text of an extraction whose deadline expired is not cached, as it depends on the time spent (see
+ * {@link ExtractionDeadline#isExpired()}). The text truncated by the budgets of the policy (the maximum number of
+ * cells, of chars, ...) is cached, as it only depends on the content.
+ */
+public class CachingDocumentReader extends BaseDocumentReader implements FileDocumentReader {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.CachingDocumentReader");
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final String TEXT = "text";
+
+  private static final String PROPERTIES = "properties";
+
+  private final DocumentReader reader;
+
+  private final ExtractionCache cache;
+
+  // Identifies the extraction in the keys : the reader and its policy
+  private final String extraction;
+
+  private int spoolThreshold = SpooledDocument.DEFAULT_THRESHOLD;
+
+  /**
+   * @param reader the reader extracting the documents not found in the cache
+   * @param cache  the cache, which may be shared by several readers
+   */
+  public CachingDocumentReader(DocumentReader reader, ExtractionCache cache) {
+    if (reader == null) {
+      throw new IllegalArgumentException("DocumentReader is null.");
+    }
+    if (cache == null) {
+      throw new IllegalArgumentException("ExtractionCache is null.");
+    }
+    this.reader = reader;
+    this.cache = cache;
+    if (reader instanceof FileDocumentReader) {
+      this.extraction = reader.getClass().getName() + ":" + key(((FileDocumentReader) reader).getPolicy());
+    } else {
+      this.extraction = reader.getClass().getName();
+    }
+  }
+
+  public DocumentReader getReader() {
+    return reader;
+  }
+
+  public ExtractionCache getCache() {
+    return cache;
+  }
+
+  /**
+   * @return the policy of the reader, or null if it is not a {@link FileDocumentReader}
+   */
+  public SpreadsheetExtractionPolicy getPolicy() {
+    return reader instanceof FileDocumentReader ? ((FileDocumentReader) reader).getPolicy() : null;
+  }
+
+  public int getSpoolThreshold() {
+    return spoolThreshold;
+  }
+
+  /**
+   * @param spoolThreshold the size above which a document given as an InputStream is spilled to a temporary file,
+   *                       while its digest is computed
+   */
+  public void setSpoolThreshold(int spoolThreshold) {
+    this.spoolThreshold = spoolThreshold;
+  }
+
+  public String[] getMimeTypes() {
+    return reader.getMimeTypes();
+  }
+
+  public String getContentAsText(InputStream is) throws IOException, DocumentReadException {
+    return getContentAsText(is, newDeadline());
+  }
+
+  /**
+   * The spreadsheet readers ignore the encoding, so the text is the same as the text of
+   * {@link #getContentAsText(InputStream)}.
+   */
+  public String getContentAsText(InputStream is, String encoding) throws IOException, DocumentReadException {
+    if (reader instanceof FileDocumentReader) {
+      return getContentAsText(is);
+    }
+    if (is == null) {
+      throw new IllegalArgumentException("InputStream is null.");
+    }
+    MessageDigest digest = newDigest();
+    SpooledDocument document = spool(is, digest);
+    try {
+      String key = key(TEXT + ":" + encoding, digest);
+      String text = cache.getText(key);
+      if (text == null) {
+        InputStream content = open(document);
+        try {
+          text = reader.getContentAsText(content, encoding);
+        } finally {
+          closeQuietly(content);
+        }
+        cache.putText(key, text);
+      }
+      return text;
+    } finally {
+      document.release();
+    }
+  }
+
+  /**
+   * @param deadline the deadline of the extraction, given to the reader if it is a {@link FileDocumentReader}
+   */
+  public String getContentAsText(InputStream is, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    if (is == null) {
+      throw new IllegalArgumentException("InputStream is null.");
+    }
+    MessageDigest digest = newDigest();
+    SpooledDocument document = spool(is, digest);
+    try {
+      String key = key(TEXT, digest);
+      String text = cache.getText(key);
+      if (text == null) {
+        if (document.isSpilled() && reader instanceof FileDocumentReader) {
+          text = ((FileDocumentReader) reader).getContentAsText(document.getFile().toPath(), deadline);
+        } else {
+          text = readText(open(document), deadline);
+        }
+        put(key, text, deadline);
+      }
+      return text;
+    } finally {
+      document.release();
+    }
+  }
+
+  public String getContentAsText(Path path) throws IOException, DocumentReadException {
+    return getContentAsText(path, newDeadline());
+  }
+
+  /**
+   * The file is read once to compute its digest, and read again by the reader only if the text is not cached.
+   *
+   * @param deadline the deadline of the extraction, given to the reader if it is a {@link FileDocumentReader}
+   */
+  public String getContentAsText(Path path, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    if (path == null) {
+      throw new IllegalArgumentException("Path is null.");
+    }
+    String key = key(TEXT, digest(path));
+    String text = cache.getText(key);
+    if (text == null) {
+      if (reader instanceof FileDocumentReader) {
+        text = ((FileDocumentReader) reader).getContentAsText(path, deadline);
+      } else {
+        text = readText(new FileInputStream(path.toFile()), deadline);
+      }
+      put(key, text, deadline);
+    }
+    return text;
+  }
+
+  public Properties getProperties(InputStream is) throws IOException, DocumentReadException {
+    if (is == null) {
+      throw new IllegalArgumentException("InputStream is null.");
+    }
+    MessageDigest digest = newDigest();
+    SpooledDocument document = spool(is, digest);
+    try {
+      String key = key(PROPERTIES, digest);
+      Properties properties = cache.getProperties(key);
+      if (properties == null) {
+        if (document.isSpilled() && reader instanceof FileDocumentReader) {
+          properties = ((FileDocumentReader) reader).getProperties(document.getFile().toPath());
+        } else {
+          properties = readProperties(open(document));
+        }
+        if (properties != null) {
+          cache.putProperties(key, properties);
+        }
+      }
+      return properties;
+    } finally {
+      document.release();
+    }
+  }
+
+  public Properties getProperties(Path path) throws IOException, DocumentReadException {
+    if (path == null) {
+      throw new IllegalArgumentException("Path is null.");
+    }
+    String key = key(PROPERTIES, digest(path));
+    Properties properties = cache.getProperties(key);
+    if (properties == null) {
+      if (reader instanceof FileDocumentReader) {
+        properties = ((FileDocumentReader) reader).getProperties(path);
+      } else {
+        properties = readProperties(new FileInputStream(path.toFile()));
+      }
+      if (properties != null) {
+        cache.putProperties(key, properties);
+      }
+    }
+    return properties;
+  }
+
+  /**
+   * @return a deadline with the time budgets of the policy of the reader, or without limit
+   */
+  private ExtractionDeadline newDeadline() {
+    SpreadsheetExtractionPolicy policy = getPolicy();
+    return policy != null ? ExtractionDeadline.of(policy)
+        : new ExtractionDeadline(ExtractionDeadline.UNLIMITED, ExtractionDeadline.UNLIMITED);
+  }
+
+  /**
+   * @param content the content of the document, which is closed
+   */
+  private String readText(InputStream content, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    try {
+      if (reader instanceof FileDocumentReader) {
+        return ((FileDocumentReader) reader).getContentAsText(content, deadline);
+      }
+      return reader.getContentAsText(content);
+    } finally {
+      closeQuietly(content);
+    }
+  }
+
+  /**
+   * @param content the content of the document, which is closed
+   */
+  private Properties readProperties(InputStream content) throws IOException, DocumentReadException {
+    try {
+      return reader.getProperties(content);
+    } finally {
+      closeQuietly(content);
+    }
+  }
+
+  private void put(String key, String text, ExtractionDeadline deadline) {
+    if (deadline != null && deadline.isExpired()) {
+      // another extraction may get more text
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("The text truncated by the expired deadline is not cached");
+      }
+      return;
+    }
+    cache.putText(key, text);
+  }
+
+  /**
+   * @return the budgets of the policy which change the text, the time budgets only change the text of the
+   *         extractions whose deadline expires, which is not cached
+   */
+  private static String key(SpreadsheetExtractionPolicy policy) {
+    if (policy == null) {
+      return "";
+    }
+    return "strings=" + policy.isKeepStrings() + ",numbers=" + policy.isKeepNumbers() + ",formulas="
+        + policy.isKeepFormulas() + ",formatNumbers=" + policy.isFormatNumbers() + ",minStringLength="
+        + policy.getMinStringLength() + ",maxTabs=" + policy.getMaxTabs() + ",maxCellsPerTab="
+        + policy.getMaxCellsPerTab() + ",maxCells=" + policy.getMaxCells() + ",maxChars=" + policy.getMaxChars();
+  }
+
+  private String key(String kind, MessageDigest digest) {
+    return kind + ":" + ExtractionCache.toHex(digest.digest()) + ":" + extraction;
+  }
+
+  /**
+   * Reads the whole stream while computing its digest, the stream is closed.
+   */
+  private SpooledDocument spool(InputStream is, MessageDigest digest) throws IOException {
+    try {
+      return SpooledDocument.spool(new DigestInputStream(is, digest), spoolThreshold);
+    } finally {
+      closeQuietly(is);
+    }
+  }
+
+  private static InputStream open(SpooledDocument document) throws IOException {
+    return document.isSpilled() ? new FileInputStream(document.getFile()) : document.getInputStream();
+  }
+
+  private static MessageDigest digest(Path path) throws IOException {
+    MessageDigest digest = newDigest();
+    InputStream is = new FileInputStream(path.toFile());
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = is.read(buffer)) >= 0) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      closeQuietly(is);
+    }
+    return digest;
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  }
+
+  private static void closeQuietly(InputStream is) {
+    try {
+      is.close();
+    } catch (IOException e) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("An exception occurred: " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A document to extract, as given to the {@link BatchDocumentExtractor}.
+ */
+public interface DocumentSource {
+
+  /**
+   * @return the name of the document (path, JCR node, ...), used to identify its result
+   */
+  String getName();
+
+  /**
+   * @return the mimetype of the document, which selects the Document Reader
+   */
+  String getMimeType();
+
+  /**
+   * Opens the content of the document, the stream is closed by the caller.
+   */
+  InputStream openStream() throws IOException;
+}
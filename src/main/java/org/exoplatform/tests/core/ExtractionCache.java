@@ -0,0 +1,490 @@
+package org.exoplatform.tests.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Cache of the text and of the DC properties extracted from the documents (see {@link CachingDocumentReader}).
+ * <p/>
+ * The entries are kept :
+ * - in memory, up to the maximum memory size
+ * - optionally in an {@link ExtractionStore}, up to the maximum disk size, so they survive a restart. An entry
+ * found on disk is kept in memory again.
+ * <p/>
+ * In both tiers, the least recently used entries are evicted first (after a restart, the entries on disk are
+ * evicted in the order they were stored). The size of an entry in memory is estimated from its number of chars.
+ * <p/>
+ * The values of the properties are Strings or Dates (see {@link org.exoplatform.services.document.DCMetaData}),
+ * the properties with other values are only kept in memory.
+ * <p/>
+ * The cache is thread safe, the entries are read from disk outside of the locks. It must be closed once it keeps
+ * its entries on disk, to release the store.
+ */
+public class ExtractionCache implements Closeable {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.ExtractionCache");
+
+  /**
+   * Default maximum size of the entries kept in memory
+   */
+  public static final long DEFAULT_MAX_MEMORY_SIZE = 32L * 1024 * 1024;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Estimated memory size of an entry besides its chars (map entry, key, value object)
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private static final byte TEXT = 1;
+
+  private static final byte PROPERTIES = 2;
+
+  private static final byte STRING_VALUE = 1;
+
+  private static final byte DATE_VALUE = 2;
+
+  private final long maxMemorySize;
+
+  // Values (String or Properties) by key, in access order
+  private final LinkedHashMap<String, Object> memory = new LinkedHashMap<String, Object>(16, 0.75f, true);
+
+  private long memorySize = 0;
+
+  // null if the entries are only kept in memory
+  private final ExtractionStore store;
+
+  private final long maxDiskSize;
+
+  // Sizes of the entries stored by key, in access order
+  private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+  private long diskSize = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong diskHits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache keeping at most {@link #DEFAULT_MAX_MEMORY_SIZE} in memory.
+   */
+  public ExtractionCache() {
+    this(DEFAULT_MAX_MEMORY_SIZE);
+  }
+
+  /**
+   * @param maxMemorySize the maximum size of the entries kept in memory, in bytes
+   */
+  public ExtractionCache(long maxMemorySize) {
+    this.maxMemorySize = maxMemorySize;
+    this.store = null;
+    this.maxDiskSize = 0;
+  }
+
+  /**
+   * The entries are stored in an {@link ExtractionStore} opened in the directory, the entries already stored are
+   * loaded.
+   *
+   * @param maxMemorySize the maximum size of the entries kept in memory, in bytes
+   * @param directory     the directory of the store, created if needed
+   * @param maxDiskSize   the maximum size of the entries stored, in bytes
+   */
+  public ExtractionCache(long maxMemorySize, File directory, long maxDiskSize) throws IOException {
+    this(maxMemorySize, new ExtractionStore(directory), maxDiskSize);
+  }
+
+  /**
+   * The entries already in the store are loaded.
+   *
+   * @param maxMemorySize the maximum size of the entries kept in memory, in bytes
+   * @param store         the store of the entries, closed with the cache
+   * @param maxDiskSize   the maximum size of the entries stored, in bytes
+   */
+  public ExtractionCache(long maxMemorySize, ExtractionStore store, long maxDiskSize) throws IOException {
+    if (store == null) {
+      throw new IllegalArgumentException("ExtractionStore is null.");
+    }
+    this.maxMemorySize = maxMemorySize;
+    this.store = store;
+    this.maxDiskSize = maxDiskSize;
+    loadStore();
+  }
+
+  public long getMaxMemorySize() {
+    return maxMemorySize;
+  }
+
+  /**
+   * @return the store of the entries, or null if they are only kept in memory
+   */
+  public ExtractionStore getStore() {
+    return store;
+  }
+
+  /**
+   * @return the directory of the store, or null if the entries are only kept in memory
+   */
+  public File getDirectory() {
+    return store != null ? store.getDirectory() : null;
+  }
+
+  public long getMaxDiskSize() {
+    return maxDiskSize;
+  }
+
+  /**
+   * @return the estimated size of the entries kept in memory, in bytes
+   */
+  public long getMemorySize() {
+    synchronized (memory) {
+      return memorySize;
+    }
+  }
+
+  /**
+   * @return the size of the entries stored, in bytes
+   */
+  public long getDiskSize() {
+    synchronized (disk) {
+      return diskSize;
+    }
+  }
+
+  /**
+   * @return the number of entries found in memory
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of entries found on disk only
+   */
+  public long getDiskHits() {
+    return diskHits.get();
+  }
+
+  /**
+   * @return the number of entries not found
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the text cached with the key, or null if none
+   */
+  public String getText(String key) {
+    Object value = get(key);
+    return value instanceof String ? (String) value : null;
+  }
+
+  public void putText(String key, String text) {
+    put(key, text);
+  }
+
+  /**
+   * @return a copy of the properties cached with the key, or null if none
+   */
+  public Properties getProperties(String key) {
+    Object value = get(key);
+    return value instanceof Properties ? copy((Properties) value) : null;
+  }
+
+  public void putProperties(String key, Properties properties) {
+    put(key, properties != null ? copy(properties) : null);
+  }
+
+  /**
+   * Removes all the entries, from memory and from disk.
+   */
+  public void clear() {
+    synchronized (memory) {
+      memory.clear();
+      memorySize = 0;
+    }
+    if (store != null) {
+      synchronized (disk) {
+        disk.clear();
+        diskSize = 0;
+        try {
+          store.clear();
+        } catch (IOException e) {
+          LOG.warn("Unable to clear the store " + store.getDirectory().getAbsolutePath() + ": " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes the store of the entries, if any.
+   */
+  public void close() throws IOException {
+    if (store != null) {
+      synchronized (disk) {
+        store.close();
+      }
+    }
+  }
+
+  private Object get(String key) {
+    Object value;
+    synchronized (memory) {
+      value = memory.get(key);
+    }
+    if (value != null) {
+      hits.incrementAndGet();
+      return value;
+    }
+    if (store != null) {
+      value = readEntry(key);
+      if (value != null) {
+        diskHits.incrementAndGet();
+        putInMemory(key, value);
+        return value;
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  private void put(String key, Object value) {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("Key or value is null.");
+    }
+    putInMemory(key, value);
+    if (store != null) {
+      writeEntry(key, value);
+    }
+  }
+
+  private void putInMemory(String key, Object value) {
+    long size = sizeOf(key, value);
+    if (size > maxMemorySize) {
+      // it would evict all the other entries
+      return;
+    }
+    synchronized (memory) {
+      Object previous = memory.put(key, value);
+      if (previous != null) {
+        memorySize -= sizeOf(key, previous);
+      }
+      memorySize += size;
+      Iterator<Map.Entry<String, Object>> entries = memory.entrySet().iterator();
+      while (memorySize > maxMemorySize && entries.hasNext()) {
+        Map.Entry<String, Object> eldest = entries.next();
+        memorySize -= sizeOf(eldest.getKey(), eldest.getValue());
+        entries.remove();
+      }
+    }
+  }
+
+  private static long sizeOf(String key, Object value) {
+    long chars = key.length();
+    if (value instanceof String) {
+      chars += ((String) value).length();
+    } else {
+      for (Map.Entry<Object, Object> property : ((Properties) value).entrySet()) {
+        chars += property.getKey().toString().length() + property.getValue().toString().length();
+      }
+    }
+    return ENTRY_OVERHEAD + 2 * chars;
+  }
+
+  /**
+   * @return the value stored on disk with the key, or null if none
+   */
+  private Object readEntry(String key) {
+    synchronized (disk) {
+      if (disk.get(key) == null) {
+        return null;
+      }
+    }
+    try {
+      byte[] bytes = store.get(key);
+      if (bytes == null) {
+        // evicted by another thread
+        return null;
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (in.readByte() == TEXT) {
+        return readString(in, bytes.length);
+      }
+      Properties properties = new Properties();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String propertyName = readString(in, bytes.length);
+        if (in.readByte() == DATE_VALUE) {
+          properties.put(propertyName, new Date(in.readLong()));
+        } else {
+          properties.put(propertyName, readString(in, bytes.length));
+        }
+      }
+      return properties;
+    } catch (IOException e) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Unable to read the cache entry " + key + ": " + e.getMessage());
+      }
+      removeEntry(key);
+      return null;
+    }
+  }
+
+  private void writeEntry(String key, Object value) {
+    if (value instanceof Properties && !isStorable((Properties) value)) {
+      return;
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      if (value instanceof String) {
+        out.writeByte(TEXT);
+        writeString(out, (String) value);
+      } else {
+        Properties properties = (Properties) value;
+        out.writeByte(PROPERTIES);
+        out.writeInt(properties.size());
+        for (Map.Entry<Object, Object> property : properties.entrySet()) {
+          writeString(out, (String) property.getKey());
+          if (property.getValue() instanceof Date) {
+            out.writeByte(DATE_VALUE);
+            out.writeLong(((Date) property.getValue()).getTime());
+          } else {
+            out.writeByte(STRING_VALUE);
+            writeString(out, (String) property.getValue());
+          }
+        }
+      }
+      out.close();
+      long size = bytes.size();
+      if (size > maxDiskSize) {
+        // it would evict all the other entries
+        return;
+      }
+      synchronized (disk) {
+        store.put(key, bytes.toByteArray());
+        Long previous = disk.put(key, size);
+        if (previous != null) {
+          diskSize -= previous;
+        }
+        diskSize += size;
+        evictFromDisk();
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to write the cache entry " + key + ": " + e.getMessage());
+    }
+  }
+
+  private static boolean isStorable(Properties properties) {
+    for (Map.Entry<Object, Object> property : properties.entrySet()) {
+      if (!(property.getKey() instanceof String)
+          || !(property.getValue() instanceof String || property.getValue() instanceof Date)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void removeEntry(String key) {
+    synchronized (disk) {
+      Long size = disk.remove(key);
+      if (size != null) {
+        diskSize -= size;
+        removeFromStore(key);
+      }
+    }
+  }
+
+  /**
+   * Called with the disk index locked.
+   */
+  private void evictFromDisk() {
+    Iterator<Map.Entry<String, Long>> entries = disk.entrySet().iterator();
+    while (diskSize > maxDiskSize && entries.hasNext()) {
+      Map.Entry<String, Long> eldest = entries.next();
+      diskSize -= eldest.getValue();
+      entries.remove();
+      removeFromStore(eldest.getKey());
+    }
+  }
+
+  /**
+   * Called with the disk index locked.
+   */
+  private void removeFromStore(String key) {
+    try {
+      store.remove(key);
+    } catch (IOException e) {
+      LOG.warn("Unable to remove the cache entry " + key + ": " + e.getMessage());
+    }
+  }
+
+  private void loadStore() {
+    synchronized (disk) {
+      for (Map.Entry<String, Integer> entry : store.getValueSizes().entrySet()) {
+        disk.put(entry.getKey(), (long) entry.getValue());
+        diskSize += entry.getValue();
+      }
+      evictFromDisk();
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    char[] digits = "0123456789abcdef".toCharArray();
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = digits[(bytes[i] >> 4) & 0xF];
+      chars[2 * i + 1] = digits[bytes[i] & 0xF];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Unlike {@link DataOutputStream#writeUTF(String)}, the strings are not limited to 64KB.
+   */
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * @param maxLength the length of the entry, a longer string means the entry is corrupted
+   */
+  private static String readString(DataInputStream in, long maxLength) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > maxLength) {
+      throw new IOException("Corrupted cache entry");
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * The Dates are mutable, so they are copied too.
+   */
+  private static Properties copy(Properties properties) {
+    Properties copy = new Properties();
+    for (Map.Entry<Object, Object> property : properties.entrySet()) {
+      Object value = property.getValue();
+      copy.put(property.getKey(), value instanceof Date ? ((Date) value).clone() : value);
+    }
+    return copy;
+  }
+}
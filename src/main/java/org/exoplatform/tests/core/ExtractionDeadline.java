@@ -0,0 +1,262 @@
+package org.exoplatform.tests.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time budget and cancellation token of the extraction of a document.
+ * <p/>
+ * The parsers check it as they go (see {@link #checkExpired()}) and stop once it is expired, the text gathered so far
+ * is then returned and {@link #isExpired()} is set. It expires :
+ * - once the wall-clock time budget is spent
+ * - once the CPU time budget is spent by the thread which created the deadline and the threads parsing the sheets
+ * - once it is cancelled, or the thread checking it is interrupted
+ * <p/>
+ * The parsers are also stopped through the deadline once the output can't take more text (see {@link #stop()}) : the
+ * text is then complete for the policy and the output, the deadline is not expired but {@link #isStopped()} is set.
+ * <p/>
+ * The CPU time of a thread parsing sheets (see {@link MSXExcelDocumentReader_Stream_04#setSheetExecutor}) is counted
+ * through the deadline of its sheet, created on this thread : the thread adds its CPU time to the budget of the
+ * extraction as it checks this deadline.
+ * <p/>
+ * The check is cheap enough to be done for every record or cell : the clocks are only read every
+ * {@value #CHECK_INTERVAL} checks.
+ */
+public class ExtractionDeadline {
+
+  public static final long UNLIMITED = -1;
+
+  private static final int CHECK_INTERVAL = 64;
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  // System.nanoTime() at which the time budget is spent, only if hasTimeLimit
+  private final long timeLimit;
+
+  private final boolean hasTimeLimit;
+
+  // CPU time of the extraction (see CpuClock) at which the CPU budget is spent, only if hasCpuTimeLimit
+  private final long cpuTimeLimit;
+
+  private final boolean hasCpuTimeLimit;
+
+  // The CPU time of the extraction, shared by the deadline of the extraction and its children, null if no CPU budget
+  private final CpuClock cpuClock;
+
+  private final Thread owner;
+
+  // CPU time of the owner thread already added to the CPU clock, only if the owner is not the one of the clock
+  private long reportedCpuTime;
+
+  // The deadline of the whole extraction, null if none
+  private final ExtractionDeadline parent;
+
+  private volatile boolean cancelled;
+
+  private volatile boolean expired;
+
+  private volatile boolean stopped;
+
+  // The check count is only a hint, the races between the threads parsing the sheets are harmless
+  private int checks;
+
+  /**
+   * @param maxTime    the wall-clock time budget, in milliseconds, or {@link #UNLIMITED}
+   * @param maxCpuTime the CPU time budget of the current thread, and of the threads parsing the sheets, in
+   *                   milliseconds, or {@link #UNLIMITED}
+   */
+  public ExtractionDeadline(long maxTime, long maxCpuTime) {
+    this.parent = null;
+    this.owner = Thread.currentThread();
+    this.hasTimeLimit = maxTime >= 0;
+    this.timeLimit = hasTimeLimit ? System.nanoTime() + maxTime * 1000000L : 0;
+    long cpuTime = maxCpuTime >= 0 && THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    // -1 if the CPU time measurement is disabled
+    this.hasCpuTimeLimit = cpuTime >= 0;
+    this.cpuClock = hasCpuTimeLimit ? new CpuClock(owner, cpuTime) : null;
+    this.cpuTimeLimit = hasCpuTimeLimit ? cpuTime + maxCpuTime * 1000000L : 0;
+  }
+
+  /**
+   * Deadline of a part of the extraction (a sheet parsed on its own thread, ...) : it expires with the deadline of
+   * the extraction, and can be cancelled or stopped on its own without cancelling or stopping the deadline of the
+   * extraction.
+   *
+   * @param parent the deadline of the extraction
+   */
+  public ExtractionDeadline(ExtractionDeadline parent) {
+    this(parent, 1);
+  }
+
+  /**
+   * Deadline of a first part of the extraction, which leaves a part of the budget to the next ones : it expires with
+   * the deadline of the extraction, or once its share of the remaining time budgets is spent.
+   *
+   * @param parent the deadline of the extraction
+   * @param share  the share of the remaining wall-clock and CPU time budgets, between 0 and 1
+   */
+  public ExtractionDeadline(ExtractionDeadline parent, double share) {
+    this.parent = parent;
+    this.owner = Thread.currentThread();
+    this.cpuClock = parent.cpuClock;
+    if (cpuClock != null && owner != cpuClock.owner && THREADS.isCurrentThreadCpuTimeSupported()) {
+      reportedCpuTime = Math.max(THREADS.getCurrentThreadCpuTime(), 0);
+    }
+    long remainingTime = share < 1 ? parent.getRemainingTime() : UNLIMITED;
+    this.hasTimeLimit = remainingTime >= 0;
+    this.timeLimit = hasTimeLimit ? System.nanoTime() + (long) (remainingTime * share) : 0;
+    long remainingCpuTime = share < 1 ? parent.getRemainingCpuTime() : UNLIMITED;
+    this.hasCpuTimeLimit = remainingCpuTime >= 0;
+    this.cpuTimeLimit = hasCpuTimeLimit ? cpuClock.getCpuTime() + (long) (remainingCpuTime * share) : 0;
+  }
+
+  /**
+   * @return a deadline with the time budgets of the policy
+   */
+  public static ExtractionDeadline of(SpreadsheetExtractionPolicy policy) {
+    return new ExtractionDeadline(policy.getMaxTime(), policy.getMaxCpuTime());
+  }
+
+  /**
+   * Cancels the extraction, the parsers stop at their next check.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Stops the parsers at their next check, as the output can't take more text (the maximum number of chars is
+   * reached, the output is full or failed) : the deadline is not expired.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  /**
+   * Called by the parsers, which stop as soon as it returns true.
+   *
+   * @return true if the deadline is expired or the parsing is stopped
+   */
+  public boolean checkExpired() {
+    if (expired || stopped) {
+      return true;
+    }
+    if (cancelled) {
+      expired = true;
+      return true;
+    }
+    if (parent != null && parent.checkExpired()) {
+      if (parent.isExpired()) {
+        expired = true;
+      } else {
+        stopped = true;
+      }
+      return true;
+    }
+    if (++checks < CHECK_INTERVAL) {
+      return false;
+    }
+    checks = 0;
+    long cpuTime = cpuClock != null ? readCpuTime() : 0;
+    if (Thread.currentThread().isInterrupted()
+        || hasTimeLimit && System.nanoTime() - timeLimit >= 0
+        || hasCpuTimeLimit && cpuTime >= cpuTimeLimit) {
+      expired = true;
+    }
+    return expired;
+  }
+
+  /**
+   * @return true if a parser stopped on this deadline once it expired or was cancelled, so the extracted text
+   *         depends on the time spent
+   */
+  public boolean isExpired() {
+    return expired;
+  }
+
+  /**
+   * @return true if a parser stopped as the output couldn't take more text (see {@link #stop()})
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * @return true if a parser stopped on this deadline, expired or stopped, so the extracted text is partial
+   */
+  public boolean isTruncated() {
+    return expired || stopped;
+  }
+
+  /**
+   * Reads the CPU time of the current thread if it owns this deadline or the CPU clock, to update the clock.
+   *
+   * @return the CPU time of the extraction
+   */
+  private long readCpuTime() {
+    Thread current = Thread.currentThread();
+    if (current == cpuClock.owner) {
+      cpuClock.ownerCpuTime = THREADS.getCurrentThreadCpuTime();
+    } else if (current == owner) {
+      long cpuTime = THREADS.getCurrentThreadCpuTime();
+      if (cpuTime > reportedCpuTime) {
+        cpuClock.otherThreadsCpuTime.addAndGet(cpuTime - reportedCpuTime);
+        reportedCpuTime = cpuTime;
+      }
+    }
+    return cpuClock.getCpuTime();
+  }
+
+  /**
+   * @return the wall-clock time left before this deadline or one of its parents expires, in nanoseconds, or
+   *         {@link #UNLIMITED}
+   */
+  private long getRemainingTime() {
+    long remaining = parent != null ? parent.getRemainingTime() : UNLIMITED;
+    if (hasTimeLimit) {
+      long own = Math.max(timeLimit - System.nanoTime(), 0);
+      remaining = remaining >= 0 ? Math.min(remaining, own) : own;
+    }
+    return remaining;
+  }
+
+  /**
+   * @return the CPU time left before this deadline or one of its parents expires, in nanoseconds, or
+   *         {@link #UNLIMITED}
+   */
+  private long getRemainingCpuTime() {
+    long remaining = parent != null ? parent.getRemainingCpuTime() : UNLIMITED;
+    if (hasCpuTimeLimit) {
+      long own = Math.max(cpuTimeLimit - readCpuTime(), 0);
+      remaining = remaining >= 0 ? Math.min(remaining, own) : own;
+    }
+    return remaining;
+  }
+
+  /**
+   * CPU time of an extraction : the CPU time of the thread which created its deadline, plus the CPU time the threads
+   * parsing its sheets spent on it.
+   */
+  private static class CpuClock {
+    private final Thread owner;
+
+    // Last CPU time read on the owner thread
+    private volatile long ownerCpuTime;
+
+    private final AtomicLong otherThreadsCpuTime = new AtomicLong();
+
+    CpuClock(Thread owner, long ownerCpuTime) {
+      this.owner = owner;
+      this.ownerCpuTime = ownerCpuTime;
+    }
+
+    long getCpuTime() {
+      return ownerCpuTime + otherThreadsCpuTime.get();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package org.exoplatform.tests.core;
+
+/**
+ * The result of the extraction of a document by the {@link BatchDocumentExtractor}.
+ */
+public class ExtractionResult {
+
+  public enum Status {
+    /**
+     * The text of the document has been extracted
+     */
+    SUCCEEDED,
+    /**
+     * The Document Reader failed, see {@link ExtractionResult#getError()}
+     */
+    FAILED,
+    /**
+     * The extraction took more than the timeout of the batch, the text parsed before the timeout is kept if the
+     * Document Reader stopped by itself (see {@link ExtractionResult#isTruncated()})
+     */
+    TIMED_OUT,
+    /**
+     * The batch has been cancelled before the end of the extraction
+     */
+    CANCELLED
+  }
+
+  private final DocumentSource source;
+
+  private final Status status;
+
+  private final String text;
+
+  private final Throwable error;
+
+  private final boolean truncated;
+
+  private final long duration;
+
+  ExtractionResult(DocumentSource source, Status status, String text, Throwable error, boolean truncated,
+                   long duration) {
+    this.source = source;
+    this.status = status;
+    this.text = text;
+    this.error = error;
+    this.truncated = truncated;
+    this.duration = duration;
+  }
+
+  public DocumentSource getSource() {
+    return source;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the text of the document, null if the extraction failed or was cancelled
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * @return true if the text is only the text parsed before the timeout
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  /**
+   * @return the exception thrown by the Document Reader, null if the extraction did not fail
+   */
+  public Throwable getError() {
+    return error;
+  }
+
+  /**
+   * @return the time spent on the extraction, in milliseconds
+   */
+  public long getDuration() {
+    return duration;
+  }
+
+  @Override
+  public String toString() {
+    return "ExtractionResult[" + source.getName() + ", " + status + ", " + duration + "ms"
+        + (truncated ? ", truncated" : "") + (error != null ? ", " + error : "") + "]";
+  }
+}
@@ -0,0 +1,559 @@
+package org.exoplatform.tests.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Persistent store of byte values by key, used as the disk tier of the {@link ExtractionCache}.
+ * <p/>
+ * The values are appended to a log of segment files (segment-N.log) :
+ * - a record is made of its length, the CRC32 of its payload, and its payload (a put with the key and the value,
+ * or a remove with the key)
+ * - once the active segment reaches the maximum segment size, it is sealed and a new one is started. The sealed
+ * segments are memory-mapped to read the values
+ * - the index of the values (segment and offset by key) is kept in memory, and built again from the segments when
+ * the store is opened
+ * <p/>
+ * The values replaced or removed stay in the segments until the compaction, which copies the live values to new
+ * segments and deletes the old ones. It runs once more than half of the segments is garbage.
+ * <p/>
+ * After an abrupt shutdown, the records torn or corrupted at the end of a segment are dropped when the store is
+ * opened (their CRC does not match), so the store stays consistent. The records are written to the file system
+ * without being forced to the disk (see {@link #sync()}), the last ones may be lost on a power loss.
+ * <p/>
+ * The directory is locked, it can't be used by two stores at the same time.
+ */
+public class ExtractionStore implements Closeable {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.ExtractionStore");
+
+  /**
+   * Default size above which the active segment is sealed
+   */
+  public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private static final String LOCK_FILE = "store.lock";
+
+  // Length and CRC32 of the payload
+  private static final int HEADER_SIZE = 8;
+
+  private static final byte PUT = 1;
+
+  private static final byte REMOVE = 2;
+
+  private final File directory;
+
+  private final long maxSegmentSize;
+
+  private final RandomAccessFile lockFile;
+
+  private final FileLock lock;
+
+  // Segments by id, the last one is the active segment
+  private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+  private Segment active;
+
+  // Locations of the live values by key, in the order of the log
+  private final LinkedHashMap<String, Location> index = new LinkedHashMap<String, Location>();
+
+  // Size of the records of the live values
+  private long liveSize = 0;
+
+  private boolean closed;
+
+  public ExtractionStore(File directory) throws IOException {
+    this(directory, DEFAULT_MAX_SEGMENT_SIZE);
+  }
+
+  /**
+   * Opens the store, the index is built from the segments of the directory.
+   *
+   * @param directory      the directory of the segments, created if needed
+   * @param maxSegmentSize the size above which the active segment is sealed
+   */
+  public ExtractionStore(File directory, long maxSegmentSize) throws IOException {
+    if (directory == null) {
+      throw new IllegalArgumentException("Directory is null.");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create the directory " + directory.getAbsolutePath());
+    }
+    this.directory = directory;
+    this.maxSegmentSize = maxSegmentSize;
+    this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+    FileLock directoryLock = null;
+    try {
+      directoryLock = lockFile.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      // already locked by this JVM
+    } finally {
+      if (directoryLock == null) {
+        lockFile.close();
+      }
+    }
+    if (directoryLock == null) {
+      throw new IOException("The directory " + directory.getAbsolutePath() + " is used by another store");
+    }
+    this.lock = directoryLock;
+    boolean opened = false;
+    try {
+      open();
+      opened = true;
+    } finally {
+      if (!opened) {
+        close();
+      }
+    }
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public long getMaxSegmentSize() {
+    return maxSegmentSize;
+  }
+
+  /**
+   * @return the number of values
+   */
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /**
+   * @return the size of the records of the values, in bytes
+   */
+  public synchronized long getLiveSize() {
+    return liveSize;
+  }
+
+  /**
+   * @return the size of the segments, in bytes
+   */
+  public synchronized long getTotalSize() {
+    long totalSize = 0;
+    for (Segment segment : segments.values()) {
+      totalSize += segment.size;
+    }
+    return totalSize;
+  }
+
+  /**
+   * @return the number of bytes of the value of each key, in the order of the log (the oldest first)
+   */
+  public synchronized Map<String, Integer> getValueSizes() {
+    Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+    for (Map.Entry<String, Location> entry : index.entrySet()) {
+      sizes.put(entry.getKey(), entry.getValue().valueLength);
+    }
+    return sizes;
+  }
+
+  /**
+   * @return the value of the key, or null if none
+   */
+  public synchronized byte[] get(String key) throws IOException {
+    checkOpen();
+    Location location = index.get(key);
+    if (location == null) {
+      return null;
+    }
+    byte[] value = new byte[location.valueLength];
+    location.segment.read(location.valueOffset, value);
+    return value;
+  }
+
+  public synchronized void put(String key, byte[] value) throws IOException {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("Key or value is null.");
+    }
+    checkOpen();
+    append(PUT, key, value);
+    compactIfNeeded();
+  }
+
+  /**
+   * @return true if the key had a value
+   */
+  public synchronized boolean remove(String key) throws IOException {
+    checkOpen();
+    if (!index.containsKey(key)) {
+      return false;
+    }
+    append(REMOVE, key, null);
+    compactIfNeeded();
+    return true;
+  }
+
+  /**
+   * Removes all the values, the segments are deleted.
+   */
+  public synchronized void clear() throws IOException {
+    checkOpen();
+    index.clear();
+    liveSize = 0;
+    List<Segment> oldSegments = new ArrayList<Segment>(segments.values());
+    active = newSegment();
+    deleteSegments(oldSegments);
+  }
+
+  /**
+   * Forces the records written to the disk.
+   */
+  public synchronized void sync() throws IOException {
+    checkOpen();
+    active.channel.force(false);
+  }
+
+  /**
+   * Copies the live values to new segments, and deletes the old segments. The old segments are deleted only once
+   * the new ones are forced to the disk, the oldest first : if the compaction does not complete, the store opened
+   * again gets the values of the copies, and the removes of the remaining old segments still apply.
+   */
+  public synchronized void compact() throws IOException {
+    checkOpen();
+    List<Segment> oldSegments = new ArrayList<Segment>(segments.values());
+    List<Map.Entry<String, Location>> entries = new ArrayList<Map.Entry<String, Location>>(index.entrySet());
+    active = newSegment();
+    index.clear();
+    liveSize = 0;
+    for (Map.Entry<String, Location> entry : entries) {
+      Location location = entry.getValue();
+      byte[] value = new byte[location.valueLength];
+      location.segment.read(location.valueOffset, value);
+      append(PUT, entry.getKey(), value);
+    }
+    active.channel.force(false);
+    deleteSegments(oldSegments);
+  }
+
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (active != null) {
+        active.channel.force(false);
+      }
+    } finally {
+      for (Segment segment : segments.values()) {
+        segment.close();
+      }
+      segments.clear();
+      index.clear();
+      try {
+        lock.release();
+      } finally {
+        lockFile.close();
+      }
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("The store is closed.");
+    }
+  }
+
+  private void compactIfNeeded() throws IOException {
+    long totalSize = getTotalSize();
+    if (totalSize > maxSegmentSize && totalSize - liveSize > liveSize) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Compaction of the store " + directory.getAbsolutePath() + " (" + liveSize + " live bytes out of "
+                      + totalSize + ")");
+      }
+      compact();
+    }
+  }
+
+  private void append(byte operation, String key, byte[] value) throws IOException {
+    byte[] keyBytes = key.getBytes(UTF_8);
+    int payloadLength = 1 + 4 + keyBytes.length + (value != null ? value.length : 0);
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+    record.putInt(payloadLength);
+    record.putInt(0);
+    record.put(operation);
+    record.putInt(keyBytes.length);
+    record.put(keyBytes);
+    if (value != null) {
+      record.put(value);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), HEADER_SIZE, payloadLength);
+    record.putInt(4, (int) crc.getValue());
+    record.flip();
+
+    if (active.size > 0 && active.size + record.remaining() > maxSegmentSize) {
+      seal();
+    }
+    long offset = active.append(record);
+    if (operation == PUT) {
+      apply(key, new Location(active, offset + HEADER_SIZE + 1 + 4 + keyBytes.length, value.length,
+                              HEADER_SIZE + payloadLength));
+    } else {
+      apply(key, null);
+    }
+  }
+
+  /**
+   * @param location the location of the new value of the key, or null if it is removed
+   */
+  private void apply(String key, Location location) {
+    Location previous = index.remove(key);
+    if (previous != null) {
+      liveSize -= previous.recordLength;
+    }
+    if (location != null) {
+      index.put(key, location);
+      liveSize += location.recordLength;
+    }
+  }
+
+  /**
+   * The active segment is forced to the disk and mapped, and a new active segment is started.
+   */
+  private void seal() throws IOException {
+    active.channel.force(false);
+    active.map();
+    active = newSegment();
+  }
+
+  private Segment newSegment() throws IOException {
+    int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+    Segment segment = new Segment(id, new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+    segments.put(id, segment);
+    return segment;
+  }
+
+  private void deleteSegments(List<Segment> oldSegments) {
+    for (Segment segment : oldSegments) {
+      segments.remove(segment.id);
+      segment.close();
+      if (!segment.file.delete() && segment.file.exists()) {
+        LOG.warn("Unable to delete the segment " + segment.file.getAbsolutePath());
+      }
+    }
+  }
+
+  private void open() throws IOException {
+    File[] files = directory.listFiles(new FileFilter() {
+      public boolean accept(File file) {
+        return file.isFile() && segmentId(file) > 0;
+      }
+    });
+    if (files != null) {
+      for (File file : files) {
+        int id = segmentId(file);
+        segments.put(id, new Segment(id, file));
+      }
+    }
+    for (Segment segment : segments.values()) {
+      scan(segment);
+    }
+    if (segments.isEmpty() || segments.lastEntry().getValue().size >= maxSegmentSize) {
+      newSegment();
+    }
+    // the previous segments are sealed
+    for (Segment segment : segments.values()) {
+      if (segment != segments.lastEntry().getValue()) {
+        segment.map();
+      }
+    }
+    active = segments.lastEntry().getValue();
+  }
+
+  /**
+   * Applies the records of the segment to the index. The segment is truncated at the first torn or corrupted record.
+   */
+  private void scan(Segment segment) throws IOException {
+    long position = 0;
+    byte[] payload = new byte[256];
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    CRC32 crc = new CRC32();
+    while (position < segment.size) {
+      header.clear();
+      if (!segment.readFully(position, header)) {
+        break;
+      }
+      header.flip();
+      int payloadLength = header.getInt();
+      int checksum = header.getInt();
+      if (payloadLength < 5 || position + HEADER_SIZE + payloadLength > segment.size) {
+        break;
+      }
+      if (payload.length < payloadLength) {
+        payload = new byte[Math.max(payloadLength, payload.length * 2)];
+      }
+      if (!segment.readFully(position + HEADER_SIZE, ByteBuffer.wrap(payload, 0, payloadLength))) {
+        break;
+      }
+      crc.reset();
+      crc.update(payload, 0, payloadLength);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      ByteBuffer record = ByteBuffer.wrap(payload, 0, payloadLength);
+      byte operation = record.get();
+      int keyLength = record.getInt();
+      if (keyLength < 0 || keyLength > record.remaining()) {
+        break;
+      }
+      String key = new String(payload, 5, keyLength, UTF_8);
+      if (operation == PUT) {
+        int valueLength = payloadLength - 5 - keyLength;
+        apply(key, new Location(segment, position + HEADER_SIZE + 5 + keyLength, valueLength,
+                                HEADER_SIZE + payloadLength));
+      } else {
+        apply(key, null);
+      }
+      position += HEADER_SIZE + payloadLength;
+    }
+    if (position < segment.size) {
+      LOG.warn("The segment " + segment.file.getAbsolutePath() + " is truncated from " + segment.size + " to "
+                   + position + " bytes, its last records are torn or corrupted");
+      segment.channel.truncate(position);
+      segment.size = position;
+    }
+  }
+
+  /**
+   * @return the id of the segment file, or -1 if it is not a segment file
+   */
+  private static int segmentId(File file) {
+    String name = file.getName();
+    if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static final class Location {
+    private final Segment segment;
+
+    private final long valueOffset;
+
+    private final int valueLength;
+
+    private final int recordLength;
+
+    Location(Segment segment, long valueOffset, int valueLength, int recordLength) {
+      this.segment = segment;
+      this.valueOffset = valueOffset;
+      this.valueLength = valueLength;
+      this.recordLength = recordLength;
+    }
+  }
+
+  /**
+   * A segment file : the active segment is appended and read through its channel, a sealed segment is read
+   * through its mapping.
+   */
+  private static final class Segment {
+    private final int id;
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final FileChannel channel;
+
+    private long size;
+
+    // null until the segment is sealed
+    private MappedByteBuffer mapping;
+
+    Segment(int id, File file) throws IOException {
+      this.id = id;
+      this.file = file;
+      this.randomAccessFile = new RandomAccessFile(file, "rw");
+      this.channel = randomAccessFile.getChannel();
+      this.size = channel.size();
+    }
+
+    /**
+     * @return the offset of the record in the segment
+     */
+    long append(ByteBuffer record) throws IOException {
+      long offset = size;
+      long position = offset;
+      while (record.hasRemaining()) {
+        position += channel.write(record, position);
+      }
+      size = position;
+      return offset;
+    }
+
+    void read(long offset, byte[] value) throws IOException {
+      if (mapping != null) {
+        ByteBuffer buffer = mapping.duplicate();
+        buffer.position((int) offset);
+        buffer.get(value);
+      } else if (!readFully(offset, ByteBuffer.wrap(value))) {
+        throw new IOException("Unexpected end of the segment " + file.getAbsolutePath());
+      }
+    }
+
+    /**
+     * @return false if the end of the segment is reached before the buffer is full
+     */
+    boolean readFully(long offset, ByteBuffer buffer) throws IOException {
+      long position = offset;
+      while (buffer.hasRemaining()) {
+        int read = channel.read(buffer, position);
+        if (read < 0) {
+          return false;
+        }
+        position += read;
+      }
+      return true;
+    }
+
+    /**
+     * The mapping stays valid once the channel is closed.
+     */
+    void map() throws IOException {
+      mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    void close() {
+      try {
+        randomAccessFile.close();
+      } catch (IOException e) {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("An exception occurred: " + e.getMessage());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.exoplatform.services.document.DocumentReadException;
+import org.exoplatform.services.document.DocumentReader;
+
+/**
+ * Document Reader able to read a document directly from its file.
+ * <p/>
+ * Unlike the InputStream based methods of the {@link DocumentReader}, the document is read with random access
+ * from the file, so it is not copied in memory before being parsed.
+ */
+public interface FileDocumentReader extends DocumentReader {
+
+  /**
+   * @return the extraction policy of the reader, its time budgets give the deadline of the methods without deadline
+   */
+  SpreadsheetExtractionPolicy getPolicy();
+
+  /**
+   * Returns only a text from the file content.
+   *
+   * @param path the file of the document
+   * @return The string only with text from file content.
+   */
+  String getContentAsText(Path path) throws IOException, DocumentReadException;
+
+  /**
+   * Returns only a text from the file content, parsed until the deadline expires.
+   *
+   * @param path     the file of the document
+   * @param deadline the deadline of the extraction, {@link ExtractionDeadline#isTruncated()} is set if the text is partial
+   * @return The string only with text from file content.
+   */
+  String getContentAsText(Path path, ExtractionDeadline deadline) throws IOException, DocumentReadException;
+
+  /**
+   * Returns only a text from the content, parsed until the deadline expires.
+   *
+   * @param is       an input stream with the content, which is closed
+   * @param deadline the deadline of the extraction, {@link ExtractionDeadline#isTruncated()} is set if the text is partial
+   * @return The string only with text from the content.
+   */
+  String getContentAsText(InputStream is, ExtractionDeadline deadline) throws IOException, DocumentReadException;
+
+  /**
+   * @param path the file of the document
+   * @return the DC properties of the document
+   */
+  Properties getProperties(Path path) throws IOException, DocumentReadException;
+}
@@ -0,0 +1,46 @@
+package org.exoplatform.tests.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A document to extract stored in a file. It is read directly from the file by the Document Readers
+ * which are {@link FileDocumentReader}s.
+ */
+public class FileDocumentSource implements DocumentSource {
+
+  private final File file;
+
+  private final String mimeType;
+
+  public FileDocumentSource(File file, String mimeType) {
+    if (file == null) {
+      throw new IllegalArgumentException("File is null.");
+    }
+    this.file = file;
+    this.mimeType = mimeType;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public String getName() {
+    return file.getPath();
+  }
+
+  public String getMimeType() {
+    return mimeType;
+  }
+
+  public InputStream openStream() throws IOException {
+    return new FileInputStream(file);
+  }
+
+  @Override
+  public String toString() {
+    return "FileDocumentSource[" + file + ", " + mimeType + "]";
+  }
+}
@@ -0,0 +1,156 @@
+package org.exoplatform.tests.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.hssf.record.RecordFormatException;
+import org.apache.poi.util.LittleEndian;
+
+/**
+ * Lazy view of the SST record (with its CONTINUE records) of a HSSF .xls file.
+ * <p/>
+ * Unlike the {@link org.apache.poi.hssf.record.SSTRecord} which deserializes every string up front,
+ * we only keep the raw bytes of the record :
+ * - the offsets of the strings are recorded on demand, up to the highest index asked for
+ * - a string is decoded only when a {@link org.apache.poi.hssf.record.LabelSSTRecord} asks for it
+ * - the strings already decoded are cached
+ * <p/>
+ * A string can be split across CONTINUE records, the remaining chars then start with a new compression flag.
+ */
+public class HSSFLazySharedStringTable {
+
+  // Option flags of a string
+  private static final int HIGH_BYTE = 0x01;
+  private static final int EXTENDED_TEXT = 0x04;
+  private static final int RICH_TEXT = 0x08;
+
+  // cstTotal (4 bytes), cstUnique (4 bytes)
+  private static final int STRINGS_OFFSET = 8;
+
+  // cch (2 bytes), option flags (1 byte)
+  private static final int MIN_STRING_SIZE = 3;
+
+  private final byte[] data;
+
+  private final int size;
+
+  // Offsets in data where the data of each CONTINUE record starts
+  private final int[] continueOffsets;
+
+  private final int uniqueStringCount;
+
+  // Offsets of the strings already located
+  private final int[] stringOffsets;
+  private int locatedStrings = 0;
+  private int nextStringOffset = STRINGS_OFFSET;
+
+  private final Map<Integer, String> decodedStrings = new HashMap<Integer, String>();
+
+  /**
+   * @param data            the data of the SST record followed by the data of its CONTINUE records
+   * @param size            the number of bytes of data
+   * @param continueOffsets the offsets in data where the data of each CONTINUE record starts
+   */
+  public HSSFLazySharedStringTable(byte[] data, int size, int[] continueOffsets) {
+    if (size < STRINGS_OFFSET) {
+      throw new RecordFormatException("The SST record is too short (" + size + " bytes)");
+    }
+    this.data = data;
+    this.size = size;
+    this.continueOffsets = continueOffsets;
+    // a corrupted count can't exceed the number of strings the data can hold
+    this.uniqueStringCount = Math.max(0, Math.min(LittleEndian.getInt(data, 4), (size - STRINGS_OFFSET) / MIN_STRING_SIZE));
+    this.stringOffsets = new int[uniqueStringCount];
+  }
+
+  public int getUniqueStringCount() {
+    return uniqueStringCount;
+  }
+
+  /**
+   * @return the string at the given index, or null if there is no such string
+   */
+  public String getString(int index) {
+    if (index < 0 || index >= uniqueStringCount) {
+      return null;
+    }
+    String value = decodedStrings.get(index);
+    if (value == null) {
+      while (locatedStrings <= index) {
+        stringOffsets[locatedStrings++] = nextStringOffset;
+        nextStringOffset = nextStringOffset < size ? readString(nextStringOffset, null) : size;
+      }
+      int offset = stringOffsets[index];
+      if (offset < size) {
+        char[] chars = new char[LittleEndian.getUShort(data, offset)];
+        readString(offset, chars);
+        value = new String(chars);
+      } else {
+        // ran out of data before this string
+        value = "";
+      }
+      decodedStrings.put(index, value);
+    }
+    return value;
+  }
+
+  /**
+   * Reads the string at the given offset.
+   *
+   * @param chars where the chars of the string are decoded, or null to only skip the string
+   * @return the offset of the next string
+   */
+  private int readString(int offset, char[] chars) {
+    int p = offset;
+    int charCount = LittleEndian.getUShort(data, p);
+    int optionFlags = data[p + 2];
+    p += 3;
+    int runCount = 0;
+    int extensionLength = 0;
+    if ((optionFlags & RICH_TEXT) != 0) {
+      runCount = LittleEndian.getUShort(data, p);
+      p += 2;
+    }
+    if ((optionFlags & EXTENDED_TEXT) != 0) {
+      extensionLength = LittleEndian.getInt(data, p);
+      p += 4;
+    }
+    boolean compressed = (optionFlags & HIGH_BYTE) == 0;
+    int read = 0;
+    while (true) {
+      int boundary = nextBoundary(p);
+      int count = Math.min(charCount - read, compressed ? boundary - p : (boundary - p) / 2);
+      if (chars != null) {
+        for (int i = 0; i < count; i++) {
+          chars[read + i] = compressed ? (char) (data[p + i] & 0xFF) : (char) LittleEndian.getUShort(data, p + 2 * i);
+        }
+      }
+      p += compressed ? count : 2 * count;
+      read += count;
+      if (read == charCount) {
+        break;
+      }
+      if (p >= size) {
+        throw new RecordFormatException("Expected to find a ContinueRecord in order to read remaining "
+            + (charCount - read) + " of " + charCount + " chars");
+      }
+      // the string is continued in the next CONTINUE record, the compressed flag may change on the fly
+      compressed = data[p] == 0;
+      p++;
+    }
+    // skip the formatting runs (4 bytes each) and the phonetic data
+    return p + 4 * runCount + extensionLength;
+  }
+
+  /**
+   * @return the offset of the end of the record containing the given offset
+   */
+  private int nextBoundary(int offset) {
+    int i = Arrays.binarySearch(continueOffsets, offset);
+    if (i < 0) {
+      i = -i - 1;
+    }
+    return i < continueOffsets.length ? continueOffsets[i] : size;
+  }
+}
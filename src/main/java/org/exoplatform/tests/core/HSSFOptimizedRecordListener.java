@@ -0,0 +1,348 @@
+package org.exoplatform.tests.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.hssf.record.common.UnicodeString;
+import org.apache.poi.ss.usermodel.Cell;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * This listener handles the records of the Workbook stream of a HSSF .xls file,
+ * and appends the text of the cells kept by the {@link SpreadsheetExtractionPolicy}.
+ * <p/>
+ * we KEEP the following data :
+ * - tab name {@link org.apache.poi.hssf.record.BoundSheetRecord}
+ * - cells with string, depending on the policy ({@link org.apache.poi.hssf.record.LabelSSTRecord}}
+ * - cells with number, depending on the policy ({@link org.apache.poi.hssf.record.NumberRecord}}
+ * - cells with formula result, depending on the policy ({@link org.apache.poi.hssf.record.FormulaRecord} and {@link org.apache.poi.hssf.record.StringRecord}}
+ * <p/>
+ * we SKIP the following data :
+ * - cells with blank value ({@link org.apache.poi.hssf.record.BlankRecord}}
+ * - cells with boolean or error value ({@link org.apache.poi.hssf.record.BoolErrRecord}}
+ * <p/>
+ * The parsing is aborted (-1 returned to the {@link org.apache.poi.hssf.eventusermodel.HSSFEventFactory})
+ * as soon as the maximum number of tabs or of cells of the policy is reached, or as soon as the deadline of the
+ * extraction is expired (see {@link #setDeadline(ExtractionDeadline)}), with the text of the cells parsed so far.
+ * It is also aborted once the {@link TextSink} receiving the text is stopped (failed, full, or the maximum number
+ * of chars of the policy is reached).
+ * <p/>
+ * Once the maximum number of cells of a tab is reached, the remaining records of the tab are skipped :
+ * - if the jump to the next tab is enabled, the parsing is aborted and {@link #nextTabPosition()} gives the
+ * position of the BOF of the next tab in the Workbook stream (see {@link BoundSheetRecord#getPositionOfBof()}),
+ * so the records in between are never read
+ * - otherwise, the remaining records are ignored until the BOF of the next tab
+ */
+public class HSSFOptimizedRecordListener extends AbortableHSSFListener {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.HSSFOptimizedRecordListener");
+
+  private final SpreadsheetExtractionPolicy policy;
+
+  /**
+   * Where our text is going
+   */
+  private final TextSink output;
+
+  // SSTRecords store a array of unique strings used in Excel.
+  private SSTRecord sstrec;
+
+  // Lazy view of the SSTRecord, given by the HSSFRecordScanner instead of the SSTRecord
+  private HSSFLazySharedStringTable sharedStringTable;
+
+  private final boolean jumpToNextTab;
+
+  private ExtractionDeadline deadline;
+
+  // Positions of the BOF of the tabs in the Workbook stream
+  private final List<Integer> tabPositions = new ArrayList<Integer>();
+
+  private boolean workbookBofSeen;
+  private int bofDepth = 0;
+  private int currentTabIndex = -1;
+  private boolean worksheetIsOpen;
+  // Set when the maximum number of cells of the current tab is reached
+  private boolean tabSkipped;
+
+  private int parsedTabs = 0;
+  private int currentTabCellsParsed = 0;
+  private int currentCellsParsed = 0;
+
+  // Set when the cached result of the last formula is a string, stored in the next StringRecord
+  private boolean formulaStringExpected;
+
+  public HSSFOptimizedRecordListener(SpreadsheetExtractionPolicy policy, StringBuilder output) {
+    this(policy, output, false);
+  }
+
+  /**
+   * @param jumpToNextTab abort the parsing when the maximum number of cells of a tab is reached, to resume it
+   *                      at {@link #nextTabPosition()}
+   */
+  public HSSFOptimizedRecordListener(SpreadsheetExtractionPolicy policy, StringBuilder output, boolean jumpToNextTab) {
+    this(policy, TextSink.of(output, policy), jumpToNextTab);
+  }
+
+  /**
+   * @param output        where the text is written, usually limited to the maximum number of chars of the policy
+   *                      (see {@link TextSink#of(Appendable, SpreadsheetExtractionPolicy)})
+   * @param jumpToNextTab abort the parsing when the maximum number of cells of a tab is reached, to resume it
+   *                      at {@link #nextTabPosition()}
+   */
+  public HSSFOptimizedRecordListener(SpreadsheetExtractionPolicy policy, TextSink output, boolean jumpToNextTab) {
+    this.policy = policy;
+    this.output = output;
+    this.jumpToNextTab = jumpToNextTab;
+  }
+
+  public int getParsedTabs() {
+    return parsedTabs;
+  }
+
+  public int getCellsParsed() {
+    return currentCellsParsed;
+  }
+
+  /**
+   * Sets the lazy view of the SST record, which is then received without being materialized.
+   */
+  public void setSharedStringTable(HSSFLazySharedStringTable sharedStringTable) {
+    this.sharedStringTable = sharedStringTable;
+  }
+
+  /**
+   * @param deadline checked for each record, the parsing is aborted once it is expired
+   */
+  public void setDeadline(ExtractionDeadline deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Gives the position in the Workbook stream where the parsing must be resumed after an abort
+   * due to the maximum number of cells of a tab.
+   *
+   * @return the position of the BOF of the next tab, or -1 if the parsing is over
+   */
+  public int nextTabPosition() {
+    if (!jumpToNextTab || !tabSkipped || isLastTab() || policy.isMaxCellsReached(currentCellsParsed)
+        || deadline != null && deadline.isTruncated() || output.isStopped()) {
+      return -1;
+    }
+    // the parsing is resumed at the BOF of the next tab, outside of any sub-stream
+    bofDepth = 0;
+    worksheetIsOpen = false;
+    tabSkipped = false;
+    return tabPositions.get(currentTabIndex + 1);
+  }
+
+  /**
+   * @return true if the record with the given sid must be materialized to be processed,
+   * otherwise only its sid is needed (to count the cells)
+   */
+  public boolean isRecordNeeded(short sid) {
+    switch (sid) {
+      case BoundSheetRecord.sid:
+      case BOFRecord.sid:
+      case EOFRecord.sid:
+        return true;
+      case SSTRecord.sid:
+      case LabelSSTRecord.sid:
+        return policy.isKeepStrings();
+      case NumberRecord.sid:
+      case RKRecord.sid:
+      case MulRKRecord.sid:
+        return policy.isKeepNumbers();
+      case FormulaRecord.sid:
+      case StringRecord.sid:
+        return policy.isKeepFormulas();
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public short abortableProcessRecord(Record record) {
+    return abortableProcessRecord(record.getSid(), 0, record);
+  }
+
+  /**
+   * @param sid    the sid of the record
+   * @param length the length of the data of the record, only used when the record is not materialized
+   * @param record the record, which may be null if it is not needed (see {@link #isRecordNeeded(short)})
+   */
+  public short abortableProcessRecord(short sid, int length, Record record) {
+    if (deadline != null && deadline.checkExpired()) {
+      // stop cells processing, the text parsed so far is kept
+      LOG.info("#### " + currentCellsParsed + " indexed before the deadline");
+      return -1;
+    }
+    if (tabSkipped && sid != BOFRecord.sid && sid != EOFRecord.sid) {
+      // the maximum number of cells of the tab is reached, we wait for the next tab
+      return 0;
+    }
+    switch (sid) {
+      case BoundSheetRecord.sid:
+        BoundSheetRecord bsr = (BoundSheetRecord) record;
+        output.append(bsr.getSheetname()).append(' ');
+        tabPositions.add(bsr.getPositionOfBof());
+        break;
+      // SSTRecords store a array of unique strings used in Excel.
+      case SSTRecord.sid:
+        if (record != null) {
+          sstrec = (SSTRecord) record;
+        }
+        break;
+      // the BOFRecord can represent either the beginning of a sheet or the workbook
+      case BOFRecord.sid:
+        if (++bofDepth > 1) {
+          // sub-stream embedded in a tab (chart, ...)
+          break;
+        }
+        if (!workbookBofSeen) {
+          workbookBofSeen = true;
+          break;
+        }
+        currentTabIndex++;
+        tabSkipped = false;
+        BOFRecord bof = (BOFRecord) record;
+        worksheetIsOpen = bof.getType() == BOFRecord.TYPE_WORKSHEET;
+        if (worksheetIsOpen) {
+          if (policy.isMaxTabsReached(parsedTabs)) {
+            // stop cells processing
+            LOG.info("#### " + currentCellsParsed + " indexed");
+            return -1;
+          }
+          parsedTabs++;
+          currentTabCellsParsed = 0;
+        }
+        break;
+      case LabelSSTRecord.sid:
+        if (nextCell() && policy.isKeepStrings()) {
+          LabelSSTRecord lrec = (LabelSSTRecord) record;
+          String lrecValue = getSharedString(lrec.getSSTIndex());
+          if (lrecValue != null && policy.isStringKept(lrecValue.length())) {
+            output.append(lrecValue).append(' ');
+          }
+        }
+        break;
+      case NumberRecord.sid:
+        if (nextCell() && policy.isKeepNumbers()) {
+          NumberRecord numrec = (NumberRecord) record;
+          output.append(numrec.getValue()).append(' ');
+        }
+        break;
+      // the RK and MulRK records are only received from the HSSFRecordScanner,
+      // the HSSFEventFactory converts them into NumberRecords
+      case RKRecord.sid:
+        if (nextCell() && policy.isKeepNumbers()) {
+          RKRecord rkrec = (RKRecord) record;
+          output.append(rkrec.getRKNumber()).append(' ');
+        }
+        break;
+      case MulRKRecord.sid:
+        MulRKRecord mulrkrec = (MulRKRecord) record;
+        // row (2 bytes), first column (2 bytes), RK cells (6 bytes each), last column (2 bytes)
+        int rkCells = mulrkrec != null ? mulrkrec.getNumColumns() : (length - 6) / 6;
+        for (int i = 0; i < rkCells; i++) {
+          if (nextCell() && mulrkrec != null) {
+            output.append(mulrkrec.getRKNumberAt(i)).append(' ');
+          }
+        }
+        break;
+      case FormulaRecord.sid:
+        if (nextCell() && policy.isKeepFormulas()) {
+          FormulaRecord formrec = (FormulaRecord) record;
+          if (formrec.hasCachedResultString()) {
+            formulaStringExpected = true;
+          } else if (formrec.getCachedResultType() == Cell.CELL_TYPE_NUMERIC) {
+            output.append(formrec.getValue()).append(' ');
+          }
+        }
+        break;
+      // the StringRecord holds the cached string result of the previous formula,
+      // it is counted as a cell like in the original reader
+      case StringRecord.sid:
+        boolean formulaString = formulaStringExpected;
+        if (nextCell() && formulaString) {
+          StringRecord sr = (StringRecord) record;
+          if (policy.isStringKept(sr.getString().length())) {
+            output.append(sr.getString()).append(' ');
+          }
+        }
+        break;
+      case BoolErrRecord.sid:
+        nextCell();
+        break;
+      // ## SKIP blank cells
+      case BlankRecord.sid:
+        break;
+      case EOFRecord.sid:
+        if (--bofDepth == 0) {
+          worksheetIsOpen = false;
+        }
+        LOG.info("#### " + currentCellsParsed + " indexed");
+        break;
+    }
+    if (output.isStopped()) {
+      // the text can't be written anymore
+      if (deadline != null) {
+        deadline.stop();
+      }
+      if (output.isMaxLengthReached()) {
+        LOG.info("#### " + currentCellsParsed + " indexed before the maximum number of chars (max=" + output.getMaxLength() + ")");
+      } else {
+        LOG.info("#### " + currentCellsParsed + " indexed before the output stopped");
+      }
+      return -1;
+    }
+    if (policy.isMaxCellsReached(currentCellsParsed)) {
+      // stop cells processing
+      LOG.info("#### " + currentCellsParsed + " indexed");
+      return -1;
+    }
+    if (worksheetIsOpen && !tabSkipped && policy.isMaxCellsPerTabReached(currentTabCellsParsed)) {
+      tabSkipped = true;
+      if (policy.isMaxTabsReached(parsedTabs) || isLastTab()) {
+        // nothing more to parse in the next tabs
+        LOG.info("#### " + currentCellsParsed + " indexed");
+        return -1;
+      }
+      if (jumpToNextTab) {
+        // stop cells processing, it will be resumed at the next tab
+        return -1;
+      }
+    }
+    // continue to process cells
+    return 0;
+  }
+
+  private String getSharedString(int index) {
+    if (sharedStringTable != null) {
+      return sharedStringTable.getString(index);
+    }
+    UnicodeString value = sstrec.getString(index);
+    return value != null ? value.getString() : null;
+  }
+
+  private boolean isLastTab() {
+    return currentTabIndex + 1 >= tabPositions.size();
+  }
+
+  /**
+   * Counts a new cell of the current tab.
+   *
+   * @return false if the maximum number of cells of the current tab is already reached, so the cell must be skipped
+   */
+  private boolean nextCell() {
+    formulaStringExpected = false;
+    if (policy.isMaxCellsPerTabReached(currentTabCellsParsed)) {
+      return false;
+    }
+    currentTabCellsParsed++;
+    currentCellsParsed++;
+    return true;
+  }
+}
@@ -0,0 +1,338 @@
+package org.exoplatform.tests.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.poi.EncryptedDocumentException;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.util.LittleEndian;
+import org.apache.poi.util.LittleEndianInput;
+
+/**
+ * Lean scanner of the BIFF8 records of the Workbook stream of a HSSF .xls file.
+ * <p/>
+ * Unlike the {@link org.apache.poi.hssf.eventusermodel.HSSFEventFactory} which deserializes every record,
+ * we only read the sid and the length of each record :
+ * - the records needed by the {@link HSSFOptimizedRecordListener} (LabelSST, BoundSheet, BOF, EOF
+ * and the numbers or formulas if the policy keeps them) are materialized, with their CONTINUE records
+ * - the SST record is given to the listener as a {@link HSSFLazySharedStringTable}, which only decodes
+ * the strings referenced by the cells
+ * - the other records are skipped by seeking past their bytes, the listener only receives their sid
+ * and length to count the cells
+ * <p/>
+ * Unlike the {@link org.apache.poi.hssf.eventusermodel.HSSFEventFactory}, the RK and MulRK records are not
+ * converted into {@link NumberRecord}s.
+ * <p/>
+ * When the listener asks to resume the parsing at the next tab, we seek directly to its BOF.
+ * <p/>
+ * The encrypted Workbook streams are not supported.
+ * <p/>
+ * The Workbook stream of a {@link org.apache.poi.poifs.filesystem.NPOIFSFileSystem} allocates a byte array of the size
+ * of the skipped bytes, so the bytes of such a stream are skipped by reading them in the buffer of the scanner.
+ */
+public class HSSFRecordScanner {
+
+  private static final int HEADER_SIZE = 4;
+
+  // Maximum size of the data of a BIFF8 record
+  private static final int MAX_RECORD_DATA_SIZE = 8224;
+
+  private final InputStream in;
+
+  private final boolean skipByReading;
+
+  private final byte[] header = new byte[HEADER_SIZE];
+
+  // Gathers the bytes (headers included) of the records to materialize
+  private byte[] buffer = new byte[HEADER_SIZE + MAX_RECORD_DATA_SIZE];
+
+  // Number of bytes of the stream already read or skipped
+  private long position = 0;
+
+  // Header read ahead, -1 if none
+  private int nextSid = -1;
+  private int nextLength;
+
+  // Depth of the BOF/EOF sub-streams of the current tab
+  private int bofDepth = 0;
+
+  private boolean finished;
+
+  // Abort code of the listener, 0 if none
+  private short abortCode = 0;
+
+  /**
+   * @param workbookStream the Workbook stream, positioned at its beginning
+   */
+  public HSSFRecordScanner(InputStream workbookStream) {
+    this(workbookStream, false);
+  }
+
+  /**
+   * @param workbookStream the Workbook stream, positioned at its beginning
+   * @param skipByReading  skip the bytes by reading them, when the skip of the stream is more expensive than a read
+   */
+  public HSSFRecordScanner(InputStream workbookStream, boolean skipByReading) {
+    this.in = workbookStream;
+    this.skipByReading = skipByReading;
+  }
+
+  /**
+   * Sends the records of the Workbook stream to the listener, until its end or until the listener aborts the parsing.
+   *
+   * @return the abort code of the listener, 0 if the whole stream has been processed
+   */
+  public short process(HSSFOptimizedRecordListener listener) throws IOException {
+    while (processNext(listener)) {
+      // the records are sent one by one
+    }
+    return abortCode;
+  }
+
+  /**
+   * Sends the next record of the Workbook stream to the listener, so the parsing can be driven by the reader of
+   * the text (see {@link SpreadsheetTextReader}).
+   *
+   * @return false once the whole stream has been processed or the listener aborted the parsing
+   */
+  public boolean processNext(HSSFOptimizedRecordListener listener) throws IOException {
+    if (finished) {
+      return false;
+    }
+    if (!readNextHeader()) {
+      finished = true;
+      return false;
+    }
+    short sid = (short) nextSid;
+    int length = nextLength;
+    nextSid = -1;
+
+    if (sid == FilePassRecord.sid) {
+      throw new EncryptedDocumentException("The encrypted Workbook streams are not supported");
+    }
+    short code;
+    if (sid == SSTRecord.sid && listener.isRecordNeeded(sid)) {
+      listener.setSharedStringTable(readSharedStringTable(length));
+      code = listener.abortableProcessRecord(sid, length, null);
+    } else if (listener.isRecordNeeded(sid)) {
+      code = listener.abortableProcessRecord(sid, length, readRecord(sid, length));
+    } else {
+      skipFully(length);
+      code = listener.abortableProcessRecord(sid, length, null);
+    }
+
+    if (code != 0) {
+      int nextTabPosition = listener.nextTabPosition();
+      if (nextTabPosition < 0) {
+        abortCode = code;
+        finished = true;
+        return false;
+      }
+      // resume the processing at the BOF of the next tab
+      seek(nextTabPosition);
+      bofDepth = 0;
+      return true;
+    }
+
+    if (sid == BOFRecord.sid) {
+      bofDepth++;
+    } else if (sid == EOFRecord.sid && --bofDepth == 0) {
+      // the stream can be padded after the last sub-stream, which is not followed by a BOF
+      if (!readNextHeader() || nextSid != BOFRecord.sid) {
+        finished = true;
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The SST record is not deserialized, only its data and the data of its CONTINUE records are kept.
+   */
+  private HSSFLazySharedStringTable readSharedStringTable(int length) throws IOException {
+    byte[] data = new byte[length];
+    readFully(data, 0, length);
+    int size = length;
+    int[] continueOffsets = new int[16];
+    int continueCount = 0;
+    while (readNextHeader() && nextSid == ContinueRecord.sid) {
+      if (size + nextLength > data.length) {
+        data = Arrays.copyOf(data, Math.max(size + nextLength, data.length * 2));
+      }
+      if (continueCount == continueOffsets.length) {
+        continueOffsets = Arrays.copyOf(continueOffsets, continueCount * 2);
+      }
+      continueOffsets[continueCount++] = size;
+      readFully(data, size, nextLength);
+      size += nextLength;
+      nextSid = -1;
+    }
+    return new HSSFLazySharedStringTable(data, size, Arrays.copyOf(continueOffsets, continueCount));
+  }
+
+  private Record readRecord(short sid, int length) throws IOException {
+    int size = append(sid, length, 0);
+    if (sid == StringRecord.sid) {
+      // the CONTINUE records following the record are part of it
+      while (readNextHeader() && nextSid == ContinueRecord.sid) {
+        size = append(ContinueRecord.sid, nextLength, size);
+        nextSid = -1;
+      }
+    }
+    RecordInputStream ris = new RecordInputStream(new RecordBytesInputStream(buffer, size));
+    ris.nextRecord();
+    return RecordFactory.createSingleRecord(ris);
+  }
+
+  private int append(short sid, int length, int offset) throws IOException {
+    int size = offset + HEADER_SIZE + length;
+    if (size > buffer.length) {
+      byte[] newBuffer = new byte[Math.max(size, buffer.length * 2)];
+      System.arraycopy(buffer, 0, newBuffer, 0, offset);
+      buffer = newBuffer;
+    }
+    LittleEndian.putShort(buffer, offset, sid);
+    LittleEndian.putShort(buffer, offset + 2, (short) length);
+    readFully(buffer, offset + HEADER_SIZE, length);
+    return size;
+  }
+
+  private boolean readNextHeader() throws IOException {
+    if (nextSid >= 0) {
+      return true;
+    }
+    int read = in.read(header, 0, HEADER_SIZE);
+    if (read <= 0) {
+      return false;
+    }
+    position += read;
+    if (read < HEADER_SIZE) {
+      readFully(header, read, HEADER_SIZE - read);
+    }
+    nextSid = LittleEndian.getUShort(header, 0);
+    nextLength = LittleEndian.getUShort(header, 2);
+    return true;
+  }
+
+  private void seek(long target) throws IOException {
+    if (nextSid >= 0) {
+      if (target == position - HEADER_SIZE) {
+        // the header read ahead is the one of the target
+        return;
+      }
+      nextSid = -1;
+    }
+    if (target < position) {
+      throw new RecordFormatException("Unable to seek backward to the position " + target + " of the Workbook stream");
+    }
+    skipFully(target - position);
+  }
+
+  private void readFully(byte[] b, int offset, int length) throws IOException {
+    int done = 0;
+    while (done < length) {
+      int read = in.read(b, offset + done, length - done);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of the Workbook stream");
+      }
+      done += read;
+    }
+    position += length;
+  }
+
+  private void skipFully(long n) throws IOException {
+    long remaining = n;
+    while (remaining > 0) {
+      long skipped = skipByReading ? in.read(buffer, 0, (int) Math.min(remaining, buffer.length)) : in.skip(remaining);
+      if (skipped <= 0) {
+        throw new EOFException("Unexpected end of the Workbook stream");
+      }
+      remaining -= skipped;
+    }
+    position += n;
+  }
+
+  /**
+   * Unsynchronized stream over the bytes of the records to materialize. As it implements {@link LittleEndianInput},
+   * the {@link RecordInputStream} reads it directly (the {@link java.io.ByteArrayInputStream} would be read byte by byte
+   * through synchronized calls).
+   */
+  private static final class RecordBytesInputStream extends InputStream implements LittleEndianInput {
+    private final byte[] buf;
+    private final int size;
+    private int pos = 0;
+
+    RecordBytesInputStream(byte[] buf, int size) {
+      this.buf = buf;
+      this.size = size;
+    }
+
+    private int checkPosition(int length) {
+      if (pos + length > size) {
+        throw new RecordFormatException("Unexpected end of the record (" + (pos + length - size) + " bytes missing)");
+      }
+      int current = pos;
+      pos += length;
+      return current;
+    }
+
+    @Override
+    public int read() {
+      return pos < size ? buf[pos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (pos >= size) {
+        return -1;
+      }
+      int read = Math.min(len, size - pos);
+      System.arraycopy(buf, pos, b, off, read);
+      pos += read;
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return size - pos;
+    }
+
+    public byte readByte() {
+      return buf[checkPosition(1)];
+    }
+
+    public int readUByte() {
+      return buf[checkPosition(1)] & 0xFF;
+    }
+
+    public short readShort() {
+      return LittleEndian.getShort(buf, checkPosition(2));
+    }
+
+    public int readUShort() {
+      return LittleEndian.getUShort(buf, checkPosition(2));
+    }
+
+    public int readInt() {
+      return LittleEndian.getInt(buf, checkPosition(4));
+    }
+
+    public long readLong() {
+      return LittleEndian.getLong(buf, checkPosition(8));
+    }
+
+    public double readDouble() {
+      return LittleEndian.getDouble(buf, checkPosition(8));
+    }
+
+    public void readFully(byte[] b) {
+      readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) {
+      System.arraycopy(buf, checkPosition(len), b, off, len);
+    }
+  }
+}
@@ -1,160 +1,155 @@
 package org.exoplatform.tests.core;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Properties;
 
-
-import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
 import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
-import org.apache.poi.hssf.eventusermodel.HSSFListener;
 import org.apache.poi.hssf.eventusermodel.HSSFRequest;
-import org.apache.poi.hssf.record.*;
-import org.apache.poi.hssf.record.common.UnicodeString;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.FilePassRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RecordFactoryInputStream;
+import org.apache.poi.hssf.record.WriteProtectRecord;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.util.LittleEndianInputStream;
 import org.exoplatform.services.document.DocumentReadException;
 import org.exoplatform.services.document.impl.MSExcelDocumentReader;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 
 /**
- * Stream based MS Excel Document Reader.
+ * Stream based MS Excel Document Reader driven by a {@link SpreadsheetExtractionPolicy}.
  * <p/>
- * we only index :
+ * with the default policy, we only index :
  * - a maximum of 5000 cells
  * - a maximum of 1000 cells per tab
  * - a maximum of 5 tabs
  * <p/>
  * <p/>
- * we KEEP only the following data :
+ * with the default policy, we KEEP only the following data :
  * - tab name {@link org.apache.poi.hssf.record.BoundSheetRecord}
  * - cells with string with a length > 2 chars (Strings which are not the result of a formula) ({@link org.apache.poi.hssf.record.LabelSSTRecord}}
  * <p/>
  * <p/>
- * we SKIP the following data :
+ * with the default policy, we SKIP the following data :
  * - cells with number (date formatted or simple number) ({@link org.apache.poi.hssf.record.NumberRecord}}
  * - cells with blank value ({@link org.apache.poi.hssf.record.BlankRecord}}
  * - cells with boolean or error value ({@link org.apache.poi.hssf.record.BoolErrRecord}}
  * - cells with formula ({@link org.apache.poi.hssf.record.FormulaRecord}}
+ * <p/>
+ * The parsing is aborted as soon as the budget of tabs or cells of the policy is reached (see {@link HSSFOptimizedRecordListener}),
+ * or as soon as the time budget of the policy is spent (see {@link ExtractionDeadline}), the text parsed so far is then returned.
+ * The Workbook stream is read by a {@link HSSFRecordScanner}, which only materializes the records needed by the policy,
+ * and resumes the parsing directly at the BOF of the next tab once the budget of cells of a tab is reached.
+ * <p/>
+ * When the caller has the file (or its channel), the Workbook stream is read directly from it,
+ * instead of buffering the whole OLE2 container in memory. A document given as an InputStream is spilled
+ * to a temporary file above the spool threshold (see {@link SpooledDocument}).
+ * <p/>
+ * The text can be written to an {@link Appendable} as it is parsed (see the writeContentAsText methods),
+ * instead of being returned as one String, or read from a {@link Reader} which drives the parsing
+ * (see the getContentAsReader methods).
  */
-public class MSExcelDocumentReader_Stream_05 extends MSExcelDocumentReader {
+public class MSExcelDocumentReader_Stream_05 extends MSExcelDocumentReader implements FileDocumentReader {
   private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.MSExcelDocumentReader_Stream_05");
-  private static final int MAX_TAB = 5;
-  private static final int MAX_CELLTAB = 1000;
+
+  private final SpreadsheetExtractionPolicy policy;
+
+  private int spoolThreshold = SpooledDocument.DEFAULT_THRESHOLD;
+
+  /**
+   * Creates a reader with the default {@link SpreadsheetExtractionPolicy}.
+   */
+  public MSExcelDocumentReader_Stream_05() {
+    this(new SpreadsheetExtractionPolicy());
+  }
+
+  /**
+   * @param policy the extraction policy (kept cells, budgets of cells and tabs) to apply
+   */
+  public MSExcelDocumentReader_Stream_05(SpreadsheetExtractionPolicy policy) {
+    if (policy == null) {
+      throw new IllegalArgumentException("SpreadsheetExtractionPolicy is null.");
+    }
+    this.policy = policy;
+  }
+
+  public SpreadsheetExtractionPolicy getPolicy() {
+    return policy;
+  }
+
+  public int getSpoolThreshold() {
+    return spoolThreshold;
+  }
+
+  /**
+   * @param spoolThreshold the size above which a document given as an InputStream is spilled to a temporary file,
+   *                       to be read from the file instead of being loaded in memory
+   */
+  public void setSpoolThreshold(int spoolThreshold) {
+    this.spoolThreshold = spoolThreshold;
+  }
 
   @Override
   public String getContentAsText(InputStream is) throws IOException, DocumentReadException {
+    return getContentAsText(is, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param deadline the deadline of the extraction, the text parsed before it expires is returned
+   */
+  public String getContentAsText(InputStream is, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    StringBuilder builder = new StringBuilder();
+    writeContentAsText(is, builder, deadline);
+    return builder.toString();
+  }
+
+  /**
+   * Writes the text of the document as it is parsed (see {@link TextSink}), instead of returning it as one String.
+   *
+   * @param output where the text is written (a Writer, a CharBuffer, ...), the parsing stops once a CharBuffer is full
+   */
+  public void writeContentAsText(InputStream is, Appendable output) throws IOException, DocumentReadException {
+    writeContentAsText(is, output, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param output   where the text is written (a Writer, a CharBuffer, ...), the parsing stops once a CharBuffer is full
+   * @param deadline the deadline of the extraction, the text parsed before it expires is written
+   */
+  public void writeContentAsText(InputStream is, Appendable output, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
     if (is == null) {
       throw new IllegalArgumentException("InputStream is null.");
     }
 
-    final StringBuilder builder = new StringBuilder("");
-
     try {
       if (is.available() == 0) {
-        return "";
+        return;
       }
 
-      // lazy listen for ALL records with the listener shown above
-      HSSFListener listener = new AbortableHSSFListener() {
-
-        public int tabnum = 0;
-        public int cellread = 0;
-        public int celltab = 0;
-
-        // SSTRecords store a array of unique strings used in Excel.
-        private SSTRecord sstrec;
-
-        @Override
-        public short abortableProcessRecord(Record record) {
-          if (tabnum > MAX_TAB) {
-            // stop cells processing
-            LOG.info("#### " + cellread + " indexed");
-            return -1;
-          }
-
-          switch (record.getSid()) {
-            // ## SKIP cells containing Numbers (Contains a numeric cell value.)
-            case NumberRecord.sid:
-              // NumberRecord numrec = (NumberRecord) record;
-              if (celltab < MAX_CELLTAB) {
-                celltab++;
-              }
-              cellread++;
-              break;
-            // ## SKIP blank cells
-            case BlankRecord.sid:
-              // BlankRecord blankrec = (BlankRecord) record;
-              break;
-            // SKIP formula cells
-            case FormulaRecord.sid:
-              // FormulaRecord formrec = (FormulaRecord) record;
-              if (celltab < MAX_CELLTAB) {
-                celltab++;
-              }
-              cellread++;
-              break;
-            case BoolErrRecord.sid:
-              // BoolErrRecord boolrec = (BoolErrRecord) record;
-              if (celltab < MAX_CELLTAB) {
-                celltab++;
-              }
-              cellread++;
-              break;
-            // SSTRecords store a array of unique strings used in Excel.
-            case SSTRecord.sid:
-              sstrec = (SSTRecord) record;
-              break;
-            case LabelSSTRecord.sid:
-              if (celltab < MAX_CELLTAB) {
-                LabelSSTRecord lrec = (LabelSSTRecord) record;
-                UnicodeString lrecValue = sstrec.getString(lrec.getSSTIndex());
-                if (lrecValue.getCharCount() > 2) {
-                  builder.append(lrecValue).append(" ");
-                }
-                celltab++;
-              }
-              cellread++;
-              break;
-            case StringRecord.sid:
-              // StringRecord sr = (StringRecord) record;
-              if (celltab < MAX_CELLTAB) {
-                celltab++;
-              }
-              cellread++;
-              break;
-            // the BOFRecord can represent either the beginning of a sheet or the workbook
-            case BOFRecord.sid:
-              BOFRecord bof = (BOFRecord) record;
-              if (bof.getType() == bof.TYPE_WORKSHEET) {
-                tabnum++;
-                celltab = 0;
-              }
-              break;
-            case BoundSheetRecord.sid:
-              BoundSheetRecord bsr = (BoundSheetRecord) record;
-              builder.append(bsr.getSheetname()).append(" ");
-              break;
-            case EOFRecord.sid:
-              LOG.info("#### " + cellread + " indexed");
-              break;
-          }
-          return 0;
+      SpooledDocument document = SpooledDocument.spool(is, spoolThreshold);
+      try {
+        if (document.isSpilled()) {
+          writeContentAsText(document.getFile(), output, deadline);
+          return;
         }
-      };
-      // create a new org.apache.poi.poifs.filesystem.Filesystem
-      POIFSFileSystem poifs = new POIFSFileSystem(is);
-      // get the Workbook (excel part) stream in a InputStream
-      InputStream din = poifs.createDocumentInputStream("Workbook");
-      // construct out HSSFRequest object
-      HSSFRequest req = new HSSFRequest();
-      req.addListenerForAllRecords(listener);
-      // create our event factory
-      HSSFEventFactory factory = new HSSFEventFactory();
-      // process our events based on the document input stream
-      factory.processEvents(req, din);
-      // and our document input stream (don't want to leak these!)
-      din.close();
-
+        TextSink sink = TextSink.of(output, policy);
+        // create a new org.apache.poi.poifs.filesystem.Filesystem
+        POIFSFileSystem poifs = new POIFSFileSystem(document.getInputStream());
+        extractText(poifs.getRoot(), sink, false, deadline);
+        sink.flush();
+      } finally {
+        document.release();
+      }
     } finally {
       if (is != null) {
         try {
@@ -166,6 +161,433 @@ public class MSExcelDocumentReader_Stream_05 extends MSExcelDocumentReader {
         }
       }
     }
+  }
+
+  public String getContentAsText(Path path) throws IOException, DocumentReadException {
+    return getContentAsText(path, ExtractionDeadline.of(policy));
+  }
+
+  public String getContentAsText(Path path, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    if (path == null) {
+      throw new IllegalArgumentException("Path is null.");
+    }
+    return getContentAsText(path.toFile(), deadline);
+  }
+
+  /**
+   * Reads the Workbook stream block by block directly from the file, the OLE2 container is not loaded in memory
+   * (see {@link NPOIFSFileSystem}).
+   *
+   * @param file the .xls file
+   */
+  public String getContentAsText(File file) throws IOException, DocumentReadException {
+    return getContentAsText(file, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param file     the .xls file
+   * @param deadline the deadline of the extraction, the text parsed before it expires is returned
+   */
+  public String getContentAsText(File file, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    StringBuilder builder = new StringBuilder();
+    writeContentAsText(file, builder, deadline);
+    return builder.toString();
+  }
+
+  /**
+   * @param file   the .xls file
+   * @param output where the text is written (a Writer, a CharBuffer, ...), the parsing stops once a CharBuffer is full
+   */
+  public void writeContentAsText(File file, Appendable output) throws IOException, DocumentReadException {
+    writeContentAsText(file, output, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param file     the .xls file
+   * @param output   where the text is written (a Writer, a CharBuffer, ...), the parsing stops once a CharBuffer is full
+   * @param deadline the deadline of the extraction, the text parsed before it expires is written
+   */
+  public void writeContentAsText(File file, Appendable output, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (file == null) {
+      throw new IllegalArgumentException("File is null.");
+    }
+
+    if (file.length() == 0) {
+      return;
+    }
+    TextSink sink = TextSink.of(output, policy);
+    NPOIFSFileSystem npoifs = new NPOIFSFileSystem(file, true);
+    try {
+      // the skip of a NPOIFSFileSystem stream allocates a byte array of the skipped size
+      extractText(npoifs.getRoot(), sink, true, deadline);
+    } finally {
+      close(npoifs);
+    }
+    sink.flush();
+  }
+
+  /**
+   * Reads the Workbook stream block by block directly from the channel, the OLE2 container is not loaded in memory
+   * (see {@link NPOIFSFileSystem}).
+   *
+   * @param channel the channel of the .xls file, which is not closed
+   */
+  public String getContentAsText(FileChannel channel) throws IOException, DocumentReadException {
+    return getContentAsText(channel, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param channel  the channel of the .xls file, which is not closed
+   * @param deadline the deadline of the extraction, the text parsed before it expires is returned
+   */
+  public String getContentAsText(FileChannel channel, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    StringBuilder builder = new StringBuilder();
+    writeContentAsText(channel, builder, deadline);
     return builder.toString();
   }
-}
\ No newline at end of file
+
+  /**
+   * @param channel  the channel of the .xls file, which is not closed
+   * @param output   where the text is written (a Writer, a CharBuffer, ...), the parsing stops once a CharBuffer is full
+   * @param deadline the deadline of the extraction, the text parsed before it expires is written
+   */
+  public void writeContentAsText(FileChannel channel, Appendable output, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (channel == null) {
+      throw new IllegalArgumentException("FileChannel is null.");
+    }
+
+    if (channel.size() == 0) {
+      return;
+    }
+    TextSink sink = TextSink.of(output, policy);
+    // the header is read at the current position of the channel
+    channel.position(0);
+    // the NPOIFSFileSystem is not closed, it would close the channel
+    NPOIFSFileSystem npoifs = new NPOIFSFileSystem(channel);
+    extractText(npoifs.getRoot(), sink, true, deadline);
+    sink.flush();
+  }
+
+  /**
+   * Returns the text of the document as a {@link Reader} : the Workbook stream is only parsed as far as the text
+   * is read (see {@link SpreadsheetTextReader}).
+   *
+   * @param is the stream of the document, which is read (and spilled to a temporary file above the spool threshold)
+   *           and closed before the reader is returned
+   * @return the reader of the text, which must be closed
+   */
+  public SpreadsheetTextReader getContentAsReader(InputStream is) throws IOException, DocumentReadException {
+    return getContentAsReader(is, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param deadline the deadline of the extraction, the text parsed before it expires is read
+   */
+  public SpreadsheetTextReader getContentAsReader(InputStream is, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (is == null) {
+      throw new IllegalArgumentException("InputStream is null.");
+    }
+
+    try {
+      if (is.available() == 0) {
+        return new WorkbookTextReader(deadline);
+      }
+
+      SpooledDocument document = SpooledDocument.spool(is, spoolThreshold);
+      if (document.isSpilled()) {
+        // the temporary file is deleted once the reader is closed
+        WorkbookTextReader reader = new WorkbookTextReader(deadline);
+        reader.document = document;
+        openWorkbook(reader, document.getFile());
+        return reader;
+      }
+      try {
+        POIFSFileSystem poifs = new POIFSFileSystem(document.getInputStream());
+        WorkbookTextReader reader = new WorkbookTextReader(deadline);
+        reader.open(poifs.getRoot(), false);
+        return reader;
+      } finally {
+        // the POIFSFileSystem is loaded in memory
+        document.release();
+      }
+    } finally {
+      try {
+        is.close();
+      } catch (IOException e) {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("An exception occurred: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the text of the document as a {@link Reader} : the Workbook stream is read block by block directly from
+   * the file, and only parsed as far as the text is read (see {@link SpreadsheetTextReader}).
+   *
+   * @param file the .xls file
+   * @return the reader of the text, which must be closed
+   */
+  public SpreadsheetTextReader getContentAsReader(File file) throws IOException, DocumentReadException {
+    return getContentAsReader(file, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param file     the .xls file
+   * @param deadline the deadline of the extraction, the text parsed before it expires is read
+   */
+  public SpreadsheetTextReader getContentAsReader(File file, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (file == null) {
+      throw new IllegalArgumentException("File is null.");
+    }
+
+    WorkbookTextReader reader = new WorkbookTextReader(deadline);
+    if (file.length() > 0) {
+      openWorkbook(reader, file);
+    }
+    return reader;
+  }
+
+  /**
+   * The reader is closed if the Workbook stream can't be opened.
+   */
+  private static void openWorkbook(WorkbookTextReader reader, File file) throws IOException {
+    boolean opened = false;
+    try {
+      reader.open(file);
+      opened = true;
+    } finally {
+      if (!opened) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Only the SummaryInformation stream is read, the workbook itself is not loaded.
+   */
+  @Override
+  public Properties getProperties(InputStream is) throws IOException, DocumentReadException {
+    if (is == null) {
+      throw new IllegalArgumentException("InputStream is null.");
+    }
+
+    try {
+      SpooledDocument document = SpooledDocument.spool(is, spoolThreshold);
+      try {
+        if (document.isSpilled()) {
+          return getProperties(document.getFile());
+        }
+        POIFSFileSystem poifs = new POIFSFileSystem(document.getInputStream());
+        return new POIPropertiesReader_Stream_04().readDCProperties(poifs.getRoot());
+      } finally {
+        document.release();
+      }
+    } finally {
+      try {
+        is.close();
+      } catch (IOException e) {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("An exception occurred: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  public Properties getProperties(Path path) throws IOException, DocumentReadException {
+    if (path == null) {
+      throw new IllegalArgumentException("Path is null.");
+    }
+    return getProperties(path.toFile());
+  }
+
+  /**
+   * Only the SummaryInformation stream is read from the file, the workbook itself is not loaded.
+   *
+   * @param file the .xls file
+   */
+  public Properties getProperties(File file) throws IOException, DocumentReadException {
+    if (file == null) {
+      throw new IllegalArgumentException("File is null.");
+    }
+    NPOIFSFileSystem npoifs = new NPOIFSFileSystem(file, true);
+    try {
+      return new POIPropertiesReader_Stream_04().readDCProperties(npoifs.getRoot());
+    } finally {
+      close(npoifs);
+    }
+  }
+
+  /**
+   * Only the SummaryInformation stream is read from the channel, the workbook itself is not loaded.
+   *
+   * @param channel the channel of the .xls file, which is not closed
+   */
+  public Properties getProperties(FileChannel channel) throws IOException, DocumentReadException {
+    if (channel == null) {
+      throw new IllegalArgumentException("FileChannel is null.");
+    }
+    // the header is read at the current position of the channel
+    channel.position(0);
+    // the NPOIFSFileSystem is not closed, it would close the channel
+    NPOIFSFileSystem npoifs = new NPOIFSFileSystem(channel);
+    return new POIPropertiesReader_Stream_04().readDCProperties(npoifs.getRoot());
+  }
+
+  private void extractText(DirectoryNode root, TextSink output, boolean skipByReading, ExtractionDeadline deadline)
+      throws IOException {
+    // get the Workbook (excel part) stream in a InputStream
+    InputStream din = root.createDocumentInputStream("Workbook");
+    try {
+      if (isEncrypted(root)) {
+        // the encrypted records can only be read through the HSSFEventFactory
+        HSSFOptimizedRecordListener listener = new HSSFOptimizedRecordListener(policy, output, false);
+        listener.setDeadline(deadline);
+        // construct out HSSFRequest object
+        HSSFRequest req = new HSSFRequest();
+        req.addListenerForAllRecords(listener);
+        // create our event factory
+        HSSFEventFactory factory = new HSSFEventFactory();
+        // process our events based on the document input stream
+        factory.processEvents(req, din);
+      } else {
+        // only materialize the records needed by the listener, and jump to the next tab when the maximum
+        // number of cells of a tab has been reached
+        HSSFOptimizedRecordListener listener = new HSSFOptimizedRecordListener(policy, output, true);
+        listener.setDeadline(deadline);
+        new HSSFRecordScanner(din, skipByReading).process(listener);
+      }
+    } finally {
+      // and our document input stream (don't want to leak these!)
+      din.close();
+    }
+  }
+
+  /**
+   * Sends the records of the Workbook stream to the listener one by one, as the text is read :
+   * - through the {@link HSSFRecordScanner}
+   * - or through a {@link RecordFactoryInputStream} for an encrypted Workbook stream
+   */
+  private class WorkbookTextReader extends SpreadsheetTextReader {
+
+    // The temporary file of a spilled document, null if none
+    private SpooledDocument document;
+
+    // null if the POIFSFileSystem is loaded in memory
+    private NPOIFSFileSystem npoifs;
+
+    private InputStream din;
+
+    private HSSFOptimizedRecordListener listener;
+
+    private HSSFRecordScanner scanner;
+
+    // Only for an encrypted Workbook stream
+    private RecordFactoryInputStream records;
+
+    private WorkbookTextReader(ExtractionDeadline deadline) {
+      super(policy, deadline);
+    }
+
+    private void open(File file) throws IOException {
+      npoifs = new NPOIFSFileSystem(file, true);
+      // the skip of a NPOIFSFileSystem stream allocates a byte array of the skipped size
+      open(npoifs.getRoot(), true);
+    }
+
+    private void open(DirectoryNode root, boolean skipByReading) throws IOException {
+      boolean encrypted = isEncrypted(root);
+      // get the Workbook (excel part) stream in a InputStream
+      din = root.createDocumentInputStream("Workbook");
+      // the encrypted records can't be skipped to jump to the next tab
+      listener = new HSSFOptimizedRecordListener(policy, getSink(), !encrypted);
+      listener.setDeadline(getDeadline());
+      if (encrypted) {
+        records = new RecordFactoryInputStream(din, false);
+      } else {
+        scanner = new HSSFRecordScanner(din, skipByReading);
+      }
+    }
+
+    @Override
+    protected boolean parseNext() throws IOException {
+      if (scanner != null) {
+        return scanner.processNext(listener);
+      }
+      if (records != null) {
+        Record record = records.nextRecord();
+        return record != null && listener.abortableProcessRecord(record) == 0;
+      }
+      return false;
+    }
+
+    @Override
+    protected void release() throws IOException {
+      try {
+        if (din != null) {
+          din.close();
+        }
+      } finally {
+        if (npoifs != null) {
+          MSExcelDocumentReader_Stream_05.close(npoifs);
+        }
+        if (document != null) {
+          document.release();
+        }
+      }
+    }
+  }
+
+  /**
+   * An encrypted Workbook stream (FILEPASS record just after the BOF of the workbook) can't be read by the
+   * {@link HSSFRecordScanner}, the decryption depends on the position in the stream.
+   */
+  private static boolean isEncrypted(DirectoryNode root) throws IOException {
+    InputStream din = root.createDocumentInputStream("Workbook");
+    try {
+      LittleEndianInputStream lei = new LittleEndianInputStream(din);
+      // BOF, optional WRITEPROTECT, FILEPASS
+      for (int i = 0; i < 3 && lei.available() >= 4; i++) {
+        int sid = lei.readUShort();
+        int length = lei.readUShort();
+        if (sid == FilePassRecord.sid) {
+          return true;
+        }
+        if (sid != BOFRecord.sid && sid != WriteProtectRecord.sid) {
+          return false;
+        }
+        skipFully(din, length);
+      }
+      return false;
+    } finally {
+      din.close();
+    }
+  }
+
+  /**
+   * Closes the file system and its channel, a failure is only traced as the content has already been read.
+   */
+  private static void close(NPOIFSFileSystem npoifs) {
+    try {
+      npoifs.close();
+    } catch (IOException e) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("An exception occurred: " + e.getMessage());
+      }
+    }
+  }
+
+  private static void skipFully(InputStream in, long n) throws IOException {
+    while (n > 0) {
+      long skipped = in.skip(n);
+      if (skipped <= 0) {
+        throw new EOFException("Unexpected end of the Workbook stream");
+      }
+      n -= skipped;
+    }
+  }
+}
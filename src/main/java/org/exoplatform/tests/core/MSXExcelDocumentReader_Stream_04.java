@@ -1,55 +1,116 @@
 package org.exoplatform.tests.core;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.PrivilegedExceptionAction;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
-import org.apache.poi.openxml4j.opc.OPCPackage;
+import javax.xml.stream.XMLStreamException;
 import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
-import org.apache.poi.xssf.eventusermodel.XSSFReader;
 import org.apache.poi.xssf.model.StylesTable;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.exoplatform.commons.utils.SecurityHelper;
 import org.exoplatform.services.document.DocumentReadException;
 import org.exoplatform.services.document.impl.BaseDocumentReader;
-import org.exoplatform.services.document.impl.POIPropertiesReader;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
-import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 /**
- * Patched original eXo MS Excel Document Reader with the following changes .
+ * Patched original eXo MS Excel Document Reader driven by a {@link SpreadsheetExtractionPolicy}.
  * <p/>
- * we only index a maximum of 5000 cells:
+ * with the default policy, we only index a maximum of 5000 cells:
  * - at most 1000 cells per sheet
  * - at most the 5 first tabs of the spreadsheet
  * <p/>
- * we KEEP only the following data :
- * - cells with number (date formatted or simple number)
- * - cells with string
+ * with the default policy, we KEEP only the following data :
+ * - cells with string (with a length > 2 chars)
  * <p/>
- * we SKIP the following data :
+ * with the default policy, we SKIP the following data :
+ * - cells with number
  * - cells with blank value
  * - cells with boolean value
  * - cells with formula
  * - cells with error
+ * <p/>
+ * The parsing of the sheets is stopped as soon as the time budget of the policy is spent
+ * (see {@link ExtractionDeadline}), the text parsed so far is then returned.
+ * <p/>
+ * The styles.xml part is only read when the policy keeps the numbers or the formula results, and formats them
+ * (see {@link SpreadsheetExtractionPolicy#isFormatNumbers()}), with a {@link XSSFCellFormatsTable}.
+ * <p/>
+ * The parts of the package are read with a {@link XSSFZipPackage}, only the parts needed are inflated.
+ * The templates (.xltx) and the macro-enabled workbooks (.xlsm, .xltm) are read like a .xlsx, their macros are
+ * never inflated.
+ * The binary parts of a .xlsb file are read with the same budgets by a {@link XSSFBOptimizedSheetParser_04}, its
+ * shared strings are read in one pass and kept in memory.
+ * When the caller has the file, the parts are read directly from it, instead of loading the package in memory.
+ * A document given as an InputStream is spilled to a temporary file above the spool threshold (see {@link SpooledDocument}).
+ * <p/>
+ * With a sheet executor (see {@link #setSheetExecutor(Executor)}), the sheets are parsed at the same time,
+ * and their text is joined in the order of the workbook, so the text is the same as with the sequential parsing.
+ * <p/>
+ * The text can be written to an {@link Appendable} as it is parsed (see the writeContentAsText methods),
+ * instead of being returned as one String, or read from a {@link Reader} which drives the parsing
+ * (see the getContentAsReader methods).
  */
-public class MSXExcelDocumentReader_Stream_04 extends BaseDocumentReader {
+public class MSXExcelDocumentReader_Stream_04 extends BaseDocumentReader implements FileDocumentReader {
 
   private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.MSXExcelDocumentReader_Stream_04");
-  private static final int MAX_TABS = 5;
-  private static final int MAX_CELLTAB = 1000;
 
+  /**
+   * Default uncompressed size of the sharedStrings.xml part above which the shared strings are not kept in memory
+   */
+  public static final int DEFAULT_SHARED_STRINGS_THRESHOLD = 4 * 1024 * 1024;
+
+  // Share of the time budgets given to the first pass of the two-pass shared strings
+  private static final double FIRST_PASS_SHARE = 0.5;
+
+  private final SpreadsheetExtractionPolicy policy;
+
+  private int spoolThreshold = SpooledDocument.DEFAULT_THRESHOLD;
+
+  private int sharedStringsThreshold = DEFAULT_SHARED_STRINGS_THRESHOLD;
+
+  private boolean twoPassSharedStrings = false;
+
+  private boolean pullSheetParser = false;
+
+  private Executor sheetExecutor;
+
+  /**
+   * Creates a reader with the default {@link SpreadsheetExtractionPolicy}.
+   */
+  public MSXExcelDocumentReader_Stream_04() {
+    this(new SpreadsheetExtractionPolicy());
+  }
+
+  /**
+   * @param policy the extraction policy (kept cells, budgets of cells and tabs) to apply
+   */
+  public MSXExcelDocumentReader_Stream_04(SpreadsheetExtractionPolicy policy) {
+    if (policy == null) {
+      throw new IllegalArgumentException("SpreadsheetExtractionPolicy is null.");
+    }
+    this.policy = policy;
+  }
+
+  public SpreadsheetExtractionPolicy getPolicy() {
+    return policy;
+  }
 
   /**
    * @see org.exoplatform.services.document.DocumentReader#getMimeTypes()
@@ -57,45 +118,239 @@ public class MSXExcelDocumentReader_Stream_04 extends BaseDocumentReader {
   public String[] getMimeTypes() {
     //Supported mimetypes:
     // "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet" - "x.xlsx"
+    // "application/vnd.ms-excel.sheet.binary.macroenabled.12" - "*.xlsb"; Binary parts, see XSSFBOptimizedSheetParser_04
+    // "application/vnd.openxmlformats-officedocument.spreadsheetml.template" - "x.xltx"
+    // "application/vnd.ms-excel.sheet.macroenabled.12" - "x.xlsm"
+    // "application/vnd.ms-excel.template.macroenabled.12" - "x.xltm"
+    // Same parts as a .xlsx, only the content type of the workbook differs, the macros (vbaProject.bin) are never read
     //
     //Unsupported mimetypes:
-    // "application/vnd.ms-excel.sheet.binary.macroenabled.12" - "*.xlsb"; There is exceptions at parsing
-    // "application/vnd.openxmlformats-officedocument.spreadsheetml.template" - "x.xltx"; Not tested
-    // "application/vnd.ms-excel.sheet.macroenabled.12" - "x.xlsm"; Not tested
-    // "application/vnd.ms-excel.template.macroenabled.12" - "x.xltm"; Not tested
     // "application/vnd.ms-excel.addin.macroenabled.12" - "x.xlam"; Not tested
-    return new String[]{"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"};
+    return new String[]{"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+        "application/vnd.ms-excel.sheet.binary.macroenabled.12",
+        "application/vnd.openxmlformats-officedocument.spreadsheetml.template",
+        "application/vnd.ms-excel.sheet.macroenabled.12",
+        "application/vnd.ms-excel.template.macroenabled.12"};
   }
 
   public void processSheet(
       XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsExtractor,
       StylesTable styles,
-      ReadOnlySharedStringsTable strings,
+      final ReadOnlySharedStringsTable strings,
+      InputStream sheetInputStream)
+      throws IOException, SAXException {
+    processSheet(sheetContentsExtractor, styles, new XSSFSharedStrings() {
+      public String getEntryAt(int idx) {
+        return strings.getEntryAt(idx);
+      }
+    }, sheetInputStream);
+  }
+
+  /**
+   * The cells are kept according to the policy of the reader, the numbers are not formatted.
+   *
+   * @param styles Table of styles, which is not used
+   */
+  public void processSheet(
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsExtractor,
+      StylesTable styles,
+      XSSFSharedStrings strings,
+      InputStream sheetInputStream)
+      throws IOException, SAXException {
+    processSheet(sheetContentsExtractor, null, strings, policy.getMaxCellsPerTab(), sheetInputStream);
+  }
+
+  /**
+   * @param formats         Number formats of the cell styles, null to keep the numbers as they are stored
+   * @param maxCellsToParse the maximum number of cells to parse in the sheet (-1 mean All cells in the sheet)
+   */
+  public void processSheet(
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsExtractor,
+      XSSFCellFormats formats,
+      XSSFSharedStrings strings,
+      long maxCellsToParse,
+      InputStream sheetInputStream)
+      throws IOException, SAXException {
+    processSheet(sheetContentsExtractor, formats, strings, maxCellsToParse, null, sheetInputStream);
+  }
+
+  /**
+   * @param formats         Number formats of the cell styles, null to keep the numbers as they are stored
+   * @param maxCellsToParse the maximum number of cells to parse in the sheet (-1 mean All cells in the sheet)
+   * @param deadline        the deadline of the extraction, null if none
+   */
+  public void processSheet(
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsExtractor,
+      XSSFCellFormats formats,
+      XSSFSharedStrings strings,
+      long maxCellsToParse,
+      ExtractionDeadline deadline,
       InputStream sheetInputStream)
       throws IOException, SAXException {
 
     InputSource sheetSource = new InputSource(sheetInputStream);
-    SAXParserFactory saxFactory = SAXParserFactory.newInstance();
+    XMLReader sheetParser = XMLReaderPool.DEFAULT.acquire();
     try {
-      SAXParser saxParser = saxFactory.newSAXParser();
-      XMLReader sheetParser = saxParser.getXMLReader();
-      ContentHandler handler = new XSSFOptimizedSheetXMLHandler_04(
-          styles, strings,
+      XSSFOptimizedSheetXMLHandler_04 handler = new XSSFOptimizedSheetXMLHandler_04(
+          formats, strings,
           sheetContentsExtractor,
-          MAX_CELLTAB);
+          policy, maxCellsToParse);
+      handler.setDeadline(deadline);
       sheetParser.setContentHandler(handler);
       sheetParser.parse(sheetSource);
-    } catch (ParserConfigurationException e) {
-      throw new RuntimeException("SAX parser appears to be broken - " + e.getMessage());
     } catch (XSSFOptimizedSheetXMLHandler_04.StopSheetParsingException e) {
-      // this exception allow us to stop the parsing of the sheet when we have reached the number of cell to parse per sheet ({@link MAX_CELLTAB }
+      // this exception allow us to stop the parsing of the sheet when we have reached the number of cell to parse per sheet
       LOG.info(this.toString() + " - " + e.getLocalizedMessage());
       if (LOG.isTraceEnabled()) {
         LOG.trace(e.getLocalizedMessage());
       }
+    } finally {
+      XMLReaderPool.DEFAULT.release(sheetParser);
+    }
+  }
+
+  /**
+   * Same as {@link #processSheet(XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler, XSSFCellFormats, XSSFSharedStrings, long, InputStream)}
+   * with a StAX pull parser (see {@link XSSFOptimizedSheetPullParser_04}), which stops pulling at the maximum number
+   * of cells to parse instead of being stopped by an exception.
+   */
+  public void processSheetWithPullParser(
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsExtractor,
+      XSSFCellFormats formats,
+      XSSFSharedStrings strings,
+      long maxCellsToParse,
+      InputStream sheetInputStream)
+      throws IOException, DocumentReadException {
+    processSheetWithPullParser(sheetContentsExtractor, formats, strings, maxCellsToParse, null, sheetInputStream);
+  }
+
+  /**
+   * @param deadline the deadline of the extraction, null if none
+   */
+  public void processSheetWithPullParser(
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsExtractor,
+      XSSFCellFormats formats,
+      XSSFSharedStrings strings,
+      long maxCellsToParse,
+      ExtractionDeadline deadline,
+      InputStream sheetInputStream)
+      throws IOException, DocumentReadException {
+
+    XSSFOptimizedSheetPullParser_04 parser = new XSSFOptimizedSheetPullParser_04(
+        formats, strings,
+        sheetContentsExtractor,
+        policy, maxCellsToParse);
+    parser.setDeadline(deadline);
+    try {
+      if (!parser.parse(sheetInputStream)) {
+        if (deadline != null && deadline.isExpired()) {
+          LOG.info(this.toString() + " - Deadline of the extraction expired");
+        } else {
+          LOG.info(this.toString() + " - Maximum number of cells to parse per sheet reached (max=" + maxCellsToParse + ")");
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new DocumentReadException("Problem during the document parsing.", e);
+    }
+  }
+
+  /**
+   * Same as {@link #processSheetWithPullParser(XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler, XSSFCellFormats, XSSFSharedStrings, long, ExtractionDeadline, InputStream)}
+   * for the sheet#.bin sheet part of a .xlsb file (see {@link XSSFBOptimizedSheetParser_04}).
+   *
+   * @param deadline the deadline of the extraction, null if none
+   */
+  public void processBinarySheet(
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsExtractor,
+      XSSFCellFormats formats,
+      XSSFSharedStrings strings,
+      long maxCellsToParse,
+      ExtractionDeadline deadline,
+      InputStream sheetInputStream)
+      throws IOException {
+
+    XSSFBOptimizedSheetParser_04 parser = new XSSFBOptimizedSheetParser_04(
+        formats, strings,
+        sheetContentsExtractor,
+        policy, maxCellsToParse);
+    parser.setDeadline(deadline);
+    if (!parser.parse(sheetInputStream)) {
+      if (deadline != null && deadline.isExpired()) {
+        LOG.info(this.toString() + " - Deadline of the extraction expired");
+      } else {
+        LOG.info(this.toString() + " - Maximum number of cells to parse per sheet reached (max=" + maxCellsToParse + ")");
+      }
     }
   }
 
+  public int getSpoolThreshold() {
+    return spoolThreshold;
+  }
+
+  /**
+   * @param spoolThreshold the size above which a document given as an InputStream is spilled to a temporary file,
+   *                       to be read from the file instead of being loaded in memory
+   */
+  public void setSpoolThreshold(int spoolThreshold) {
+    this.spoolThreshold = spoolThreshold;
+  }
+
+  public int getSharedStringsThreshold() {
+    return sharedStringsThreshold;
+  }
+
+  /**
+   * @param sharedStringsThreshold the uncompressed size of the sharedStrings.xml part above which the shared strings
+   *                               are stored in temporary files instead of being kept in memory
+   *                               (see {@link XSSFLazySharedStringsTable})
+   */
+  public void setSharedStringsThreshold(int sharedStringsThreshold) {
+    this.sharedStringsThreshold = sharedStringsThreshold;
+  }
+
+  public boolean isTwoPassSharedStrings() {
+    return twoPassSharedStrings;
+  }
+
+  /**
+   * @param twoPassSharedStrings parse the sheets a first time to record the shared strings referenced by the cells
+   *                             within the budget, so only those strings are kept from the sharedStrings.xml part
+   *                             (see {@link XSSFReferencedSharedStringsTable})
+   */
+  public void setTwoPassSharedStrings(boolean twoPassSharedStrings) {
+    this.twoPassSharedStrings = twoPassSharedStrings;
+  }
+
+  public boolean isPullSheetParser() {
+    return pullSheetParser;
+  }
+
+  /**
+   * @param pullSheetParser parse the sheets with a StAX pull parser instead of a SAX parser
+   *                        (see {@link XSSFOptimizedSheetPullParser_04})
+   */
+  public void setPullSheetParser(boolean pullSheetParser) {
+    this.pullSheetParser = pullSheetParser;
+  }
+
+  public Executor getSheetExecutor() {
+    return sheetExecutor;
+  }
+
+  /**
+   * The sheets are parsed in parallel only if the policy has no maximum number of cells for the whole spreadsheet,
+   * as the budget of a sheet depends on the cells parsed in the previous sheets.
+   * <p/>
+   * The calling thread parses the sheets which are not started yet when it waits for them, so a busy executor
+   * (or an executor whose threads are themselves reading documents) never blocks the reading.
+   *
+   * @param sheetExecutor the executor (thread pool, ForkJoinPool, virtual threads, ...) parsing the sheets
+   *                      at the same time, or null to parse them one after another on the calling thread
+   */
+  public void setSheetExecutor(Executor sheetExecutor) {
+    this.sheetExecutor = sheetExecutor;
+  }
+
   /**
    * Returns only a text from .xlsx file content.
    *
@@ -103,43 +358,58 @@ public class MSXExcelDocumentReader_Stream_04 extends BaseDocumentReader {
    * @return The string only with text from file content.
    */
   public String getContentAsText(final InputStream is) throws IOException, DocumentReadException {
+    return getContentAsText(is, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param deadline the deadline of the extraction, the text parsed before it expires is returned
+   */
+  public String getContentAsText(InputStream is, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    StringBuilder text = new StringBuilder(200);
+    writeContentAsText(is, text, deadline);
+    return text.toString();
+  }
+
+  /**
+   * Writes the text of the document as it is parsed (see {@link TextSink}), instead of returning it as one String.
+   *
+   * @param output where the text is written (a Writer, a CharBuffer, ...), the parsing stops once a CharBuffer is full
+   */
+  public void writeContentAsText(InputStream is, Appendable output) throws IOException, DocumentReadException {
+    writeContentAsText(is, output, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param output   where the text is written (a Writer, a CharBuffer, ...), the parsing stops once a CharBuffer is full
+   * @param deadline the deadline of the extraction, the text parsed before it expires is written
+   */
+  public void writeContentAsText(InputStream is, Appendable output, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
     if (is == null) {
       throw new IllegalArgumentException("InputStream is null.");
     }
 
-    final StringBuilder text = new StringBuilder(200);
-
     try {
       if (is.available() == 0) {
-        return "";
+        return;
       }
+      SpooledDocument document = SpooledDocument.spool(is, spoolThreshold);
       try {
-        OPCPackage container = OPCPackage.open(is);
-        ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(container);
-        XSSFReader xssfReader = new XSSFReader(container);
-        StylesTable styles = xssfReader.getStylesTable();
-        XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
-        XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetExtractor = new SheetTextExtractor(text);
-        int parsedTabs = 0;
-        while (iter.hasNext() && parsedTabs < MAX_TABS) {
-          InputStream stream = iter.next();
-          text.append('\n');
-          text.append(iter.getSheetName());
-          text.append('\n');
-          processSheet(
-              sheetExtractor,
-              styles, strings, stream);
-          stream.close();
-          parsedTabs++;
-        }
-      } catch (InvalidFormatException e) {
-        throw new DocumentReadException("The format of the document to read is invalid.", e);
-      } catch (SAXException e) {
-        throw new DocumentReadException("Problem during the document parsing.", e);
-      } catch (OpenXML4JException e) {
-        throw new DocumentReadException("Problem during the document parsing.", e);
+        if (document.isSpilled()) {
+          writeContentAsText(document.getFile(), output, deadline);
+          return;
+        }
+        TextSink text = TextSink.of(output, policy);
+        XSSFZipPackage container = XSSFZipPackage.open(document.getInputStream());
+        try {
+          extractText(container, text, deadline);
+        } finally {
+          container.close();
+        }
+        text.flush();
+      } finally {
+        document.release();
       }
-
     } finally {
       if (is != null) {
         try {
@@ -151,9 +421,430 @@ public class MSXExcelDocumentReader_Stream_04 extends BaseDocumentReader {
         }
       }
     }
+  }
+
+  public String getContentAsText(Path path) throws IOException, DocumentReadException {
+    return getContentAsText(path, ExtractionDeadline.of(policy));
+  }
+
+  public String getContentAsText(Path path, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    if (path == null) {
+      throw new IllegalArgumentException("Path is null.");
+    }
+    return getContentAsText(path.toFile(), deadline);
+  }
+
+  /**
+   * Returns only a text from .xlsx file content. Only the needed parts are read directly from the zip file,
+   * the package is not loaded in memory (see {@link XSSFZipPackage}).
+   *
+   * @param file the .xlsx file
+   * @return The string only with text from file content.
+   */
+  public String getContentAsText(File file) throws IOException, DocumentReadException {
+    return getContentAsText(file, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param file     the .xlsx file
+   * @param deadline the deadline of the extraction, the text parsed before it expires is returned
+   */
+  public String getContentAsText(File file, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    StringBuilder text = new StringBuilder(200);
+    writeContentAsText(file, text, deadline);
     return text.toString();
   }
 
+  /**
+   * @param file   the .xlsx file
+   * @param output where the text is written (a Writer, a CharBuffer, ...), the parsing stops once a CharBuffer is full
+   */
+  public void writeContentAsText(File file, Appendable output) throws IOException, DocumentReadException {
+    writeContentAsText(file, output, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param file     the .xlsx file
+   * @param output   where the text is written (a Writer, a CharBuffer, ...), the parsing stops once a CharBuffer is full
+   * @param deadline the deadline of the extraction, the text parsed before it expires is written
+   */
+  public void writeContentAsText(File file, Appendable output, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (file == null) {
+      throw new IllegalArgumentException("File is null.");
+    }
+
+    if (file.length() == 0) {
+      return;
+    }
+    TextSink text = TextSink.of(output, policy);
+    XSSFZipPackage container = XSSFZipPackage.open(file);
+    try {
+      extractText(container, text, deadline);
+    } finally {
+      container.close();
+    }
+    text.flush();
+  }
+
+  /**
+   * Returns the text of the document as a {@link Reader} : the sheets are only parsed as far as the text is read
+   * (see {@link SpreadsheetTextReader}).
+   *
+   * @param is the stream of the document, which is read (and spilled to a temporary file above the spool threshold)
+   *           and closed before the reader is returned
+   * @return the reader of the text, which must be closed
+   */
+  public SpreadsheetTextReader getContentAsReader(InputStream is) throws IOException, DocumentReadException {
+    return getContentAsReader(is, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param deadline the deadline of the extraction, the text parsed before it expires is read
+   */
+  public SpreadsheetTextReader getContentAsReader(InputStream is, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (is == null) {
+      throw new IllegalArgumentException("InputStream is null.");
+    }
+
+    try {
+      if (is.available() == 0) {
+        return new PackageTextReader(deadline);
+      }
+      SpooledDocument document = SpooledDocument.spool(is, spoolThreshold);
+      if (document.isSpilled()) {
+        // the temporary file is deleted once the reader is closed
+        PackageTextReader reader = new PackageTextReader(deadline);
+        reader.document = document;
+        openPackage(reader, document.getFile());
+        return reader;
+      }
+      PackageTextReader reader = new PackageTextReader(deadline);
+      // the xml parts are kept in memory
+      XSSFZipPackage container = XSSFZipPackage.open(document.getInputStream());
+      openPackage(reader, container);
+      return reader;
+    } finally {
+      try {
+        is.close();
+      } catch (IOException e) {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("An exception occurred: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the text of the document as a {@link Reader} : the parts are read directly from the zip file,
+   * and the sheets are only parsed as far as the text is read (see {@link SpreadsheetTextReader}).
+   *
+   * @param file the .xlsx file
+   * @return the reader of the text, which must be closed
+   */
+  public SpreadsheetTextReader getContentAsReader(File file) throws IOException, DocumentReadException {
+    return getContentAsReader(file, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * @param file     the .xlsx file
+   * @param deadline the deadline of the extraction, the text parsed before it expires is read
+   */
+  public SpreadsheetTextReader getContentAsReader(File file, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (file == null) {
+      throw new IllegalArgumentException("File is null.");
+    }
+
+    PackageTextReader reader = new PackageTextReader(deadline);
+    if (file.length() > 0) {
+      openPackage(reader, file);
+    }
+    return reader;
+  }
+
+  /**
+   * The reader is closed if the package can't be opened.
+   */
+  private static void openPackage(PackageTextReader reader, File file) throws IOException, DocumentReadException {
+    boolean opened = false;
+    try {
+      reader.open(XSSFZipPackage.open(file));
+      opened = true;
+    } finally {
+      if (!opened) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * The reader is closed if the package can't be read.
+   */
+  private static void openPackage(PackageTextReader reader, XSSFZipPackage container)
+      throws IOException, DocumentReadException {
+    boolean opened = false;
+    try {
+      reader.open(container);
+      opened = true;
+    } finally {
+      if (!opened) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Only the shared strings, the styles if the numbers are formatted and the first sheets of the policy are inflated,
+   * each sheet is streamed straight into the SAX handler (or the pull parser).
+   */
+  private void extractText(XSSFZipPackage container, TextSink text, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    XSSFSharedStrings strings = XSSFSharedStringsTable.EMPTY;
+    try {
+      XSSFCellFormats formats = readCellFormats(container);
+      String sharedStringsPartName = container.getSharedStringsPartName();
+      if (sharedStringsPartName != null && policy.isKeepStrings() && twoPassSharedStrings && !container.isBinary()) {
+        strings = readReferencedSharedStrings(container, sharedStringsPartName, deadline);
+      } else if (sharedStringsPartName != null && policy.isKeepStrings()) {
+        strings = readSharedStrings(container, sharedStringsPartName);
+      }
+      parseSheets(container, formats, strings, text, deadline);
+    } catch (SAXException e) {
+      throw new DocumentReadException("Problem during the document parsing.", e);
+    } finally {
+      if (strings instanceof Closeable) {
+        ((Closeable) strings).close();
+      }
+    }
+  }
+
+  /**
+   * First pass of the two-pass shared strings : only the shared strings referenced by the cells within the budget
+   * are recorded. The first pass is given a share of the time budgets, the remaining is left to the second pass
+   * which gathers the text : if the first pass is stopped by its share of the budgets, the shared strings are read
+   * in one pass instead (see {@link #readSharedStrings}).
+   */
+  private XSSFSharedStrings readReferencedSharedStrings(XSSFZipPackage container, String sharedStringsPartName,
+                                                        ExtractionDeadline deadline)
+      throws IOException, SAXException, DocumentReadException {
+    ExtractionDeadline firstPassDeadline = deadline != null ? new ExtractionDeadline(deadline, FIRST_PASS_SHARE) : null;
+    XSSFReferencedSharedStringsTable referencedStrings = new XSSFReferencedSharedStringsTable();
+    parseSheets(container, null, referencedStrings, null, firstPassDeadline);
+    if (firstPassDeadline != null && firstPassDeadline.isExpired()) {
+      if (deadline.checkExpired()) {
+        // no time is left to gather the text
+        return XSSFSharedStringsTable.EMPTY;
+      }
+      return readSharedStrings(container, sharedStringsPartName);
+    }
+    InputStream stream = container.getPart(sharedStringsPartName);
+    try {
+      referencedStrings.load(stream);
+    } finally {
+      stream.close();
+    }
+    return referencedStrings;
+  }
+
+  /**
+   * @return the number formats of the styles, or null if the numbers are not formatted
+   */
+  private XSSFCellFormats readCellFormats(XSSFZipPackage container)
+      throws IOException, SAXException, DocumentReadException {
+    if (!isStylesNeeded() || container.getStylesPartName() == null) {
+      return null;
+    }
+    InputStream stream = container.getPart(container.getStylesPartName());
+    try {
+      if (container.isBinary()) {
+        return new XSSFBCellFormatsTable(stream);
+      }
+      return new XSSFCellFormatsTable(stream);
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * The shared strings are kept in memory up to the shared strings threshold, the binary shared strings
+   * are always kept in memory.
+   */
+  private XSSFSharedStrings readSharedStrings(XSSFZipPackage container, String sharedStringsPartName)
+      throws IOException, SAXException, DocumentReadException {
+    long size = container.getPartSize(sharedStringsPartName);
+    InputStream stream = container.getPart(sharedStringsPartName);
+    try {
+      if (container.isBinary()) {
+        return new XSSFBSharedStringsTable(stream);
+      }
+      if (size >= 0 && size <= sharedStringsThreshold) {
+        return new XSSFSharedStringsTable(stream);
+      }
+      // too many strings to keep them in memory
+      return new XSSFLazySharedStringsTable(stream);
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * @return true if the numbers kept by the policy are formatted with the number formats of the styles
+   */
+  private boolean isStylesNeeded() {
+    return policy.isFormatNumbers() && (policy.isKeepNumbers() || policy.isKeepFormulas());
+  }
+
+  /**
+   * @param text where the text of the sheets is appended, or null to only resolve the shared strings of the cells
+   */
+  private void parseSheets(XSSFZipPackage container, XSSFCellFormats formats, XSSFSharedStrings strings,
+                           TextSink text, ExtractionDeadline deadline)
+      throws IOException, SAXException, DocumentReadException {
+    if (sheetExecutor != null && policy.getMaxCells() < 0) {
+      parseSheetsInParallel(container, formats, strings, text, deadline);
+      return;
+    }
+    SheetTextExtractor sheetExtractor = new SheetTextExtractor(text, deadline);
+    int parsedTabs = 0;
+    for (XSSFZipPackage.Sheet sheet : container.getSheets()) {
+      if (policy.isMaxTabsReached(parsedTabs) || policy.isMaxCellsReached(sheetExtractor.getCellsParsed())
+          || deadline != null && deadline.checkExpired() || text != null && text.isStopped()) {
+        break;
+      }
+      long maxCellsToParse = getMaxCellsToParse(sheetExtractor.getCellsParsed());
+      if (text != null) {
+        text.append('\n');
+        text.append(sheet.getName());
+        text.append('\n');
+      }
+      parseSheet(container, sheet, formats, strings, maxCellsToParse, deadline, sheetExtractor);
+      parsedTabs++;
+    }
+  }
+
+  /**
+   * @param cellsParsed the number of cells parsed in the previous sheets
+   * @return the maximum number of cells to parse in the next sheet
+   */
+  private long getMaxCellsToParse(int cellsParsed) {
+    long maxCellsToParse = policy.getMaxCellsPerTab();
+    if (policy.getMaxCells() >= 0) {
+      // the handler stops once more than maxCellsToParse cells are parsed
+      long remainingCells = policy.getMaxCells() - cellsParsed - 1;
+      maxCellsToParse = maxCellsToParse >= 0 ? Math.min(maxCellsToParse, remainingCells) : remainingCells;
+    }
+    return maxCellsToParse;
+  }
+
+  /**
+   * Each sheet is parsed by a task of the sheet executor, with its own extractor. Once the deadline is expired,
+   * the sheets not started yet are skipped.
+   * <p/>
+   * The text of a sheet is capped to the chars the text can still take when its task starts : the calling thread
+   * lowers this budget as it appends the text of the sheets, in their order.
+   * <p/>
+   * The tasks are stopped through their deadline, never interrupted : an interrupt would close the file channels
+   * shared by the tasks (the zip file, the file of the lazy shared strings). The method returns only once every
+   * started task is over, as the caller closes the package and the shared strings right after.
+   */
+  private void parseSheetsInParallel(XSSFZipPackage container, XSSFCellFormats formats, XSSFSharedStrings strings,
+                                     TextSink text, ExtractionDeadline deadline)
+      throws IOException, SAXException, DocumentReadException {
+    List<XSSFZipPackage.Sheet> sheets = new ArrayList<XSSFZipPackage.Sheet>();
+    for (XSSFZipPackage.Sheet sheet : container.getSheets()) {
+      if (policy.isMaxTabsReached(sheets.size())) {
+        break;
+      }
+      sheets.add(sheet);
+    }
+    // cancelled to stop the tasks, without expiring the deadline of the extraction
+    ExtractionDeadline tasksDeadline = deadline != null ? new ExtractionDeadline(deadline)
+        : new ExtractionDeadline(ExtractionDeadline.UNLIMITED, ExtractionDeadline.UNLIMITED);
+    // the chars the text can still take, -1 if there is no maximum
+    AtomicInteger charsLeft = text != null ? new AtomicInteger(text.getRemainingLength()) : null;
+    List<SheetTask> sheetTasks = new ArrayList<SheetTask>(sheets.size());
+    List<FutureTask<StringBuilder>> tasks = new ArrayList<FutureTask<StringBuilder>>(sheets.size());
+    try {
+      for (XSSFZipPackage.Sheet sheet : sheets) {
+        SheetTask sheetTask = new SheetTask(container, sheet, formats, strings, charsLeft, tasksDeadline);
+        FutureTask<StringBuilder> task = new FutureTask<StringBuilder>(sheetTask);
+        sheetTasks.add(sheetTask);
+        tasks.add(task);
+        sheetExecutor.execute(task);
+      }
+      for (int i = 0; i < tasks.size(); i++) {
+        FutureTask<StringBuilder> task = tasks.get(i);
+        // parses the sheet on the calling thread if no thread of the executor has started it yet
+        task.run();
+        StringBuilder sheetText = task.get();
+        if (text != null) {
+          text.append('\n');
+          text.append(sheets.get(i).getName());
+          text.append('\n');
+          text.append(sheetText);
+          charsLeft.set(text.getRemainingLength());
+          if (text.isStopped()) {
+            // the text can't be written anymore, the remaining sheets are cancelled
+            if (deadline != null) {
+              deadline.stop();
+            }
+            break;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DocumentReadException("The parsing of the sheets has been interrupted.", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof SAXException) {
+        throw (SAXException) cause;
+      } else if (cause instanceof DocumentReadException) {
+        throw (DocumentReadException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new DocumentReadException("Problem during the document parsing.", cause);
+    } finally {
+      // the sheets after a failed one are not needed anymore
+      tasksDeadline.cancel();
+      for (int i = 0; i < tasks.size(); i++) {
+        tasks.get(i).cancel(false);
+        sheetTasks.get(i).skipOrAwait();
+      }
+    }
+  }
+
+  private void parseSheet(XSSFZipPackage container, XSSFZipPackage.Sheet sheet, XSSFCellFormats formats,
+                          XSSFSharedStrings strings, long maxCellsToParse, ExtractionDeadline deadline,
+                          SheetTextExtractor sheetExtractor)
+      throws IOException, SAXException, DocumentReadException {
+    InputStream stream = container.getPart(sheet.getPartName());
+    try {
+      if (container.isBinary()) {
+        processBinarySheet(
+            sheetExtractor,
+            formats, strings, maxCellsToParse, deadline, stream);
+      } else if (pullSheetParser) {
+        processSheetWithPullParser(
+            sheetExtractor,
+            formats, strings, maxCellsToParse, deadline, stream);
+      } else {
+        processSheet(
+            sheetExtractor,
+            formats, strings, maxCellsToParse, deadline, stream);
+      }
+    } finally {
+      stream.close();
+    }
+  }
+
   public String getContentAsText(InputStream is, String encoding) throws IOException, DocumentReadException {
     // Ignore encoding
     return getContentAsText(is);
@@ -166,23 +857,320 @@ public class MSXExcelDocumentReader_Stream_04 extends BaseDocumentReader {
    *      InputStream)
    */
   public Properties getProperties(final InputStream is) throws IOException, DocumentReadException {
-    POIPropertiesReader reader = new POIPropertiesReader();
-    reader.readDCProperties(SecurityHelper
-                                .doPrivilegedIOExceptionAction(new PrivilegedExceptionAction<XSSFWorkbook>() {
-                                  public XSSFWorkbook run() throws Exception {
-                                    return new XSSFWorkbook(is);
-                                  }
-                                }));
+    SpooledDocument document = SpooledDocument.spool(is, spoolThreshold);
+    try {
+      if (document.isSpilled()) {
+        return getProperties(document.getFile());
+      }
+      return readProperties(XSSFZipPackage.open(document.getInputStream()));
+    } finally {
+      document.release();
+    }
+  }
 
-    return reader.getProperties();
+  public Properties getProperties(Path path) throws IOException, DocumentReadException {
+    if (path == null) {
+      throw new IllegalArgumentException("Path is null.");
+    }
+    return getProperties(path.toFile());
   }
 
+  /**
+   * Only the core properties part is read directly from the zip file, the workbook itself is not loaded.
+   *
+   * @param file the .xlsx file
+   */
+  public Properties getProperties(File file) throws IOException, DocumentReadException {
+    if (file == null) {
+      throw new IllegalArgumentException("File is null.");
+    }
+    return readProperties(XSSFZipPackage.open(file));
+  }
+
+  /**
+   * Reads the core properties part of the package, which is then closed : neither the other parts nor the workbook
+   * are loaded, whatever the format of its parts (xml or binary).
+   */
+  private static Properties readProperties(XSSFZipPackage container) throws IOException, DocumentReadException {
+    try {
+      POIPropertiesReader_Stream_04 reader = new POIPropertiesReader_Stream_04();
+      String corePropertiesPartName = container.getCorePropertiesPartName();
+      if (corePropertiesPartName != null) {
+        reader.readDCProperties(container.getPart(corePropertiesPartName));
+      }
+      return reader.getProperties();
+    } finally {
+      container.close();
+    }
+  }
+
+  /**
+   * Parses a sheet in parallel with the other ones (see {@link #parseSheetsInParallel}).
+   * <p/>
+   * The task is run by a thread of the sheet executor, or by the calling thread if it is not started yet when the
+   * calling thread waits for it. A task skipped before it is started is never run.
+   */
+  private class SheetTask implements Callable<StringBuilder> {
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int SKIPPED = 2;
+
+    private final XSSFZipPackage container;
+    private final XSSFZipPackage.Sheet sheet;
+    private final XSSFCellFormats formats;
+    private final XSSFSharedStrings strings;
+    // the chars the text can still take, -1 if there is no maximum, null if there is no text
+    private final AtomicInteger charsLeft;
+    private final ExtractionDeadline tasksDeadline;
+
+    private final AtomicInteger state = new AtomicInteger(NEW);
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    SheetTask(XSSFZipPackage container, XSSFZipPackage.Sheet sheet, XSSFCellFormats formats,
+              XSSFSharedStrings strings, AtomicInteger charsLeft, ExtractionDeadline tasksDeadline) {
+      this.container = container;
+      this.sheet = sheet;
+      this.formats = formats;
+      this.strings = strings;
+      this.charsLeft = charsLeft;
+      this.tasksDeadline = tasksDeadline;
+    }
+
+    public StringBuilder call() throws Exception {
+      if (!state.compareAndSet(NEW, RUNNING)) {
+        return null;
+      }
+      try {
+        StringBuilder sheetText = charsLeft != null ? new StringBuilder(200) : null;
+        TextSink sheetSink = null;
+        int maxChars = -1;
+        if (sheetText != null) {
+          maxChars = charsLeft.get();
+          sheetSink = new TextSink(sheetText);
+          sheetSink.setMaxLength(maxChars);
+        }
+        if (maxChars != 0 && !tasksDeadline.checkExpired()) {
+          // the sheet is stopped on its own once its text reaches the chars left
+          ExtractionDeadline sheetDeadline = new ExtractionDeadline(tasksDeadline);
+          parseSheet(container, sheet, formats, strings, policy.getMaxCellsPerTab(), sheetDeadline,
+                     new SheetTextExtractor(sheetSink, sheetDeadline));
+        }
+        return sheetText;
+      } finally {
+        done.countDown();
+      }
+    }
+
+    /**
+     * Prevents the task from starting, or waits for its end if it is already started.
+     */
+    void skipOrAwait() {
+      if (state.compareAndSet(NEW, SKIPPED)) {
+        return;
+      }
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          // the task is stopped by its deadline, the interrupt is restored once it is over
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Pulls the events of the sheets one by one with a {@link XSSFOptimizedSheetPullParser_04} (or the records with a
+   * {@link XSSFBOptimizedSheetParser_04} for a .xlsb file), as the text is read.
+   * <p/>
+   * The shared strings are read in one pass (see {@link #setTwoPassSharedStrings(boolean)}), and the sheets are
+   * parsed one after the other (see {@link #setSheetExecutor(Executor)}) : both would parse the sheets ahead of
+   * the text read.
+   */
+  private class PackageTextReader extends SpreadsheetTextReader {
+
+    // The temporary file of a spilled document, null if none
+    private SpooledDocument document;
+
+    private XSSFZipPackage container;
+
+    private XSSFCellFormats formats;
+
+    private XSSFSharedStrings strings = XSSFSharedStringsTable.EMPTY;
+
+    private Iterator<XSSFZipPackage.Sheet> sheets;
+
+    private SheetTextExtractor sheetExtractor;
+
+    private int parsedTabs = 0;
+
+    // Parser and stream of the sheet being parsed, null between two sheets
+    private XSSFOptimizedSheetPullParser_04 parser;
+
+    private XSSFBOptimizedSheetParser_04 binaryParser;
+
+    private InputStream sheetStream;
+
+    private long maxCellsToParse;
+
+    private PackageTextReader(ExtractionDeadline deadline) {
+      super(policy, deadline);
+    }
+
+    private void open(XSSFZipPackage container) throws IOException, DocumentReadException {
+      this.container = container;
+      try {
+        formats = readCellFormats(container);
+        String sharedStringsPartName = container.getSharedStringsPartName();
+        if (sharedStringsPartName != null && policy.isKeepStrings()) {
+          strings = readSharedStrings(container, sharedStringsPartName);
+        }
+      } catch (SAXException e) {
+        throw new DocumentReadException("Problem during the document parsing.", e);
+      }
+      sheets = container.getSheets().iterator();
+      sheetExtractor = new SheetTextExtractor(getSink(), getDeadline());
+    }
+
+    @Override
+    protected boolean parseNext() throws IOException {
+      if (sheets == null) {
+        // empty document
+        return false;
+      }
+      try {
+        if (sheetStream == null) {
+          return startNextSheet();
+        }
+        if (!(binaryParser != null ? binaryParser.pullNext() : parser.pullNext())) {
+          endSheet();
+        }
+        return true;
+      } catch (XMLStreamException e) {
+        throw new IOException("Problem during the document parsing.", e);
+      } catch (DocumentReadException e) {
+        throw new IOException("Problem during the document parsing.", e);
+      }
+    }
+
+    /**
+     * @return false if there is no more sheet to parse
+     */
+    private boolean startNextSheet() throws IOException, DocumentReadException, XMLStreamException {
+      TextSink text = getSink();
+      ExtractionDeadline deadline = getDeadline();
+      if (!sheets.hasNext() || policy.isMaxTabsReached(parsedTabs)
+          || policy.isMaxCellsReached(sheetExtractor.getCellsParsed())
+          || deadline != null && deadline.checkExpired() || text.isStopped()) {
+        return false;
+      }
+      XSSFZipPackage.Sheet sheet = sheets.next();
+      maxCellsToParse = getMaxCellsToParse(sheetExtractor.getCellsParsed());
+      text.append('\n');
+      text.append(sheet.getName());
+      text.append('\n');
+      sheetStream = container.getPart(sheet.getPartName());
+      if (container.isBinary()) {
+        binaryParser = new XSSFBOptimizedSheetParser_04(formats, strings, sheetExtractor, policy, maxCellsToParse);
+        binaryParser.setDeadline(deadline);
+        binaryParser.open(sheetStream);
+      } else {
+        parser = new XSSFOptimizedSheetPullParser_04(formats, strings, sheetExtractor, policy, maxCellsToParse);
+        parser.setDeadline(deadline);
+        parser.open(sheetStream);
+      }
+      return true;
+    }
+
+    private void endSheet() throws IOException, XMLStreamException {
+      if (binaryParser != null ? binaryParser.isStopped() : parser.isStopped()) {
+        if (getDeadline() != null && getDeadline().isExpired()) {
+          LOG.info(MSXExcelDocumentReader_Stream_04.this.toString() + " - Deadline of the extraction expired");
+        } else {
+          LOG.info(MSXExcelDocumentReader_Stream_04.this.toString()
+                       + " - Maximum number of cells to parse per sheet reached (max=" + maxCellsToParse + ")");
+        }
+      }
+      closeSheet();
+      parsedTabs++;
+    }
+
+    private void closeSheet() throws IOException, XMLStreamException {
+      try {
+        if (binaryParser != null) {
+          binaryParser.close();
+        } else if (parser != null) {
+          parser.close();
+        }
+      } finally {
+        parser = null;
+        binaryParser = null;
+        sheetStream.close();
+        sheetStream = null;
+      }
+    }
+
+    @Override
+    protected void release() throws IOException {
+      try {
+        if (sheetStream != null) {
+          closeSheet();
+        }
+      } catch (XMLStreamException e) {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("An exception occurred: " + e.getMessage());
+        }
+      } finally {
+        try {
+          if (strings instanceof Closeable) {
+            ((Closeable) strings).close();
+          }
+          if (container != null) {
+            container.close();
+          }
+        } finally {
+          if (document != null) {
+            document.release();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Appends the values of the cells kept by the handler, and counts the parsed cells.
+   * <p/>
+   * Once the output is stopped (see {@link TextSink#isStopped()}), the deadline is truncated to stop the parsing.
+   */
   protected class SheetTextExtractor implements XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler {
-    private final StringBuilder output;
+    private final TextSink output;
+    private final ExtractionDeadline deadline;
     private boolean firstCellOfRow = true;
+    private int cellsParsed = 0;
 
+    /**
+     * @param output where the values are appended, or null to only count the cells
+     */
     protected SheetTextExtractor(StringBuilder output) {
+      this(output != null ? TextSink.of(output, policy) : null, null);
+    }
+
+    /**
+     * @param output   where the values are written, or null to only count the cells
+     * @param deadline the deadline of the extraction, truncated once the output is stopped
+     */
+    protected SheetTextExtractor(TextSink output, ExtractionDeadline deadline) {
       this.output = output;
+      this.deadline = deadline;
+    }
+
+    public int getCellsParsed() {
+      return cellsParsed;
     }
 
     public void startRow(int rowNum) {
@@ -194,15 +1182,24 @@ public class MSXExcelDocumentReader_Stream_04 extends BaseDocumentReader {
     }
 
     public void cell(String cellRef, String formattedValue) {
+      cellsParsed++;
+      if (output == null) {
+        return;
+      }
+      // the strings shorter than the minimum length of the policy are already skipped by the handler
       if (firstCellOfRow) {
         firstCellOfRow = false;
       } else {
-        if (formattedValue != null && formattedValue.length() > 2) {
+        if (formattedValue != null && formattedValue.length() > 0) {
           output.append(' ');
         }
       }
-      if (formattedValue != null && formattedValue.length() > 2) {
+      if (formattedValue != null && formattedValue.length() > 0) {
         output.append(formattedValue);
+        if (output.isStopped() && deadline != null) {
+          // the text can't be written anymore
+          deadline.stop();
+        }
       }
     }
 
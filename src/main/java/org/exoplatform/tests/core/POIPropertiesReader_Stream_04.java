@@ -13,12 +13,18 @@ import org.apache.poi.openxml4j.util.Nullable;
 import org.apache.poi.poifs.eventfilesystem.POIFSReader;
 import org.apache.poi.poifs.eventfilesystem.POIFSReaderEvent;
 import org.apache.poi.poifs.eventfilesystem.POIFSReaderListener;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
 import org.exoplatform.commons.utils.SecurityHelper;
 import org.exoplatform.services.document.DCMetaData;
 import org.exoplatform.services.document.DocumentReadException;
 import org.exoplatform.services.document.impl.POIPropertiesReader;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,6 +33,8 @@ import java.security.PrivilegedExceptionAction;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.TimeZone;
 
@@ -184,4 +192,213 @@ public class POIPropertiesReader_Stream_04 extends POIPropertiesReader
       return props;
    }
 
+   /**
+    * Metadata extraction from the core properties part (docProps/core.xml) of ooxml documents, without loading
+    * the package nor the document (see {@link XSSFZipPackage#getCorePropertiesPartName()})
+    * 
+    * @param is the content of the core properties part, which is closed
+    * @return
+    * @throws IOException
+    * @throws DocumentReadException
+    */
+   public Properties readDCProperties(InputStream is) throws IOException, DocumentReadException
+   {
+      CorePropertiesHandler coreProperties = new CorePropertiesHandler();
+      XMLReader parser = null;
+      try
+      {
+         parser = XMLReaderPool.NAMESPACE_AWARE.acquire();
+         parser.setContentHandler(coreProperties);
+         parser.parse(new InputSource(is));
+      }
+      catch (SAXException e)
+      {
+         throw new DocumentReadException("Problem during the document properties parsing.", e);
+      }
+      finally
+      {
+         if (parser != null)
+         {
+            XMLReaderPool.NAMESPACE_AWARE.release(parser);
+         }
+         is.close();
+      }
+
+      SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+      df.setTimeZone(TimeZone.getDefault());
+
+      String lastModifiedBy = coreProperties.get("lastModifiedBy");
+      if (lastModifiedBy != null)
+      {
+         props.put(DCMetaData.CONTRIBUTOR, lastModifiedBy);
+      }
+      String description = coreProperties.get("description");
+      if (description != null)
+      {
+         props.put(DCMetaData.DESCRIPTION, description);
+      }
+      String created = coreProperties.get("created");
+      if (created != null)
+      {
+         try
+         {
+            props.put(DCMetaData.DATE, df.parse(created));
+         }
+         catch (ParseException e)
+         {
+            throw new DocumentReadException("Incorrect creation date: " + e.getMessage(), e);
+         }
+      }
+      String creator = coreProperties.get("creator");
+      if (creator != null)
+      {
+         props.put(DCMetaData.CREATOR, creator);
+      }
+      String subject = coreProperties.get("subject");
+      if (subject != null)
+      {
+         props.put(DCMetaData.SUBJECT, subject);
+      }
+      String modified = coreProperties.get("modified");
+      if (modified != null)
+      {
+         try
+         {
+            props.put(DCMetaData.DATE, df.parse(modified));
+         }
+         catch (ParseException e)
+         {
+            throw new DocumentReadException("Incorrect modification date: " + e.getMessage(), e);
+         }
+      }
+      String title = coreProperties.get("title");
+      if (title != null)
+      {
+         props.put(DCMetaData.TITLE, title);
+      }
+
+      return props;
+   }
+
+   /**
+    * Metadata extraction from the SummaryInformation stream of ole2 documents (MS 97-2003 office file formats),
+    * without loading the document itself
+    * 
+    * @param root the root directory of the POIFS file system of the document
+    * @return
+    * @throws IOException
+    * @throws DocumentReadException
+    */
+   public Properties readDCProperties(DirectoryNode root) throws IOException, DocumentReadException
+   {
+      if (!root.hasEntry(SummaryInformation.DEFAULT_STREAM_NAME))
+      {
+         return props;
+      }
+
+      PropertySet ps;
+      InputStream is = root.createDocumentInputStream(SummaryInformation.DEFAULT_STREAM_NAME);
+      try
+      {
+         ps = PropertySetFactory.create(is);
+      }
+      catch (NoPropertySetStreamException e)
+      {
+         throw new DocumentReadException("Problem during the document properties parsing.", e);
+      }
+      catch (MarkUnsupportedException e)
+      {
+         throw new DocumentReadException("Problem during the document properties parsing.", e);
+      }
+      finally
+      {
+         is.close();
+      }
+      if (!(ps instanceof SummaryInformation))
+      {
+         return props;
+      }
+
+      SummaryInformation si = (SummaryInformation)ps;
+      if (si.getLastAuthor() != null && si.getLastAuthor().length() > 0)
+      {
+         props.put(DCMetaData.CONTRIBUTOR, si.getLastAuthor());
+      }
+      if (si.getComments() != null && si.getComments().length() > 0)
+      {
+         props.put(DCMetaData.DESCRIPTION, si.getComments());
+      }
+      if (si.getCreateDateTime() != null)
+      {
+         props.put(DCMetaData.DATE, si.getCreateDateTime());
+      }
+      if (si.getAuthor() != null && si.getAuthor().length() > 0)
+      {
+         props.put(DCMetaData.CREATOR, si.getAuthor());
+      }
+      if (si.getKeywords() != null && si.getKeywords().length() > 0)
+      {
+         props.put(DCMetaData.SUBJECT, si.getKeywords());
+      }
+      if (si.getLastSaveDateTime() != null)
+      {
+         props.put(DCMetaData.DATE, si.getLastSaveDateTime());
+      }
+      if (si.getSubject() != null && si.getSubject().length() > 0)
+      {
+         props.put(DCMetaData.SUBJECT, si.getSubject());
+      }
+      if (si.getTitle() != null && si.getTitle().length() > 0)
+      {
+         props.put(DCMetaData.TITLE, si.getTitle());
+      }
+
+      return props;
+   }
+
+   /**
+    * Gathers the text of the properties of a core properties part, by local name (creator, title, ...)
+    */
+   private static class CorePropertiesHandler extends DefaultHandler
+   {
+      private final Map<String, String> values = new HashMap<String, String>();
+
+      private final StringBuilder value = new StringBuilder();
+
+      private int depth;
+
+      public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException
+      {
+         // the properties are the children of the root element
+         depth++;
+         value.setLength(0);
+      }
+
+      public void endElement(String uri, String localName, String name) throws SAXException
+      {
+         if (depth == 2)
+         {
+            values.put(localName, value.toString());
+         }
+         depth--;
+      }
+
+      public void characters(char[] ch, int start, int length) throws SAXException
+      {
+         if (depth == 2)
+         {
+            value.append(ch, start, length);
+         }
+      }
+
+      /**
+       * @return the value of the property, or null if it is missing or empty
+       */
+      String get(String localName)
+      {
+         String propertyValue = values.get(localName);
+         return propertyValue != null && propertyValue.length() > 0 ? propertyValue : null;
+      }
+   }
+
 }
@@ -0,0 +1,133 @@
+package org.exoplatform.tests.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Content of a document given as an InputStream to a Document Reader.
+ * <p/>
+ * The content is kept in memory up to a threshold, above it the content is spilled to a temporary file,
+ * so the document can be read with random access directly from the file (see {@link FileDocumentReader}).
+ * <p/>
+ * The temporary file is deleted by {@link #release()}.
+ */
+public class SpooledDocument {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.SpooledDocument");
+
+  /**
+   * Default size above which the content is spilled to a temporary file
+   */
+  public static final int DEFAULT_THRESHOLD = 4 * 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // Largest array the VMs can allocate, a document above it is always spilled
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private final byte[] bytes;
+
+  private final int size;
+
+  private final File file;
+
+  private SpooledDocument(byte[] bytes, int size, File file) {
+    this.bytes = bytes;
+    this.size = size;
+    this.file = file;
+  }
+
+  /**
+   * Reads the whole stream, which is not closed.
+   *
+   * @param is        the content of the document
+   * @param threshold the number of bytes above which the content is spilled to a temporary file, 0 to always spill
+   *                  it, a threshold above the maximum size of an array is lowered to this size
+   */
+  public static SpooledDocument spool(InputStream is, int threshold) throws IOException {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("The spool threshold is negative: " + threshold);
+    }
+    // one more byte than the threshold is needed to know if it is exceeded
+    int maxSize = Math.min(threshold, MAX_ARRAY_SIZE - 1) + 1;
+    byte[] buffer = new byte[Math.min(maxSize, BUFFER_SIZE)];
+    int size = 0;
+    int read;
+    while ((read = is.read(buffer, size, buffer.length - size)) >= 0) {
+      size += read;
+      if (size >= maxSize) {
+        return new SpooledDocument(null, 0, spill(is, buffer, size));
+      }
+      if (size == buffer.length) {
+        buffer = Arrays.copyOf(buffer, (int) Math.min(buffer.length * 2L, maxSize));
+      }
+    }
+    return new SpooledDocument(buffer, size, null);
+  }
+
+  private static File spill(InputStream is, byte[] buffer, int size) throws IOException {
+    File file = File.createTempFile("exo-document-", ".tmp");
+    boolean spilled = false;
+    OutputStream os = new FileOutputStream(file);
+    try {
+      os.write(buffer, 0, size);
+      byte[] copyBuffer = buffer.length < BUFFER_SIZE ? new byte[BUFFER_SIZE] : buffer;
+      int read;
+      while ((read = is.read(copyBuffer)) >= 0) {
+        os.write(copyBuffer, 0, read);
+      }
+      spilled = true;
+    } finally {
+      os.close();
+      if (!spilled) {
+        deleteFile(file);
+      }
+    }
+    return file;
+  }
+
+  /**
+   * @return true if the content has been spilled to a temporary file
+   */
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  /**
+   * @return the temporary file holding the content, or null if the content is kept in memory
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the content kept in memory, or null if the content has been spilled to a temporary file
+   */
+  public InputStream getInputStream() {
+    return bytes != null ? new ByteArrayInputStream(bytes, 0, size) : null;
+  }
+
+  /**
+   * Deletes the temporary file, if any.
+   */
+  public void release() {
+    if (file != null) {
+      deleteFile(file);
+    }
+  }
+
+  private static void deleteFile(File file) {
+    if (!file.delete() && file.exists()) {
+      LOG.warn("Unable to delete the temporary file " + file.getAbsolutePath());
+      file.deleteOnExit();
+    }
+  }
+}
@@ -0,0 +1,238 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.exoplatform.services.document.DocumentReadException;
+import org.exoplatform.services.document.impl.BaseDocumentReader;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Document Reader of the .xls and .xlsx documents, whatever their MIME type : the format is sniffed from the first
+ * bytes of the document, and the document is read by the matching streaming reader :
+ * - the OLE2 signature (D0 CF 11 E0 A1 B1 1A E1) : {@link MSExcelDocumentReader_Stream_05}
+ * - the ZIP signature (PK 03 04) : {@link MSXExcelDocumentReader_Stream_04}
+ * <p/>
+ * The first bytes of an InputStream are read through a pushback buffer and unread, so the stream is not buffered.
+ * The documents of another format are rejected before any parsing.
+ */
+public class SpreadsheetDocumentReader extends BaseDocumentReader implements FileDocumentReader {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.SpreadsheetDocumentReader");
+
+  private static final byte[] OLE2_SIGNATURE =
+      {(byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, (byte) 0x1A, (byte) 0xE1};
+
+  private static final byte[] ZIP_SIGNATURE = {'P', 'K', 3, 4};
+
+  private static final int SIGNATURE_LENGTH = OLE2_SIGNATURE.length;
+
+  private final SpreadsheetExtractionPolicy policy;
+
+  private final MSExcelDocumentReader_Stream_05 xlsReader;
+
+  private final MSXExcelDocumentReader_Stream_04 xlsxReader;
+
+  public SpreadsheetDocumentReader() {
+    this(new SpreadsheetExtractionPolicy());
+  }
+
+  /**
+   * @param policy the extraction policy of both readers
+   */
+  public SpreadsheetDocumentReader(SpreadsheetExtractionPolicy policy) {
+    this.policy = policy;
+    this.xlsReader = new MSExcelDocumentReader_Stream_05(policy);
+    this.xlsxReader = new MSXExcelDocumentReader_Stream_04(policy);
+  }
+
+  public SpreadsheetExtractionPolicy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * @return the reader of the OLE2 documents, to tune it
+   */
+  public MSExcelDocumentReader_Stream_05 getXlsReader() {
+    return xlsReader;
+  }
+
+  /**
+   * @return the reader of the ZIP documents, to tune it
+   */
+  public MSXExcelDocumentReader_Stream_04 getXlsxReader() {
+    return xlsxReader;
+  }
+
+  /**
+   * @return the MIME types of both readers
+   */
+  public String[] getMimeTypes() {
+    Set<String> mimeTypes = new LinkedHashSet<String>();
+    for (String mimeType : xlsReader.getMimeTypes()) {
+      mimeTypes.add(mimeType);
+    }
+    for (String mimeType : xlsxReader.getMimeTypes()) {
+      mimeTypes.add(mimeType);
+    }
+    return mimeTypes.toArray(new String[mimeTypes.size()]);
+  }
+
+  public String getContentAsText(InputStream is) throws IOException, DocumentReadException {
+    return getContentAsText(is, ExtractionDeadline.of(policy));
+  }
+
+  /**
+   * The spreadsheet readers ignore the encoding.
+   */
+  public String getContentAsText(InputStream is, String encoding) throws IOException, DocumentReadException {
+    return getContentAsText(is);
+  }
+
+  public String getContentAsText(InputStream is, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    if (is == null) {
+      throw new IllegalArgumentException("InputStream is null.");
+    }
+    PushbackInputStream content = new PushbackInputStream(is, SIGNATURE_LENGTH);
+    return readerOf(content).getContentAsText(content, deadline);
+  }
+
+  public String getContentAsText(Path path) throws IOException, DocumentReadException {
+    return getContentAsText(path, ExtractionDeadline.of(policy));
+  }
+
+  public String getContentAsText(Path path, ExtractionDeadline deadline) throws IOException, DocumentReadException {
+    if (path == null) {
+      throw new IllegalArgumentException("Path is null.");
+    }
+    return readerOf(path).getContentAsText(path, deadline);
+  }
+
+  /**
+   * @param deadline the deadline of the extraction, the text parsed before it expires is read
+   * @return the text of the document, pulled by the consumer (see {@link SpreadsheetTextReader})
+   */
+  public SpreadsheetTextReader getContentAsReader(InputStream is, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (is == null) {
+      throw new IllegalArgumentException("InputStream is null.");
+    }
+    PushbackInputStream content = new PushbackInputStream(is, SIGNATURE_LENGTH);
+    FileDocumentReader reader = readerOf(content);
+    if (reader == xlsReader) {
+      return xlsReader.getContentAsReader(content, deadline);
+    }
+    return xlsxReader.getContentAsReader(content, deadline);
+  }
+
+  /**
+   * @param deadline the deadline of the extraction, the text parsed before it expires is read
+   * @return the text of the document, pulled by the consumer (see {@link SpreadsheetTextReader})
+   */
+  public SpreadsheetTextReader getContentAsReader(Path path, ExtractionDeadline deadline)
+      throws IOException, DocumentReadException {
+    if (path == null) {
+      throw new IllegalArgumentException("Path is null.");
+    }
+    FileDocumentReader reader = readerOf(path);
+    if (reader == xlsReader) {
+      return xlsReader.getContentAsReader(path.toFile(), deadline);
+    }
+    return xlsxReader.getContentAsReader(path.toFile(), deadline);
+  }
+
+  public Properties getProperties(InputStream is) throws IOException, DocumentReadException {
+    if (is == null) {
+      throw new IllegalArgumentException("InputStream is null.");
+    }
+    PushbackInputStream content = new PushbackInputStream(is, SIGNATURE_LENGTH);
+    return readerOf(content).getProperties(content);
+  }
+
+  public Properties getProperties(Path path) throws IOException, DocumentReadException {
+    if (path == null) {
+      throw new IllegalArgumentException("Path is null.");
+    }
+    return readerOf(path).getProperties(path);
+  }
+
+  /**
+   * Reads the signature of the document and unreads it. The stream is closed if the format is not supported.
+   */
+  private FileDocumentReader readerOf(PushbackInputStream content) throws IOException, DocumentReadException {
+    byte[] signature = new byte[SIGNATURE_LENGTH];
+    int length = 0;
+    int read;
+    while (length < signature.length && (read = content.read(signature, length, signature.length - length)) >= 0) {
+      length += read;
+    }
+    content.unread(signature, 0, length);
+    FileDocumentReader reader = readerOf(signature, length);
+    if (reader == null) {
+      closeQuietly(content);
+      throw new DocumentReadException("The format of the document to read is not supported.");
+    }
+    return reader;
+  }
+
+  private FileDocumentReader readerOf(Path path) throws IOException, DocumentReadException {
+    byte[] signature = new byte[SIGNATURE_LENGTH];
+    int length = 0;
+    RandomAccessFile file = new RandomAccessFile(path.toFile(), "r");
+    try {
+      int read;
+      while (length < signature.length && (read = file.read(signature, length, signature.length - length)) >= 0) {
+        length += read;
+      }
+    } finally {
+      file.close();
+    }
+    FileDocumentReader reader = readerOf(signature, length);
+    if (reader == null) {
+      throw new DocumentReadException("The format of the document to read is not supported: " + path);
+    }
+    return reader;
+  }
+
+  /**
+   * @return the reader of the format of the signature, or null if the format is not supported
+   */
+  private FileDocumentReader readerOf(byte[] signature, int length) {
+    if (startsWith(signature, length, OLE2_SIGNATURE)) {
+      return xlsReader;
+    }
+    if (startsWith(signature, length, ZIP_SIGNATURE)) {
+      return xlsxReader;
+    }
+    return null;
+  }
+
+  private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+    if (length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void closeQuietly(InputStream is) {
+    try {
+      is.close();
+    } catch (IOException e) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("An exception occurred: " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package org.exoplatform.tests.core;
+
+/**
+ * Extraction policy used by the stream based spreadsheet Document Readers.
+ * <p/>
+ * It defines :
+ * - the kinds of cells we KEEP (strings, numbers, formula results)
+ * - whether the numbers are formatted with the number format of their cell
+ * - the minimum length of a string to be kept
+ * - the maximum number of cells to parse per tab
+ * - the maximum number of cells to parse for the whole spreadsheet
+ * - the maximum number of tabs to parse
+ * - the maximum number of chars of the text, the parsing is aborted once it is reached (see {@link TextSink})
+ * - the maximum wall-clock and CPU time of the extraction of a document (see {@link ExtractionDeadline})
+ * <p/>
+ * A negative budget ({@link #UNLIMITED}) means there is no limit.
+ * <p/>
+ * The default policy is the one of {@link MSExcelDocumentReader_Stream_05} :
+ * - only the strings with a length > 2 chars are kept
+ * - a maximum of 1000 cells per tab
+ * - a maximum of 5 tabs
+ */
+public class SpreadsheetExtractionPolicy {
+
+  public static final int UNLIMITED = -1;
+
+  public static final int DEFAULT_MAX_TABS = 5;
+
+  public static final int DEFAULT_MAX_CELLS_PER_TAB = 1000;
+
+  public static final int DEFAULT_MIN_STRING_LENGTH = 3;
+
+  private boolean keepStrings = true;
+
+  private boolean keepNumbers = false;
+
+  private boolean keepFormulas = false;
+
+  private boolean formatNumbers = false;
+
+  private int minStringLength = DEFAULT_MIN_STRING_LENGTH;
+
+  private int maxTabs = DEFAULT_MAX_TABS;
+
+  private int maxCellsPerTab = DEFAULT_MAX_CELLS_PER_TAB;
+
+  private int maxCells = UNLIMITED;
+
+  private int maxChars = UNLIMITED;
+
+  private long maxTime = UNLIMITED;
+
+  private long maxCpuTime = UNLIMITED;
+
+  public boolean isKeepStrings() {
+    return keepStrings;
+  }
+
+  /**
+   * @param keepStrings keep the cells with a string (Strings which are not the result of a formula)
+   */
+  public void setKeepStrings(boolean keepStrings) {
+    this.keepStrings = keepStrings;
+  }
+
+  public boolean isKeepNumbers() {
+    return keepNumbers;
+  }
+
+  /**
+   * @param keepNumbers keep the cells with a number (date formatted or simple number)
+   */
+  public void setKeepNumbers(boolean keepNumbers) {
+    this.keepNumbers = keepNumbers;
+  }
+
+  public boolean isKeepFormulas() {
+    return keepFormulas;
+  }
+
+  /**
+   * @param keepFormulas keep the cached result (string or number) of the cells with a formula
+   */
+  public void setKeepFormulas(boolean keepFormulas) {
+    this.keepFormulas = keepFormulas;
+  }
+
+  public boolean isFormatNumbers() {
+    return formatNumbers;
+  }
+
+  /**
+   * Only used by the XLSX reader ({@link MSXExcelDocumentReader_Stream_04}), which reads the styles of the workbook
+   * only if the numbers are formatted. The XLS reader always keeps the numbers as they are stored.
+   *
+   * @param formatNumbers format the kept numbers (dates, percents, ...) with the number format of the style of
+   *                      their cell, instead of keeping them as they are stored
+   */
+  public void setFormatNumbers(boolean formatNumbers) {
+    this.formatNumbers = formatNumbers;
+  }
+
+  public int getMinStringLength() {
+    return minStringLength;
+  }
+
+  /**
+   * @param minStringLength the minimum number of chars of a string to be kept
+   */
+  public void setMinStringLength(int minStringLength) {
+    this.minStringLength = minStringLength;
+  }
+
+  public int getMaxTabs() {
+    return maxTabs;
+  }
+
+  /**
+   * @param maxTabs the maximum number of tabs to parse ({@link #UNLIMITED} mean all tabs)
+   */
+  public void setMaxTabs(int maxTabs) {
+    this.maxTabs = maxTabs;
+  }
+
+  public int getMaxCellsPerTab() {
+    return maxCellsPerTab;
+  }
+
+  /**
+   * @param maxCellsPerTab the maximum number of cells to parse per tab ({@link #UNLIMITED} mean all cells)
+   */
+  public void setMaxCellsPerTab(int maxCellsPerTab) {
+    this.maxCellsPerTab = maxCellsPerTab;
+  }
+
+  public int getMaxCells() {
+    return maxCells;
+  }
+
+  /**
+   * @param maxCells the maximum number of cells to parse in the spreadsheet ({@link #UNLIMITED} mean all cells)
+   */
+  public void setMaxCells(int maxCells) {
+    this.maxCells = maxCells;
+  }
+
+  public int getMaxChars() {
+    return maxChars;
+  }
+
+  /**
+   * @param maxChars the maximum number of chars of the extracted text, the text is truncated and the parsing is
+   *                 aborted once it is reached ({@link #UNLIMITED} mean no limit)
+   */
+  public void setMaxChars(int maxChars) {
+    this.maxChars = maxChars;
+  }
+
+  public long getMaxTime() {
+    return maxTime;
+  }
+
+  /**
+   * @param maxTime the maximum wall-clock time of the extraction of a document, in milliseconds, after which the text
+   *                parsed so far is returned ({@link #UNLIMITED} mean no limit)
+   */
+  public void setMaxTime(long maxTime) {
+    this.maxTime = maxTime;
+  }
+
+  public long getMaxCpuTime() {
+    return maxCpuTime;
+  }
+
+  /**
+   * @param maxCpuTime the maximum CPU time of the extraction of a document by the calling thread, in milliseconds,
+   *                   after which the text parsed so far is returned ({@link #UNLIMITED} mean no limit)
+   */
+  public void setMaxCpuTime(long maxCpuTime) {
+    this.maxCpuTime = maxCpuTime;
+  }
+
+  /**
+   * @return true if a string with the given number of chars must be kept
+   */
+  public boolean isStringKept(int length) {
+    return length >= minStringLength;
+  }
+
+  /**
+   * @return true if no more tab must be parsed once <code>parsedTabs</code> tabs have been parsed
+   */
+  public boolean isMaxTabsReached(int parsedTabs) {
+    return maxTabs >= 0 && parsedTabs >= maxTabs;
+  }
+
+  /**
+   * @return true if no more cell must be parsed in the current tab once <code>parsedCells</code> cells have been parsed
+   */
+  public boolean isMaxCellsPerTabReached(int parsedCells) {
+    return maxCellsPerTab >= 0 && parsedCells >= maxCellsPerTab;
+  }
+
+  /**
+   * @return true if no more cell must be parsed in the spreadsheet once <code>parsedCells</code> cells have been parsed
+   */
+  public boolean isMaxCellsReached(int parsedCells) {
+    return maxCells >= 0 && parsedCells >= maxCells;
+  }
+
+  @Override
+  public String toString() {
+    return "SpreadsheetExtractionPolicy[strings=" + keepStrings + ", numbers=" + keepNumbers + ", formulas=" + keepFormulas
+        + ", formatNumbers=" + formatNumbers + ", minStringLength=" + minStringLength + ", maxTabs=" + maxTabs
+        + ", maxCellsPerTab=" + maxCellsPerTab + ", maxCells=" + maxCells + ", maxChars=" + maxChars + ", maxTime=" + maxTime
+        + ", maxCpuTime=" + maxCpuTime + "]";
+  }
+}
@@ -0,0 +1,114 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Text of a spreadsheet pulled by its consumer : the document is only parsed as far as the text read so far
+ * (the analyzer of the indexer stops reading once its maximum field length is reached, the rest of the document
+ * is then never parsed).
+ * <p/>
+ * Each call to {@link #read(char[], int, int)} drives the parser step by step (a record of the Workbook stream,
+ * an event of a sheet part) until the text parsed covers the chars asked for, or until the end of the parsing.
+ * The text parsed beyond is kept for the next call.
+ * <p/>
+ * The reader must be closed, to release the document (files, streams, shared strings).
+ */
+public abstract class SpreadsheetTextReader extends Reader {
+
+  // Text parsed and not read yet, from position
+  private final StringBuilder chunk = new StringBuilder(TextSink.DEFAULT_BUFFER_SIZE);
+
+  private int position = 0;
+
+  private final TextSink sink;
+
+  private final ExtractionDeadline deadline;
+
+  private boolean finished;
+
+  private boolean closed;
+
+  /**
+   * @param policy   the extraction policy, the text read is limited to its maximum number of chars
+   * @param deadline the deadline of the extraction, the text parsed before it expires is read
+   */
+  protected SpreadsheetTextReader(SpreadsheetExtractionPolicy policy, ExtractionDeadline deadline) {
+    this.sink = TextSink.of(chunk, policy);
+    this.deadline = deadline;
+  }
+
+  /**
+   * @return where the parser writes the text
+   */
+  protected TextSink getSink() {
+    return sink;
+  }
+
+  public ExtractionDeadline getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * @return true if the parsing stopped on the deadline or at the maximum number of chars, so the text read is partial
+   */
+  public boolean isTruncated() {
+    return deadline != null && deadline.isTruncated();
+  }
+
+  /**
+   * Parses the next step of the document, its text is written to the sink (see {@link #getSink()}).
+   *
+   * @return false once the whole document is parsed, or the parsing is stopped
+   */
+  protected abstract boolean parseNext() throws IOException;
+
+  /**
+   * Releases the document, called once by {@link #close()}.
+   */
+  protected abstract void release() throws IOException;
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("The reader is closed.");
+    }
+    if (off < 0 || len < 0 || off + len > cbuf.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (position == chunk.length()) {
+      chunk.setLength(0);
+      position = 0;
+    }
+    while (!finished && chunk.length() - position < len) {
+      finished = !parseNext();
+    }
+    int available = chunk.length() - position;
+    if (available == 0) {
+      return -1;
+    }
+    int read = Math.min(len, available);
+    chunk.getChars(position, position + read, cbuf, off);
+    position += read;
+    return read;
+  }
+
+  @Override
+  public boolean ready() {
+    return position < chunk.length();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    chunk.setLength(0);
+    position = 0;
+    release();
+  }
+}
@@ -0,0 +1,216 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+
+/**
+ * Where the spreadsheet Document Readers write the text they extract, so the text can flow straight into
+ * a {@link Writer}, a {@link CharBuffer} or any {@link Appendable} (the analyzer of the indexer, ...)
+ * instead of being returned as one String.
+ * <p/>
+ * The text is buffered up to the buffer size, then written to the target. A {@link StringBuilder} target is
+ * written directly, without buffer.
+ * <p/>
+ * The parsers can't throw the IOException of the target, so the sink stops once the target fails
+ * (the exception is thrown by {@link #flush()}), or once a CharBuffer target is full. It also stops once the
+ * maximum number of chars is written, the text is then truncated (see {@link #setMaxLength(int)}). The parsers
+ * check {@link #isStopped()} to stop parsing.
+ */
+public class TextSink {
+
+  /**
+   * Default number of chars buffered before being written to the target
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+  // null if the target is the buffer itself
+  private final Appendable target;
+
+  private final StringBuilder buffer;
+
+  private final int bufferSize;
+
+  // Used to write the buffer to a Writer target
+  private char[] chars;
+
+  private IOException error;
+
+  private boolean full;
+
+  // Negative if there is no limit
+  private int maxLength = -1;
+
+  // Number of chars written, only counted if there is a limit
+  private long length;
+
+  private boolean maxLengthReached;
+
+  public TextSink(Appendable target) {
+    this(target, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param target     where the text is written
+   * @param bufferSize the number of chars buffered before being written to the target
+   */
+  public TextSink(Appendable target, int bufferSize) {
+    if (target == null) {
+      throw new IllegalArgumentException("Appendable is null.");
+    }
+    if (target instanceof StringBuilder) {
+      this.target = null;
+      this.buffer = (StringBuilder) target;
+    } else {
+      this.target = target;
+      this.buffer = new StringBuilder(bufferSize);
+    }
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * @return a sink writing to the target at most the maximum number of chars of the policy
+   */
+  public static TextSink of(Appendable target, SpreadsheetExtractionPolicy policy) {
+    TextSink sink = new TextSink(target);
+    sink.setMaxLength(policy.getMaxChars());
+    return sink;
+  }
+
+  public int getMaxLength() {
+    return maxLength;
+  }
+
+  /**
+   * @param maxLength the maximum number of chars written, the sink stops once they are written (negative means
+   *                  no limit)
+   */
+  public void setMaxLength(int maxLength) {
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * @return the number of chars which can still be written before the maximum number of chars, or -1 if there is
+   *         no maximum
+   */
+  public int getRemainingLength() {
+    return maxLength >= 0 ? (int) (maxLength - length) : -1;
+  }
+
+  public TextSink append(CharSequence text) {
+    if (!isStopped()) {
+      int start = buffer.length();
+      buffer.append(text);
+      appended(start);
+    }
+    return this;
+  }
+
+  public TextSink append(char c) {
+    if (!isStopped()) {
+      int start = buffer.length();
+      buffer.append(c);
+      appended(start);
+    }
+    return this;
+  }
+
+  public TextSink append(double number) {
+    if (!isStopped()) {
+      int start = buffer.length();
+      buffer.append(number);
+      appended(start);
+    }
+    return this;
+  }
+
+  /**
+   * @return true if the text is not written anymore, as the target failed or is full, or the maximum number of
+   * chars is written
+   */
+  public boolean isStopped() {
+    return error != null || full || maxLengthReached;
+  }
+
+  /**
+   * @return true if the maximum number of chars is written, the text written is then truncated
+   */
+  public boolean isMaxLengthReached() {
+    return maxLengthReached;
+  }
+
+  /**
+   * @return true if the CharBuffer target is full, the text written is then truncated
+   */
+  public boolean isFull() {
+    return full;
+  }
+
+  /**
+   * Writes the buffered text to the target, the target itself (a Writer) is not flushed.
+   *
+   * @throws IOException the exception of the target, if it failed
+   */
+  public void flush() throws IOException {
+    drain();
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+   * Truncates the text appended from the start of the buffer to the maximum number of chars, then drains the buffer
+   * if it is full.
+   */
+  private void appended(int start) {
+    if (maxLength >= 0) {
+      int appended = buffer.length() - start;
+      if (length + appended >= maxLength) {
+        buffer.setLength(start + (int) (maxLength - length));
+        length = maxLength;
+        maxLengthReached = true;
+      } else {
+        length += appended;
+      }
+    }
+    drainIfFull();
+  }
+
+  private void drainIfFull() {
+    if (target != null && buffer.length() >= bufferSize) {
+      drain();
+    }
+  }
+
+  private void drain() {
+    // the text truncated to the maximum number of chars is still written
+    if (target == null || buffer.length() == 0 || error != null || full) {
+      return;
+    }
+    try {
+      if (target instanceof Writer) {
+        // no intermediate String
+        int length = buffer.length();
+        if (chars == null || chars.length < length) {
+          chars = new char[Math.max(length, bufferSize)];
+        }
+        buffer.getChars(0, length, chars, 0);
+        ((Writer) target).write(chars, 0, length);
+      } else if (target instanceof CharBuffer) {
+        CharBuffer charBuffer = (CharBuffer) target;
+        int length = Math.min(buffer.length(), charBuffer.remaining());
+        charBuffer.append(buffer, 0, length);
+        full = length < buffer.length();
+      } else {
+        target.append(buffer);
+      }
+    } catch (IOException e) {
+      error = e;
+    } catch (BufferOverflowException e) {
+      full = true;
+    } finally {
+      buffer.setLength(0);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package org.exoplatform.tests.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Executors running each task on its own thread, for the extractions which mostly wait for I/O
+ * (see {@link BatchDocumentExtractor#setMaxParseConcurrency(int)}).
+ * <p/>
+ * On a JVM with virtual threads (Java 21+), each task runs on a virtual thread. The executor is looked up by
+ * reflection, as the project is built for older JVMs. On the other JVMs, each task runs on a new daemon platform
+ * thread (the threads are reused while idle).
+ */
+public final class VirtualThreads {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.VirtualThreads");
+
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadPerTaskExecutor();
+
+  private VirtualThreads() {
+  }
+
+  private static Method findVirtualThreadPerTaskExecutor() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (SecurityException e) {
+      LOG.warn("Unable to look up the virtual threads executor: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * @return true if the JVM has virtual threads
+   */
+  public static boolean isAvailable() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * @return an executor running each task on a new virtual thread, or on a platform thread if the JVM has no
+   * virtual threads. The executor must be shut down by the caller.
+   */
+  public static ExecutorService newThreadPerTaskExecutor() {
+    if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+      try {
+        return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+      } catch (IllegalAccessException e) {
+        LOG.warn("Unable to create the virtual threads executor: " + e.getMessage());
+      } catch (InvocationTargetException e) {
+        LOG.warn("Unable to create the virtual threads executor: " + e.getCause());
+      }
+    }
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "exo-document-extraction-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
@@ -0,0 +1,100 @@
+package org.exoplatform.tests.core;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Pool of configured SAX {@link XMLReader}s shared by the XLSX readers, to avoid the lookup of the
+ * {@link SAXParserFactory} and the creation of a parser for each part of each document.
+ * <p/>
+ * - the factory is looked up and configured once per pool, with the secure processing feature
+ * and without the external entities
+ * - each thread keeps one reader, which is reused by the next parsing of the thread
+ * - a reader asked for while the reader of the thread is in use (nested parsing) is created,
+ * and kept once released
+ * <p/>
+ * Usage :
+ * <pre>
+ * XMLReader reader = XMLReaderPool.DEFAULT.acquire();
+ * try {
+ *   reader.setContentHandler(handler);
+ *   reader.parse(source);
+ * } finally {
+ *   XMLReaderPool.DEFAULT.release(reader);
+ * }
+ * </pre>
+ */
+public class XMLReaderPool {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.XMLReaderPool");
+
+  /**
+   * Pool of readers without namespace awareness, the element names are the qualified names
+   */
+  public static final XMLReaderPool DEFAULT = new XMLReaderPool(false);
+
+  /**
+   * Pool of namespace aware readers
+   */
+  public static final XMLReaderPool NAMESPACE_AWARE = new XMLReaderPool(true);
+
+  // Set on a released reader, so it does not keep the handler of its last parsing
+  private static final DefaultHandler NO_HANDLER = new DefaultHandler();
+
+  private final SAXParserFactory factory;
+
+  private final ThreadLocal<XMLReader> readers = new ThreadLocal<XMLReader>();
+
+  private XMLReaderPool(boolean namespaceAware) {
+    factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(namespaceAware);
+    setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+    setFeature("http://xml.org/sax/features/external-general-entities", false);
+    setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+    setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+  }
+
+  private void setFeature(String feature, boolean value) {
+    try {
+      factory.setFeature(feature, value);
+    } catch (ParserConfigurationException e) {
+      LOG.warn("The SAX parser does not support the feature " + feature + ": " + e.getMessage());
+    } catch (SAXException e) {
+      LOG.warn("The SAX parser does not support the feature " + feature + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return the reader of the current thread, or a new reader if it is in use
+   */
+  public XMLReader acquire() throws SAXException {
+    XMLReader reader = readers.get();
+    if (reader != null) {
+      // in use until released
+      readers.remove();
+      return reader;
+    }
+    try {
+      // the factory is not thread safe
+      synchronized (factory) {
+        return factory.newSAXParser().getXMLReader();
+      }
+    } catch (ParserConfigurationException e) {
+      throw new RuntimeException("SAX parser appears to be broken - " + e.getMessage());
+    }
+  }
+
+  /**
+   * Gives back a reader to the current thread, once its parsing is over (even if it failed).
+   */
+  public void release(XMLReader reader) {
+    reader.setContentHandler(NO_HANDLER);
+    readers.set(reader);
+  }
+}
@@ -0,0 +1,92 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+
+/**
+ * This class handles the processing of the styles.bin part of a XSSFB .xlsb file, read directly from its stream
+ * (see {@link XSSFZipPackage}).
+ * <p/>
+ * Like the {@link XSSFCellFormatsTable}, we KEEP only :
+ * - the custom number formats (BrtFmt)
+ * - the number format of each cell style (BrtXF within BrtBeginCellXFs)
+ * <p/>
+ * we SKIP the fonts, fills, borders, cell style formats, named and differential styles.
+ */
+public class XSSFBCellFormatsTable implements XSSFCellFormats {
+
+  // BrtFmt
+  private static final int FMT = 44;
+
+  // BrtXF
+  private static final int XF = 47;
+
+  // BrtBeginCellXFs
+  private static final int BEGIN_CELL_XFS = 617;
+
+  // BrtEndCellXFs
+  private static final int END_CELL_XFS = 618;
+
+  private final Map<Integer, String> numberFormats = new HashMap<Integer, String>();
+
+  // Number format of each cell style
+  private short[] formatIndices = new short[64];
+  private int styles = 0;
+
+  /**
+   * @param is the stream of the styles.bin part, which is not closed
+   */
+  public XSSFBCellFormatsTable(InputStream is) throws IOException {
+    XSSFBRecordReader reader = new XSSFBRecordReader(is);
+    boolean cellXfsIsOpen = false;
+    while (reader.next()) {
+      switch (reader.getType()) {
+        case FMT:
+          if (reader.getSize() >= 2) {
+            byte[] payload = reader.readPayload();
+            String formatCode = XSSFBRecordReader.readWideString(payload, 2, reader.getSize());
+            if (formatCode != null) {
+              numberFormats.put(XSSFBRecordReader.readUShort(payload, 0), formatCode);
+            }
+          }
+          break;
+        case BEGIN_CELL_XFS:
+          cellXfsIsOpen = true;
+          break;
+        case END_CELL_XFS:
+          cellXfsIsOpen = false;
+          break;
+        case XF:
+          if (cellXfsIsOpen) {
+            if (styles == formatIndices.length) {
+              formatIndices = Arrays.copyOf(formatIndices, 2 * styles);
+            }
+            // the parent style, then the number format
+            formatIndices[styles++] = reader.getSize() >= 4
+                ? (short) XSSFBRecordReader.readUShort(reader.readPayload(), 2) : 0;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  public short getFormatIndex(int styleIndex) {
+    return styleIndex >= 0 && styleIndex < styles ? formatIndices[styleIndex] : -1;
+  }
+
+  public String getFormatString(int styleIndex) {
+    short formatIndex = getFormatIndex(styleIndex);
+    if (formatIndex < 0) {
+      return null;
+    }
+    String formatString = numberFormats.get((int) formatIndex);
+    return formatString != null ? formatString : BuiltinFormats.getBuiltinFormat(formatIndex);
+  }
+}
@@ -0,0 +1,322 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.NumberToTextConverter;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * This class pulls the BIFF12 records of a sheet#.bin sheet part of a XSSFB .xlsb file (see {@link XSSFBRecordReader}),
+ * and generates the same row and cell events as the {@link XSSFOptimizedSheetXMLHandler_04} for a .xlsx file.
+ * <p/>
+ * we KEEP only the following data :
+ * - cells with string (BrtCellIsst, BrtCellSt, BrtCellRString without its formatting runs), depending on the policy
+ * - cells with number (BrtCellRk, BrtCellReal), date formatted or simple number, depending on the policy
+ * - cells with formula result (BrtFmlaString, BrtFmlaNum), depending on the policy
+ * <p/>
+ * we SKIP the following data :
+ * - cells with blank value
+ * - cells with boolean value
+ * - cells with error
+ * - the records after the sheet data (merged cells, hyperlinks, headers and footers, ...)
+ * <p/>
+ * A skipped cell is still given to the {@link XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler}, with a null value.
+ * The payload of the other records is never read. Like the {@link XSSFOptimizedSheetPullParser_04}, the parser
+ * stops pulling once the maximum number of cells to parse is reached, or once the deadline of the extraction is expired.
+ */
+public class XSSFBOptimizedSheetParser_04 {
+
+  private static final Log LOG = ExoLogger.getExoLogger("exo.core.component.document.XSSFBOptimizedSheetParser_04");
+
+  // The records we handle, by type
+  private static final int ROW_HDR = 0;
+  private static final int CELL_RK = 2;
+  private static final int CELL_ERROR = 3;
+  private static final int CELL_BOOL = 4;
+  private static final int CELL_REAL = 5;
+  private static final int CELL_ST = 6;
+  private static final int CELL_ISST = 7;
+  private static final int FMLA_STRING = 8;
+  private static final int FMLA_NUM = 9;
+  private static final int FMLA_BOOL = 10;
+  private static final int FMLA_ERROR = 11;
+  private static final int CELL_RSTRING = 62;
+  private static final int END_SHEET_DATA = 146;
+
+  // Size of the Cell structure (column, style and flags) at the start of the cell records
+  private static final int CELL_SIZE = 8;
+
+  /**
+   * Number formats of the cell styles, null if the numbers are not formatted
+   */
+  private final XSSFCellFormats cellFormats;
+
+  private final XSSFSharedStrings sharedStringsTable;
+
+  private final boolean keepStrings;
+  private final boolean keepNumbers;
+  private final boolean keepFormulas;
+  private final int minStringLength;
+
+  /**
+   * The maximum number of cells to parse in the Sheet (-1 mean All cells in the sheet)
+   */
+  private final long maxCellsToParse;
+  private long currentCellsParsed = 0;
+
+  private ExtractionDeadline deadline;
+
+  /**
+   * Where our text is going
+   */
+  private final XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler output;
+
+  // Used to format numeric cell values.
+  private final DataFormatter formatter;
+
+  // Reader of the sheet part being parsed, null if none
+  private XSSFBRecordReader reader;
+
+  private boolean stopped;
+
+  private boolean rowIsOpen;
+
+  private int row;
+
+  private final StringBuilder cellRef = new StringBuilder(16);
+
+  /**
+   * Accepts objects needed while parsing.
+   *
+   * @param formats Number formats of the cell styles, null to keep the numbers as they are stored
+   * @param strings Table of shared strings
+   * @param policy  the kept cells, null to keep only the strings (whatever their length)
+   */
+  public XSSFBOptimizedSheetParser_04(
+      XSSFCellFormats formats,
+      XSSFSharedStrings strings,
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsHandler,
+      SpreadsheetExtractionPolicy policy,
+      long maxCellsToParse) {
+    this.cellFormats = formats;
+    this.sharedStringsTable = strings;
+    this.output = sheetContentsHandler;
+    this.keepStrings = policy == null || policy.isKeepStrings();
+    this.keepNumbers = policy != null && policy.isKeepNumbers();
+    this.keepFormulas = policy != null && policy.isKeepFormulas();
+    this.minStringLength = policy != null ? policy.getMinStringLength() : 0;
+    this.formatter = formats != null && (keepNumbers || keepFormulas) ? new DataFormatter() : null;
+    this.maxCellsToParse = maxCellsToParse;
+  }
+
+  /**
+   * @param deadline checked after each record, the parsing is stopped once it is expired
+   */
+  public void setDeadline(ExtractionDeadline deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Pulls the records of the sheet part until the end of its data, or until the maximum number of cells to parse
+   * is reached.
+   *
+   * @param sheetInputStream the stream of the sheet part, which is not closed
+   * @return false if the parsing stopped at the maximum number of cells to parse or at the deadline
+   */
+  public boolean parse(InputStream sheetInputStream) throws IOException {
+    open(sheetInputStream);
+    try {
+      while (pullNext()) {
+        // the records are pulled one by one
+      }
+      return !stopped;
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Starts the parsing of a sheet part, its records are then pulled by {@link #pullNext()}, so the parsing can be
+   * driven by the reader of the text (see {@link SpreadsheetTextReader}).
+   *
+   * @param sheetInputStream the stream of the sheet part, which is not closed
+   */
+  public void open(InputStream sheetInputStream) {
+    reader = new XSSFBRecordReader(sheetInputStream);
+    stopped = false;
+    rowIsOpen = false;
+  }
+
+  /**
+   * Pulls the next record of the sheet part.
+   *
+   * @return false once the end of the sheet data is reached, or once the parsing stopped at the maximum number of
+   * cells to parse or at the deadline (see {@link #isStopped()})
+   */
+  public boolean pullNext() throws IOException {
+    if (stopped || reader == null) {
+      return false;
+    }
+    if (!reader.next()) {
+      endRow();
+      return false;
+    }
+    int type = reader.getType();
+    switch (type) {
+      case ROW_HDR:
+        endRow();
+        row = reader.getSize() >= 4 ? XSSFBRecordReader.readInt(reader.readPayload(), 0) : row + 1;
+        rowIsOpen = true;
+        output.startRow(row);
+        break;
+      case CELL_RK:
+      case CELL_ERROR:
+      case CELL_BOOL:
+      case CELL_REAL:
+      case CELL_ST:
+      case CELL_ISST:
+      case CELL_RSTRING:
+      case FMLA_STRING:
+      case FMLA_NUM:
+      case FMLA_BOOL:
+      case FMLA_ERROR:
+        cell(type);
+        if (isMaxCellsReached()) {
+          if (LOG.isTraceEnabled()) {
+            LOG.trace("Maximum number of cells to parse per sheet reached (max=" + maxCellsToParse + ")");
+          }
+          stopped = true;
+          return false;
+        }
+        break;
+      case END_SHEET_DATA:
+        // the remaining records are not needed
+        endRow();
+        return false;
+      default:
+        break;
+    }
+    if (deadline != null && deadline.checkExpired()) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Deadline of the extraction expired");
+      }
+      stopped = true;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the parsing stopped at the maximum number of cells to parse or at the deadline
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * Ends the parsing of the sheet part, the underlying stream is not closed.
+   */
+  public void close() {
+    reader = null;
+  }
+
+  private void endRow() {
+    if (rowIsOpen) {
+      rowIsOpen = false;
+      output.endRow();
+    }
+  }
+
+  private void cell(int type) throws IOException {
+    byte[] payload = reader.readPayload();
+    int size = reader.getSize();
+    String value = null;
+    if (size >= CELL_SIZE) {
+      switch (type) {
+        case CELL_RK:
+          if (keepNumbers && size >= CELL_SIZE + 4) {
+            value = formatNumber(XSSFBRecordReader.readRkNumber(payload, CELL_SIZE), payload);
+          }
+          break;
+        case CELL_REAL:
+          if (keepNumbers && size >= CELL_SIZE + 8) {
+            value = formatNumber(XSSFBRecordReader.readDouble(payload, CELL_SIZE), payload);
+          }
+          break;
+        case CELL_ST:
+          if (keepStrings) {
+            value = keptString(XSSFBRecordReader.readWideString(payload, CELL_SIZE, size));
+          }
+          break;
+        case CELL_RSTRING:
+          // the flags of the RichStr, then its string and its formatting runs
+          if (keepStrings) {
+            value = keptString(XSSFBRecordReader.readWideString(payload, CELL_SIZE + 1, size));
+          }
+          break;
+        case CELL_ISST:
+          if (keepStrings && size >= CELL_SIZE + 4) {
+            value = keptString(sharedStringsTable.getEntryAt(XSSFBRecordReader.readInt(payload, CELL_SIZE)));
+          }
+          break;
+        case FMLA_STRING:
+          if (keepFormulas) {
+            value = XSSFBRecordReader.readWideString(payload, CELL_SIZE, size);
+          }
+          break;
+        case FMLA_NUM:
+          if (keepFormulas && size >= CELL_SIZE + 8) {
+            value = formatNumber(XSSFBRecordReader.readDouble(payload, CELL_SIZE), payload);
+          }
+          break;
+        default:
+          // BOOLEAN and ERROR are skipped
+          break;
+      }
+    }
+    currentCellsParsed++;
+    // Output
+    output.cell(size >= 4 ? cellRef(XSSFBRecordReader.readInt(payload, 0)) : null, value);
+  }
+
+  private String keptString(String str) {
+    return str != null && str.length() >= minStringLength ? str : null;
+  }
+
+  /**
+   * @param cell the payload of the cell record, with the style of the cell
+   * @return the number formatted with the number format of the style of the cell, or as Excel shows a number
+   * without format
+   */
+  private String formatNumber(double number, byte[] cell) {
+    if (formatter != null) {
+      int styleIndex = XSSFBRecordReader.readInt(cell, 4) & 0xFFFFFF;
+      String formatString = cellFormats.getFormatString(styleIndex);
+      if (formatString != null) {
+        return formatter.formatRawCellContents(number, cellFormats.getFormatIndex(styleIndex), formatString);
+      }
+    }
+    return NumberToTextConverter.toText(number);
+  }
+
+  /**
+   * @return the reference of the cell in the current row, as in a .xlsx sheet part (A1, ...)
+   */
+  private String cellRef(int column) {
+    cellRef.setLength(0);
+    for (int col = column + 1; col > 0; col = (col - 1) / 26) {
+      cellRef.insert(0, (char) ('A' + (col - 1) % 26));
+    }
+    return cellRef.append(row + 1).toString();
+  }
+
+  /**
+   * @return true if the maximum number of cells to parse in the sheet is reached
+   */
+  private boolean isMaxCellsReached() {
+    return maxCellsToParse >= 0 && currentCellsParsed > maxCellsToParse;
+  }
+}
@@ -0,0 +1,198 @@
+package org.exoplatform.tests.core;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the BIFF12 records of a part of a XSSFB .xlsb file (workbook.bin, sharedStrings.bin, styles.bin,
+ * sheet#.bin), as described by [MS-XLSB].
+ * <p/>
+ * A record is made of :
+ * - its type, on 1 or 2 bytes of 7 bits (the high bit is set when another byte follows)
+ * - its size, on 1 to 4 bytes of 7 bits
+ * - its payload
+ * <p/>
+ * The payload is only read when it is asked for (see {@link #readPayload()}), in a buffer reused for all the
+ * records, otherwise it is skipped by {@link #next()}.
+ */
+final class XSSFBRecordReader {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  // The payloads above this size are corrupted : a record never exceeds the 4 bytes size
+  private static final int MAX_PAYLOAD_SIZE = 1 << 28;
+
+  private final InputStream is;
+
+  private byte[] payload = new byte[256];
+
+  private int type = -1;
+
+  private int size;
+
+  // Number of bytes of the payload not read yet
+  private int remaining;
+
+  /**
+   * @param is the stream of the part, which is not closed
+   */
+  XSSFBRecordReader(InputStream is) {
+    this.is = new BufferedInputStream(is, BUFFER_SIZE);
+  }
+
+  /**
+   * Reads the header of the next record, the payload of the current record is skipped if it has not been read.
+   *
+   * @return false at the end of the part
+   */
+  boolean next() throws IOException {
+    skip(remaining);
+    remaining = 0;
+    int b1 = is.read();
+    if (b1 < 0) {
+      type = -1;
+      return false;
+    }
+    type = b1 & 0x7F;
+    if ((b1 & 0x80) != 0) {
+      type |= (readByte() & 0x7F) << 7;
+    }
+    size = 0;
+    for (int i = 0; i < 4; i++) {
+      int b = readByte();
+      size |= (b & 0x7F) << (7 * i);
+      if ((b & 0x80) == 0) {
+        break;
+      }
+    }
+    if (size > MAX_PAYLOAD_SIZE) {
+      throw new IOException("Corrupted record of type " + type + " (size=" + size + ")");
+    }
+    remaining = size;
+    return true;
+  }
+
+  /**
+   * @return the type of the current record
+   */
+  int getType() {
+    return type;
+  }
+
+  /**
+   * @return the size of the payload of the current record
+   */
+  int getSize() {
+    return size;
+  }
+
+  /**
+   * @return the payload of the current record, valid up to {@link #getSize()} and until the next record is read
+   */
+  byte[] readPayload() throws IOException {
+    if (payload.length < size) {
+      payload = new byte[Math.max(size, 2 * payload.length)];
+    }
+    int offset = size - remaining;
+    while (remaining > 0) {
+      int read = is.read(payload, offset, remaining);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of the record of type " + type);
+      }
+      offset += read;
+      remaining -= read;
+    }
+    return payload;
+  }
+
+  private int readByte() throws IOException {
+    int b = is.read();
+    if (b < 0) {
+      throw new EOFException("Unexpected end of the record header");
+    }
+    return b;
+  }
+
+  private void skip(long count) throws IOException {
+    while (count > 0) {
+      long skipped = is.skip(count);
+      if (skipped <= 0) {
+        if (is.read() < 0) {
+          throw new EOFException("Unexpected end of the record of type " + type);
+        }
+        skipped = 1;
+      }
+      count -= skipped;
+    }
+  }
+
+  /**
+   * @return the unsigned 16 bits integer at the offset of the payload
+   */
+  static int readUShort(byte[] payload, int offset) {
+    return (payload[offset] & 0xFF) | (payload[offset + 1] & 0xFF) << 8;
+  }
+
+  /**
+   * @return the 32 bits integer at the offset of the payload
+   */
+  static int readInt(byte[] payload, int offset) {
+    return (payload[offset] & 0xFF) | (payload[offset + 1] & 0xFF) << 8
+        | (payload[offset + 2] & 0xFF) << 16 | (payload[offset + 3] & 0xFF) << 24;
+  }
+
+  /**
+   * @return the IEEE 754 double (Xnum) at the offset of the payload
+   */
+  static double readDouble(byte[] payload, int offset) {
+    long low = readInt(payload, offset) & 0xFFFFFFFFL;
+    long high = readInt(payload, offset + 4) & 0xFFFFFFFFL;
+    return Double.longBitsToDouble(high << 32 | low);
+  }
+
+  /**
+   * @return the number of an RkNumber : a 30 bits integer or the high bits of a double, optionally multiplied by 100
+   */
+  static double readRkNumber(byte[] payload, int offset) {
+    int rk = readInt(payload, offset);
+    double number;
+    if ((rk & 0x02) != 0) {
+      number = rk >> 2;
+    } else {
+      number = Double.longBitsToDouble(((long) (rk & 0xFFFFFFFC)) << 32);
+    }
+    return (rk & 0x01) != 0 ? number / 100 : number;
+  }
+
+  /**
+   * @return the length in chars of the XLWideString at the offset of the payload, or -1 if it is a null
+   * XLNullableWideString or if it exceeds the size of the payload
+   */
+  static int readWideStringLength(byte[] payload, int offset, int size) {
+    if (offset + 4 > size) {
+      return -1;
+    }
+    int length = readInt(payload, offset);
+    return length >= 0 && length <= (size - offset - 4) / 2 ? length : -1;
+  }
+
+  /**
+   * @return the XLWideString (its length, then its UTF-16LE chars) at the offset of the payload, or null if it is a
+   * null XLNullableWideString or if it is corrupted
+   */
+  static String readWideString(byte[] payload, int offset, int size) {
+    int length = readWideStringLength(payload, offset, size);
+    if (length < 0) {
+      return null;
+    }
+    char[] chars = new char[length];
+    int position = offset + 4;
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) readUShort(payload, position);
+      position += 2;
+    }
+    return new String(chars);
+  }
+}
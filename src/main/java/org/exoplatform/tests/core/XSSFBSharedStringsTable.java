@@ -0,0 +1,59 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class handles the processing of the sharedStrings.bin part of a XSSFB .xlsb file,
+ * read directly from its stream (see {@link XSSFZipPackage}).
+ * <p/>
+ * we KEEP only the text of the strings (BrtSSTItem), we SKIP their rich text runs and their phonetic runs.
+ */
+public class XSSFBSharedStringsTable implements XSSFSharedStrings {
+
+  // BrtBeginSst, with the number of unique strings
+  static final int BEGIN_SST = 159;
+
+  // BrtSSTItem
+  static final int SST_ITEM = 19;
+
+  private static final int MAX_INITIAL_CAPACITY = 64 * 1024;
+
+  private List<String> strings = new ArrayList<String>();
+
+  /**
+   * @param is the stream of the sharedStrings.bin part, which is not closed
+   */
+  public XSSFBSharedStringsTable(InputStream is) throws IOException {
+    XSSFBRecordReader reader = new XSSFBRecordReader(is);
+    while (reader.next()) {
+      switch (reader.getType()) {
+        case BEGIN_SST:
+          if (reader.getSize() >= 8) {
+            int uniqueCount = XSSFBRecordReader.readInt(reader.readPayload(), 4);
+            if (uniqueCount > 0) {
+              // the count is not trusted beyond the initial capacity, the list grows as the strings are read
+              strings = new ArrayList<String>(Math.min(uniqueCount, MAX_INITIAL_CAPACITY));
+            }
+          }
+          break;
+        case SST_ITEM:
+          // the flags of the rich text and phonetic runs, then the string
+          strings.add(XSSFBRecordReader.readWideString(reader.readPayload(), 1, reader.getSize()));
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  public int getUniqueCount() {
+    return strings.size();
+  }
+
+  public String getEntryAt(int idx) {
+    return idx >= 0 && idx < strings.size() ? strings.get(idx) : null;
+  }
+}
@@ -0,0 +1,20 @@
+package org.exoplatform.tests.core;
+
+/**
+ * Number formats of the cell styles of a XSSF .xlsx file, used by the {@link XSSFOptimizedSheetXMLHandler_04}
+ * to format the numbers of the cells with a style.
+ */
+public interface XSSFCellFormats {
+
+  /**
+   * @param styleIndex the index of the cell style, as found in the cell
+   * @return the index of the number format of the style, or -1 if there is no style at this index
+   */
+  short getFormatIndex(int styleIndex);
+
+  /**
+   * @param styleIndex the index of the cell style, as found in the cell
+   * @return the number format of the style, or null if there is no style or no known format at this index
+   */
+  String getFormatString(int styleIndex);
+}
@@ -0,0 +1,104 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * This class handles the processing of the styles.xml part of a XSSF .xlsx file, read directly from its stream
+ * (see {@link XSSFZipPackage}).
+ * <p/>
+ * Unlike the {@link org.apache.poi.xssf.model.StylesTable}, the part is not loaded with XMLBeans, we KEEP only :
+ * - the custom number formats (numFmts)
+ * - the number format of each cell style (cellXfs)
+ * <p/>
+ * we SKIP the fonts, fills, borders, cell style formats (cellStyleXfs), named and differential styles.
+ */
+public class XSSFCellFormatsTable extends DefaultHandler implements XSSFCellFormats {
+
+  private final Map<Integer, String> numberFormats = new HashMap<Integer, String>();
+
+  // Number format of each cell style
+  private short[] formatIndices = new short[64];
+  private int styles = 0;
+
+  // Set when the cellXfs start element is seen
+  private boolean cellXfsIsOpen;
+
+  /**
+   * @param is the stream of the styles.xml part, which is not closed
+   */
+  public XSSFCellFormatsTable(InputStream is) throws IOException, SAXException {
+    InputSource stylesSource = new InputSource(is);
+    XMLReader stylesParser = XMLReaderPool.DEFAULT.acquire();
+    try {
+      stylesParser.setContentHandler(this);
+      stylesParser.parse(stylesSource);
+    } finally {
+      XMLReaderPool.DEFAULT.release(stylesParser);
+    }
+  }
+
+  public short getFormatIndex(int styleIndex) {
+    return styleIndex >= 0 && styleIndex < styles ? formatIndices[styleIndex] : -1;
+  }
+
+  public String getFormatString(int styleIndex) {
+    short formatIndex = getFormatIndex(styleIndex);
+    if (formatIndex < 0) {
+      return null;
+    }
+    String formatString = numberFormats.get((int) formatIndex);
+    return formatString != null ? formatString : BuiltinFormats.getBuiltinFormat(formatIndex);
+  }
+
+  public void startElement(String uri, String localName, String name,
+                           Attributes attributes) throws SAXException {
+    if ("numFmt".equals(name)) {
+      String id = attributes.getValue("numFmtId");
+      String formatCode = attributes.getValue("formatCode");
+      if (id != null && formatCode != null) {
+        try {
+          numberFormats.put(Integer.parseInt(id), formatCode);
+        } catch (NumberFormatException e) {
+          // the cells of this format are not formatted
+        }
+      }
+    } else if ("cellXfs".equals(name)) {
+      cellXfsIsOpen = true;
+    } else if ("xf".equals(name) && cellXfsIsOpen) {
+      if (styles == formatIndices.length) {
+        formatIndices = Arrays.copyOf(formatIndices, 2 * styles);
+      }
+      formatIndices[styles++] = parseFormatIndex(attributes.getValue("numFmtId"));
+    }
+  }
+
+  private static short parseFormatIndex(String id) {
+    if (id == null) {
+      // General
+      return 0;
+    }
+    try {
+      return (short) Integer.parseInt(id);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  public void endElement(String uri, String localName, String name)
+      throws SAXException {
+    if ("cellXfs".equals(name)) {
+      cellXfsIsOpen = false;
+    }
+  }
+}
@@ -0,0 +1,263 @@
+package org.exoplatform.tests.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * This class handles the processing of the sharedStrings.xml part of a XSSF .xlsx file in constant heap,
+ * for the workbooks with a lot of shared strings.
+ * <p/>
+ * Unlike the {@link XSSFSharedStringsTable} which keeps every string in memory, the sharedStrings.xml part is
+ * parsed once and the strings are stored in temporary files :
+ * - the chars of the strings (UTF-16, so the strings are stored as is)
+ * - the offset of each string in the chars file (8 bytes per string)
+ * <p/>
+ * A string is read back from the files only when a cell asks for it, the strings read are kept in a bounded LRU cache.
+ * The strings can be asked for by several threads at the same time (the sheets parsed in parallel).
+ * <p/>
+ * Like the {@link org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable}, the text of the rich text runs
+ * of a string is concatenated.
+ * <p/>
+ * The temporary files are deleted by {@link #close()}.
+ */
+public class XSSFLazySharedStringsTable extends DefaultHandler implements XSSFSharedStrings, Closeable {
+
+  private static final Log LOG = ExoLogger.getLogger("exo.core.component.document.XSSFLazySharedStringsTable");
+
+  /**
+   * Default maximum number of strings kept in the LRU cache
+   */
+  public static final int DEFAULT_CACHE_SIZE = 1024;
+
+  private static final int OFFSET_SIZE = 8;
+
+  private final File charsFile;
+
+  private final File offsetsFile;
+
+  private RandomAccessFile chars;
+
+  private RandomAccessFile offsets;
+
+  private int uniqueCount = 0;
+
+  private final Map<Integer, String> cache;
+
+  // Used while the sharedStrings.xml part is parsed
+  private DataOutputStream offsetsOutput;
+  private OutputStream charsOutput;
+  private long charsOffset = 0;
+  private byte[] encoded = new byte[256];
+
+  // Gathers characters as they are seen.
+  private final StringBuilder characters = new StringBuilder();
+  // Set when a T start element is seen
+  private boolean tIsOpen;
+
+  /**
+   * @param is the stream of the sharedStrings.xml part, which is not closed
+   */
+  public XSSFLazySharedStringsTable(InputStream is) throws IOException, SAXException {
+    this(is, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @param is        the stream of the sharedStrings.xml part, which is not closed
+   * @param cacheSize the maximum number of strings kept in memory
+   */
+  public XSSFLazySharedStringsTable(InputStream is, final int cacheSize) throws IOException, SAXException {
+    this.cache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+        return size() > cacheSize;
+      }
+    };
+    charsFile = File.createTempFile("exo-sst-chars-", ".tmp");
+    offsetsFile = File.createTempFile("exo-sst-offsets-", ".tmp");
+    boolean stored = false;
+    try {
+      store(is);
+      chars = new RandomAccessFile(charsFile, "r");
+      offsets = new RandomAccessFile(offsetsFile, "r");
+      stored = true;
+    } finally {
+      if (!stored) {
+        close();
+      }
+    }
+  }
+
+  private void store(InputStream is) throws IOException, SAXException {
+    charsOutput = new BufferedOutputStream(new FileOutputStream(charsFile), 64 * 1024);
+    try {
+      offsetsOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile), 16 * 1024));
+      try {
+        InputSource sstSource = new InputSource(is);
+        XMLReader sstParser = XMLReaderPool.DEFAULT.acquire();
+        try {
+          sstParser.setContentHandler(this);
+          sstParser.parse(sstSource);
+        } finally {
+          XMLReaderPool.DEFAULT.release(sstParser);
+        }
+        // the end of the last string
+        offsetsOutput.writeLong(charsOffset);
+      } finally {
+        offsetsOutput.close();
+      }
+    } finally {
+      charsOutput.close();
+    }
+    offsetsOutput = null;
+    charsOutput = null;
+    encoded = null;
+  }
+
+  public int getUniqueCount() {
+    return uniqueCount;
+  }
+
+  public String getEntryAt(int idx) {
+    if (idx < 0 || idx >= uniqueCount) {
+      return null;
+    }
+    String value;
+    synchronized (cache) {
+      value = cache.get(idx);
+    }
+    if (value == null) {
+      // the positional reads of the channels can be done by several threads at the same time
+      try {
+        value = read(idx);
+      } catch (IOException e) {
+        LOG.warn("Unable to read the shared string " + idx + ": " + e.getMessage());
+        return null;
+      }
+      synchronized (cache) {
+        cache.put(idx, value);
+      }
+    }
+    return value;
+  }
+
+  private String read(int idx) throws IOException {
+    ByteBuffer offsetBuffer = ByteBuffer.allocate(2 * OFFSET_SIZE);
+    readFully(offsets.getChannel(), offsetBuffer, (long) idx * OFFSET_SIZE);
+    long start = offsetBuffer.getLong(0);
+    long end = offsetBuffer.getLong(OFFSET_SIZE);
+    ByteBuffer charsBuffer = ByteBuffer.allocate((int) (end - start));
+    readFully(chars.getChannel(), charsBuffer, start);
+    charsBuffer.flip();
+    return charsBuffer.asCharBuffer().toString();
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    long p = position;
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, p);
+      if (read < 0) {
+        throw new IOException("Unexpected end of the shared strings file");
+      }
+      p += read;
+    }
+  }
+
+  /**
+   * Deletes the temporary files.
+   */
+  public void close() {
+    synchronized (cache) {
+      cache.clear();
+    }
+    closeQuietly(chars);
+    closeQuietly(offsets);
+    deleteFile(charsFile);
+    deleteFile(offsetsFile);
+  }
+
+  private static void closeQuietly(RandomAccessFile file) {
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("An exception occurred: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private static void deleteFile(File file) {
+    if (file != null && !file.delete() && file.exists()) {
+      LOG.warn("Unable to delete the temporary file " + file.getAbsolutePath());
+      file.deleteOnExit();
+    }
+  }
+
+  public void startElement(String uri, String localName, String name,
+                           Attributes attributes) throws SAXException {
+    if ("si".equals(name)) {
+      characters.setLength(0);
+    } else if ("t".equals(name)) {
+      tIsOpen = true;
+    }
+  }
+
+  public void endElement(String uri, String localName, String name)
+      throws SAXException {
+    if ("si".equals(name)) {
+      try {
+        append(characters);
+      } catch (IOException e) {
+        throw new SAXException("Unable to store the shared string " + uniqueCount, e);
+      }
+    } else if ("t".equals(name)) {
+      tIsOpen = false;
+    }
+  }
+
+  /**
+   * Captures characters only if a t(ext) element is open.
+   */
+  public void characters(char[] ch, int start, int length)
+      throws SAXException {
+    if (tIsOpen) {
+      characters.append(ch, start, length);
+    }
+  }
+
+  private void append(CharSequence value) throws IOException {
+    int length = value.length();
+    if (encoded.length < 2 * length) {
+      encoded = new byte[Math.max(2 * length, 2 * encoded.length)];
+    }
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      encoded[2 * i] = (byte) (c >>> 8);
+      encoded[2 * i + 1] = (byte) c;
+    }
+    offsetsOutput.writeLong(charsOffset);
+    charsOutput.write(encoded, 0, 2 * length);
+    charsOffset += 2 * length;
+    uniqueCount++;
+  }
+}
@@ -0,0 +1,494 @@
+package org.exoplatform.tests.core;
+
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * This class processes the elements of a sheet#.xml sheet part of a XSSF .xlsx file, as given by the
+ * {@link XSSFOptimizedSheetXMLHandler_04} (SAX) or the {@link XSSFOptimizedSheetPullParser_04} (StAX),
+ * and generates row and cell events for it.
+ * <p/>
+ * we KEEP only the following data :
+ * - cells with string, depending on the policy
+ * - cells with number (date formatted or simple number), depending on the policy
+ * - cells with formula result, depending on the policy
+ * <p/>
+ * we SKIP the following data :
+ * - cells with blank value
+ * - cells with boolean value
+ * - cells with error
+ * <p/>
+ * A skipped cell is still given to the {@link XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler}, with a null value.
+ * <p/>
+ * As it is called for every element of the sheet, it does not allocate anything for the skipped cells :
+ * - the element names are dispatched on their length and first char
+ * - the SST index is parsed directly from the chars given to {@link #characters(char[], int, int)}
+ * - the chars are gathered only for the kept values and the headers, in reused buffers
+ * - the escaped chars (_xHHHH_) are decoded without XSSFRichTextString
+ */
+class XSSFOptimizedSheetProcessor_04 {
+
+  private static final Log LOG = ExoLogger.getExoLogger("exo.core.component.document.XSSFOptimizedSheetProcessor_04");
+
+  // The elements we handle, by local name (the elements of a sheet part are usually in the default namespace)
+  static final int OTHER = 0;
+  static final int V = 1;
+  static final int F = 2;
+  static final int C = 3;
+  static final int T = 4;
+  static final int IS = 5;
+  static final int ROW = 6;
+  static final int INLINE_STR = 7;
+  static final int HEADER = 8;
+  static final int FOOTER = 9;
+
+  /**
+   * Number formats of the cell styles, null if the numbers are not formatted
+   */
+  private final XSSFCellFormats cellFormats;
+
+  private final XSSFSharedStrings sharedStringsTable;
+
+  private final boolean keepStrings;
+  private final boolean keepNumbers;
+  private final boolean keepFormulas;
+  private final int minStringLength;
+
+  /**
+   * The maximum number of cells to parse in the Sheet (-1 mean All cells in the sheet)
+   */
+  private final long maxCellsToParse;
+  private long currentCellsParsed = 0;
+
+  private ExtractionDeadline deadline;
+
+  /**
+   * Where our text is going
+   */
+  private final XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler output;
+
+  // Set when V start element is seen
+  private boolean vIsOpen;
+  // Set when an Inline String "is" is seen
+  private boolean isIsOpen;
+  // Set when a header/footer element is seen
+  private boolean hfIsOpen;
+  // Set when the chars of the V element are needed
+  private boolean gatherValue;
+
+  // Set when cell start element is seen;
+  // used when cell close element is seen.
+  private XSSFOptimizedSheetXMLHandler_04.xssfDataType nextDataType;
+
+  private String cellRef;
+
+  // Used to format numeric cell values.
+  private short formatIndex;
+  private String formatString;
+  private final DataFormatter formatter;
+
+  // The SST index, parsed as its chars are seen
+  private long sstIndex;
+  private int sstIndexChars;
+  private int sstIndexDigits;
+  private boolean sstIndexNegative;
+  private boolean sstIndexValid;
+
+  // Gathers characters as they are seen.
+  private final StringBuilder value = new StringBuilder();
+  private final StringBuilder headerFooter = new StringBuilder();
+
+  /**
+   * @param formats         Number formats of the cell styles, null to keep the numbers as they are stored
+   * @param strings         Table of shared strings
+   * @param policy          the kept cells, null to keep only the strings (whatever their length)
+   * @param maxCellsToParse the maximum number of cells to parse in the sheet (-1 mean All cells in the sheet)
+   */
+  XSSFOptimizedSheetProcessor_04(
+      XSSFCellFormats formats,
+      XSSFSharedStrings strings,
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsHandler,
+      SpreadsheetExtractionPolicy policy,
+      long maxCellsToParse) {
+    this.cellFormats = formats;
+    this.sharedStringsTable = strings;
+    this.output = sheetContentsHandler;
+    this.keepStrings = policy == null || policy.isKeepStrings();
+    this.keepNumbers = policy != null && policy.isKeepNumbers();
+    this.keepFormulas = policy != null && policy.isKeepFormulas();
+    this.minStringLength = policy != null ? policy.getMinStringLength() : 0;
+    this.formatter = formats != null && (keepNumbers || keepFormulas) ? new DataFormatter() : null;
+    this.nextDataType = XSSFOptimizedSheetXMLHandler_04.xssfDataType.NUMBER;
+    this.maxCellsToParse = maxCellsToParse;
+  }
+
+  /**
+   * @param localName the local name of the element, empty when the parser is not namespace aware
+   * @param qName     the qualified name of the element
+   * @return the name of the element without its prefix, whatever the parser
+   */
+  static String localName(String localName, String qName) {
+    if (localName != null && localName.length() > 0) {
+      return localName;
+    }
+    int colon = qName.indexOf(':');
+    return colon < 0 ? qName : qName.substring(colon + 1);
+  }
+
+  /**
+   * @param name the local name of the element (see {@link #localName(String, String)})
+   */
+  static int element(String name) {
+    switch (name.length()) {
+      case 1:
+        switch (name.charAt(0)) {
+          case 'v':
+            return V;
+          case 'f':
+            return F;
+          case 'c':
+            return C;
+          case 't':
+            return T;
+          default:
+            return OTHER;
+        }
+      case 2:
+        return "is".equals(name) ? IS : OTHER;
+      case 3:
+        return "row".equals(name) ? ROW : OTHER;
+      case 9:
+        if ("inlineStr".equals(name)) {
+          return INLINE_STR;
+        }
+        if ("oddHeader".equals(name)) {
+          return HEADER;
+        }
+        return "oddFooter".equals(name) ? FOOTER : OTHER;
+      case 10:
+        if ("evenHeader".equals(name)) {
+          return HEADER;
+        }
+        return "evenFooter".equals(name) ? FOOTER : OTHER;
+      case 11:
+        if ("firstHeader".equals(name)) {
+          return HEADER;
+        }
+        return "firstFooter".equals(name) ? FOOTER : OTHER;
+      default:
+        return OTHER;
+    }
+  }
+
+  static XSSFOptimizedSheetXMLHandler_04.xssfDataType dataType(String cellType) {
+    if (cellType == null) {
+      return XSSFOptimizedSheetXMLHandler_04.xssfDataType.NUMBER;
+    }
+    switch (cellType.length()) {
+      case 1:
+        switch (cellType.charAt(0)) {
+          case 'b':
+            return XSSFOptimizedSheetXMLHandler_04.xssfDataType.BOOLEAN;
+          case 'e':
+            return XSSFOptimizedSheetXMLHandler_04.xssfDataType.ERROR;
+          case 's':
+            return XSSFOptimizedSheetXMLHandler_04.xssfDataType.SST_STRING;
+          default:
+            return XSSFOptimizedSheetXMLHandler_04.xssfDataType.NUMBER;
+        }
+      case 3:
+        return "str".equals(cellType) ? XSSFOptimizedSheetXMLHandler_04.xssfDataType.FORMULA
+            : XSSFOptimizedSheetXMLHandler_04.xssfDataType.NUMBER;
+      case 9:
+        return "inlineStr".equals(cellType) ? XSSFOptimizedSheetXMLHandler_04.xssfDataType.INLINE_STRING
+            : XSSFOptimizedSheetXMLHandler_04.xssfDataType.NUMBER;
+      default:
+        return XSSFOptimizedSheetXMLHandler_04.xssfDataType.NUMBER;
+    }
+  }
+
+  private boolean isTextTag(int element) {
+    // normal v text tag, inline string or inline string <is><t>...</t></is> pair
+    return element == V || element == INLINE_STR || (element == T && isIsOpen);
+  }
+
+  /**
+   * Processes the start of any element but a c(ell), see {@link #startCell(String, String, String)}.
+   */
+  void startElement(int element) {
+    if (isTextTag(element)) {
+      vIsOpen = true;
+      // Clear contents cache
+      value.setLength(0);
+      sstIndex = 0;
+      sstIndexChars = 0;
+      sstIndexDigits = 0;
+      sstIndexNegative = false;
+      sstIndexValid = true;
+      switch (nextDataType) {
+        case INLINE_STRING:
+          gatherValue = keepStrings;
+          break;
+        case NUMBER:
+          gatherValue = keepNumbers;
+          break;
+        case FORMULA:
+          gatherValue = keepFormulas;
+          break;
+        default:
+          gatherValue = false;
+          break;
+      }
+      return;
+    }
+    switch (element) {
+      case IS:
+        // Inline string outer tag
+        isIsOpen = true;
+        break;
+      case F:
+        // Mark us as being a formula if not already
+        if (nextDataType == XSSFOptimizedSheetXMLHandler_04.xssfDataType.NUMBER) {
+          nextDataType = XSSFOptimizedSheetXMLHandler_04.xssfDataType.FORMULA;
+        }
+        break;
+      case HEADER:
+      case FOOTER:
+        hfIsOpen = true;
+        // Clear contents cache
+        headerFooter.setLength(0);
+        break;
+      case ROW:
+        output.startRow(0);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Processes the start of a c(ell) element.
+   *
+   * @param cellType  the t attribute of the cell
+   * @param cellStyle the s attribute of the cell
+   */
+  void startCell(String cellRef, String cellType, String cellStyle) {
+    this.cellRef = cellRef;
+    this.nextDataType = dataType(cellType);
+    this.formatIndex = -1;
+    this.formatString = null;
+    if (formatter != null && cellStyle != null && nextDataType == XSSFOptimizedSheetXMLHandler_04.xssfDataType.NUMBER) {
+      // Number, but almost certainly with a special style or format
+      try {
+        int styleIndex = Integer.parseInt(cellStyle);
+        this.formatIndex = cellFormats.getFormatIndex(styleIndex);
+        this.formatString = cellFormats.getFormatString(styleIndex);
+      } catch (NumberFormatException e) {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("Failed to parse the style index of the cell '" + cellRef + "'");
+        }
+      }
+    }
+  }
+
+  void endElement(int element, String name) {
+    if (isTextTag(element)) {
+      vIsOpen = false;
+      String thisStr = null;
+
+      // Process the value contents as required, now we have it all
+      switch (nextDataType) {
+        case INLINE_STRING:
+          if (keepStrings) {
+            thisStr = keptString(utfDecode(value.toString()));
+          }
+          break;
+        case SST_STRING:
+          if (!keepStrings) {
+            break;
+          }
+          if (isSstIndexValid()) {
+            thisStr = keptString(utfDecode(sharedStringsTable.getEntryAt((int) (sstIndexNegative ? -sstIndex : sstIndex))));
+          } else if (LOG.isTraceEnabled()) {
+            LOG.trace("Failed to parse the SST index of the cell '" + cellRef + "'");
+          }
+          break;
+        case NUMBER:
+          if (keepNumbers) {
+            thisStr = formatNumber(value.toString());
+          }
+          break;
+        case FORMULA:
+          if (keepFormulas) {
+            thisStr = formatNumber(value.toString());
+          }
+          break;
+        default:
+          // BOOLEAN and ERROR are skipped
+          break;
+      }
+      currentCellsParsed++;
+      // Output
+      output.cell(cellRef, thisStr);
+    } else {
+      switch (element) {
+        case IS:
+          isIsOpen = false;
+          break;
+        case ROW:
+          output.endRow();
+          break;
+        case HEADER:
+          hfIsOpen = false;
+          output.headerFooter(headerFooter.toString(), true, name);
+          break;
+        case FOOTER:
+          hfIsOpen = false;
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private String keptString(String str) {
+    return str != null && str.length() >= minStringLength ? str : null;
+  }
+
+  /**
+   * @param number the number as it is stored, or the cached string result of a formula
+   */
+  private String formatNumber(String number) {
+    if (formatString == null || number.length() == 0) {
+      return number;
+    }
+    try {
+      return formatter.formatRawCellContents(Double.parseDouble(number), formatIndex, formatString);
+    } catch (NumberFormatException e) {
+      return number;
+    }
+  }
+
+  /**
+   * @return true if the maximum number of cells to parse in the sheet is reached
+   */
+  boolean isMaxCellsReached() {
+    return maxCellsToParse >= 0 && currentCellsParsed > maxCellsToParse;
+  }
+
+  long getMaxCellsToParse() {
+    return maxCellsToParse;
+  }
+
+  void setDeadline(ExtractionDeadline deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * @return true if the deadline of the extraction is expired, checked at the end of each element
+   */
+  boolean isDeadlineExpired() {
+    return deadline != null && deadline.checkExpired();
+  }
+
+  /**
+   * Captures characters only if a suitable element is open.
+   * Originally was just "v"; extended for inlineStr also.
+   * <p/>
+   * The chars of a SST index are parsed as they are seen, the chars of the values of the skipped cells
+   * and of the formulas are ignored.
+   */
+  void characters(char[] ch, int start, int length) {
+    if (vIsOpen) {
+      if (nextDataType == XSSFOptimizedSheetXMLHandler_04.xssfDataType.SST_STRING) {
+        if (keepStrings) {
+          parseSstIndex(ch, start, length);
+        }
+      } else if (gatherValue) {
+        value.append(ch, start, length);
+      }
+    }
+    if (hfIsOpen) {
+      headerFooter.append(ch, start, length);
+    }
+  }
+
+  /**
+   * Parses the chars of the SST index like {@link Integer#parseInt(String)}.
+   */
+  private void parseSstIndex(char[] ch, int start, int length) {
+    for (int i = start; i < start + length && sstIndexValid; i++) {
+      char c = ch[i];
+      int digit = c >= '0' && c <= '9' ? c - '0' : Character.digit(c, 10);
+      if (digit >= 0) {
+        sstIndex = sstIndex * 10 + digit;
+        // Integer.MIN_VALUE is the only index above Integer.MAX_VALUE
+        sstIndexValid = sstIndex <= (long) Integer.MAX_VALUE + 1;
+        sstIndexDigits++;
+      } else {
+        sstIndexValid = sstIndexChars == 0 && (c == '-' || c == '+');
+        sstIndexNegative = c == '-';
+      }
+      sstIndexChars++;
+    }
+  }
+
+  private boolean isSstIndexValid() {
+    return sstIndexValid && sstIndexDigits > 0 && (sstIndexNegative || sstIndex <= Integer.MAX_VALUE);
+  }
+
+  /**
+   * Decodes the chars escaped as _xHHHH_ like the {@link org.apache.poi.xssf.usermodel.XSSFRichTextString},
+   * the value is returned as is when it has no escaped char.
+   */
+  static String utfDecode(String value) {
+    if (value == null) {
+      return null;
+    }
+    int i = value.indexOf("_x");
+    if (i < 0) {
+      return value;
+    }
+    StringBuilder buf = null;
+    int last = 0;
+    int length = value.length();
+    while (i >= 0 && i + 7 <= length) {
+      int code = value.charAt(i + 6) == '_' ? hex4(value, i + 2) : -1;
+      if (code >= 0) {
+        if (buf == null) {
+          buf = new StringBuilder(length);
+        }
+        buf.append(value, last, i).append((char) code);
+        last = i + 7;
+        i = value.indexOf("_x", last);
+      } else {
+        i = value.indexOf("_x", i + 1);
+      }
+    }
+    if (buf == null) {
+      return value;
+    }
+    return buf.append(value, last, length).toString();
+  }
+
+  /**
+   * @return the value of the 4 upper case hexadecimal digits at the given index, -1 if they are not
+   */
+  private static int hex4(String value, int index) {
+    int code = 0;
+    for (int i = index; i < index + 4; i++) {
+      char c = value.charAt(i);
+      int digit;
+      if (c >= '0' && c <= '9') {
+        digit = c - '0';
+      } else if (c >= 'A' && c <= 'F') {
+        digit = c - 'A' + 10;
+      } else {
+        return -1;
+      }
+      code = (code << 4) | digit;
+    }
+    return code;
+  }
+}
@@ -0,0 +1,205 @@
+package org.exoplatform.tests.core;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * This class pulls the events of a sheet#.xml sheet part of a XSSF .xlsx file with a StAX {@link XMLStreamReader},
+ * and generates the same row and cell events as the {@link XSSFOptimizedSheetXMLHandler_04}.
+ * <p/>
+ * we KEEP only the following data :
+ * - cells with number (date formatted or simple number)
+ * - cells with string
+ * <p/>
+ * we SKIP the following data :
+ * - cells with blank value
+ * - cells with boolean value
+ * - cells with formula
+ * - cells with error
+ * <p/>
+ * Unlike the SAX handler, which throws a StopSheetParsingException to stop the parser :
+ * - the parser simply stops pulling once the maximum number of cells to parse is reached, or once the deadline of
+ * the extraction is expired
+ * - the f(ormula) elements are skipped as a whole
+ */
+public class XSSFOptimizedSheetPullParser_04 {
+
+  private static final Log LOG = ExoLogger.getExoLogger("exo.core.component.document.XSSFOptimizedSheetPullParser_04");
+
+  private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+  static {
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  private final XSSFOptimizedSheetProcessor_04 processor;
+
+  // Reader of the sheet part being parsed, null if none
+  private XMLStreamReader reader;
+
+  private boolean stopped;
+
+  /**
+   * Accepts objects needed while parsing.
+   *
+   * @param styles  Table of styles, which may be null as the numbers are not formatted
+   * @param strings Table of shared strings
+   */
+  public XSSFOptimizedSheetPullParser_04(
+      StylesTable styles,
+      XSSFSharedStrings strings,
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsHandler,
+      long maxCellsToParse) {
+    this(null, strings, sheetContentsHandler, null, maxCellsToParse);
+  }
+
+  /**
+   * Accepts objects needed while parsing.
+   *
+   * @param formats Number formats of the cell styles, null to keep the numbers as they are stored
+   * @param strings Table of shared strings
+   * @param policy  the kept cells
+   */
+  public XSSFOptimizedSheetPullParser_04(
+      XSSFCellFormats formats,
+      XSSFSharedStrings strings,
+      XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler sheetContentsHandler,
+      SpreadsheetExtractionPolicy policy,
+      long maxCellsToParse) {
+    this.processor = new XSSFOptimizedSheetProcessor_04(formats, strings, sheetContentsHandler, policy, maxCellsToParse);
+  }
+
+  /**
+   * @param deadline checked at the end of each element, the parsing is stopped once it is expired
+   */
+  public void setDeadline(ExtractionDeadline deadline) {
+    processor.setDeadline(deadline);
+  }
+
+  /**
+   * Pulls the events of the sheet part until its end, or until the maximum number of cells to parse is reached.
+   *
+   * @param sheetInputStream the stream of the sheet part, which is not closed
+   * @return false if the parsing stopped at the maximum number of cells to parse or at the deadline
+   */
+  public boolean parse(InputStream sheetInputStream) throws XMLStreamException {
+    open(sheetInputStream);
+    try {
+      while (pullNext()) {
+        // the events are pulled one by one
+      }
+      return !stopped;
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Starts the parsing of a sheet part, its events are then pulled by {@link #pullNext()}, so the parsing can be
+   * driven by the reader of the text (see {@link SpreadsheetTextReader}).
+   *
+   * @param sheetInputStream the stream of the sheet part, which is not closed
+   */
+  public void open(InputStream sheetInputStream) throws XMLStreamException {
+    reader = XML_INPUT_FACTORY.createXMLStreamReader(sheetInputStream);
+    stopped = false;
+  }
+
+  /**
+   * Pulls the next event of the sheet part.
+   *
+   * @return false once the end of the sheet part is reached, or once the parsing stopped at the maximum number of
+   * cells to parse or at the deadline (see {@link #isStopped()})
+   */
+  public boolean pullNext() throws XMLStreamException {
+    if (stopped || !reader.hasNext()) {
+      return false;
+    }
+    switch (reader.next()) {
+      case XMLStreamConstants.START_ELEMENT:
+        startElement(reader);
+        break;
+      case XMLStreamConstants.END_ELEMENT:
+        String name = reader.getLocalName();
+        processor.endElement(XSSFOptimizedSheetProcessor_04.element(name), name);
+        if (processor.isMaxCellsReached()) {
+          if (LOG.isTraceEnabled()) {
+            LOG.trace("Maximum number of cells to parse per sheet reached (max=" + processor.getMaxCellsToParse() + ")");
+          }
+          stopped = true;
+          return false;
+        }
+        if (processor.isDeadlineExpired()) {
+          if (LOG.isTraceEnabled()) {
+            LOG.trace("Deadline of the extraction expired");
+          }
+          stopped = true;
+          return false;
+        }
+        break;
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.CDATA:
+      case XMLStreamConstants.SPACE:
+        processor.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        break;
+      default:
+        break;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the parsing stopped at the maximum number of cells to parse or at the deadline
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * Ends the parsing of the sheet part, the underlying stream is not closed.
+   */
+  public void close() throws XMLStreamException {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
+  }
+
+  private void startElement(XMLStreamReader reader) throws XMLStreamException {
+    int element = XSSFOptimizedSheetProcessor_04.element(reader.getLocalName());
+    if (element == XSSFOptimizedSheetProcessor_04.C) {
+      // c => cell
+      processor.startCell(reader.getAttributeValue(null, "r"), reader.getAttributeValue(null, "t"),
+                          reader.getAttributeValue(null, "s"));
+    } else {
+      processor.startElement(element);
+      if (element == XSSFOptimizedSheetProcessor_04.F) {
+        // the formula itself is not needed
+        skipElement(reader);
+      }
+    }
+  }
+
+  /**
+   * Pulls the events up to the end of the current element.
+   */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+}
@@ -1,11 +1,7 @@
 package org.exoplatform.tests.core;
 
-import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
 import org.apache.poi.xssf.model.StylesTable;
-import org.apache.poi.xssf.usermodel.XSSFRichTextString;
-import org.exoplatform.services.log.ExoLogger;
-import org.exoplatform.services.log.Log;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -24,11 +20,12 @@ import org.xml.sax.helpers.DefaultHandler;
  * - cells with boolean value
  * - cells with formula
  * - cells with error
+ * <p/>
+ * The elements are processed by a {@link XSSFOptimizedSheetProcessor_04}, which does not allocate anything
+ * for the skipped cells. With a {@link SpreadsheetExtractionPolicy}, the kept cells are the ones of the policy.
  */
 public class XSSFOptimizedSheetXMLHandler_04 extends DefaultHandler {
 
-  private static final Log LOG = ExoLogger.getExoLogger("exo.core.component.document.XSSFOptimizedSheetXMLHandler_04");
-
   /**
    * These are the different kinds of cells we support.
    * We keep track of the current one between
@@ -43,198 +40,83 @@ public class XSSFOptimizedSheetXMLHandler_04 extends DefaultHandler {
     NUMBER,
   }
 
-  /**
-   * Table with the styles used for formatting
-   */
-  private StylesTable stylesTable;
-
-  private ReadOnlySharedStringsTable sharedStringsTable;
+  private final XSSFOptimizedSheetProcessor_04 processor;
 
   /**
-   * The maximum number of cells to parse in the Sheet (-1 mean All cells in the sheet)
+   * Accepts objects needed while parsing.
+   *
+   * @param styles  Table of styles
+   * @param strings Table of shared strings
    */
-  private long maxCellsToParse = -1;
-  private long currentCellsParsed = 0;
+  public XSSFOptimizedSheetXMLHandler_04(
+      StylesTable styles,
+      final ReadOnlySharedStringsTable strings,
+      SheetContentsHandler sheetContentsHandler,
+      long maxCellsToParse) {
+    this(styles, new XSSFSharedStrings() {
+      public String getEntryAt(int idx) {
+        return strings.getEntryAt(idx);
+      }
+    }, sheetContentsHandler, maxCellsToParse);
+  }
 
   /**
-   * Where our text is going
+   * Accepts objects needed while parsing.
+   *
+   * @param styles  Table of styles, which may be null as the numbers are not formatted
+   * @param strings Table of shared strings
    */
-  private final SheetContentsHandler output;
-
-  // Set when V start element is seen
-  private boolean vIsOpen;
-  // Set when F start element is seen
-  private boolean fIsOpen;
-  // Set when an Inline String "is" is seen
-  private boolean isIsOpen;
-  // Set when a header/footer element is seen
-  private boolean hfIsOpen;
-
-  // Set when cell start element is seen;
-  // used when cell close element is seen.
-  private xssfDataType nextDataType;
-
-  // Used to format numeric cell values.
-  private short formatIndex;
-  private String formatString;
-  private final DataFormatter formatter = new DataFormatter();
-  private String cellRef;
-
-  // Gathers characters as they are seen.
-  private StringBuffer value = new StringBuffer();
-  private StringBuffer formula = new StringBuffer();
-  private StringBuffer headerFooter = new StringBuffer();
+  public XSSFOptimizedSheetXMLHandler_04(
+      StylesTable styles,
+      XSSFSharedStrings strings,
+      SheetContentsHandler sheetContentsHandler,
+      long maxCellsToParse) {
+    this(null, strings, sheetContentsHandler, null, maxCellsToParse);
+  }
 
   /**
    * Accepts objects needed while parsing.
    *
-   * @param styles  Table of styles
+   * @param formats Number formats of the cell styles, null to keep the numbers as they are stored
    * @param strings Table of shared strings
+   * @param policy  the kept cells
    */
   public XSSFOptimizedSheetXMLHandler_04(
-      StylesTable styles,
-      ReadOnlySharedStringsTable strings,
+      XSSFCellFormats formats,
+      XSSFSharedStrings strings,
       SheetContentsHandler sheetContentsHandler,
+      SpreadsheetExtractionPolicy policy,
       long maxCellsToParse) {
-    this.stylesTable = styles;
-    this.sharedStringsTable = strings;
-    this.output = sheetContentsHandler;
-    this.nextDataType = xssfDataType.NUMBER;
-    this.maxCellsToParse = maxCellsToParse;
+    this.processor = new XSSFOptimizedSheetProcessor_04(formats, strings, sheetContentsHandler, policy, maxCellsToParse);
   }
 
-  private boolean isTextTag(String name) {
-    if ("v".equals(name)) {
-      // Easy, normal v text tag
-      return true;
-    }
-    if ("inlineStr".equals(name)) {
-      // Easy inline string
-      return true;
-    }
-    if ("t".equals(name) && isIsOpen) {
-      // Inline string <is><t>...</t></is> pair
-      return true;
-    }
-    // It isn't a text tag
-    return false;
+  /**
+   * @param deadline checked at the end of each element, the parsing is stopped once it is expired
+   */
+  public void setDeadline(ExtractionDeadline deadline) {
+    processor.setDeadline(deadline);
   }
 
   public void startElement(String uri, String localName, String name,
                            Attributes attributes) throws SAXException {
-
-    if (isTextTag(name)) {
-      vIsOpen = true;
-      // Clear contents cache
-      value.setLength(0);
-    } else if ("is".equals(name)) {
-      // Inline string outer tag
-      isIsOpen = true;
-    } else if ("f".equals(name)) {
-      // Clear contents cache
-      formula.setLength(0);
-      // Mark us as being a formula if not already
-      if (nextDataType == xssfDataType.NUMBER) {
-        nextDataType = xssfDataType.FORMULA;
-      }
-      fIsOpen = true;
-    } else if ("oddHeader".equals(name) || "evenHeader".equals(name) ||
-        "firstHeader".equals(name) || "firstFooter".equals(name) ||
-        "oddFooter".equals(name) || "evenFooter".equals(name)) {
-      hfIsOpen = true;
-      // Clear contents cache
-      headerFooter.setLength(0);
-    } else if ("row".equals(name)) {
-//      int rowNum = Integer.parseInt(attributes.getValue("r")) - 1;
-      output.startRow(0);
-    }
-    // c => cell
-    else if ("c".equals(name)) {
-      // Set up defaults.
-      this.nextDataType = xssfDataType.NUMBER;
-      this.formatIndex = -1;
-      this.formatString = null;
-      cellRef = attributes.getValue("r");
-      String cellType = attributes.getValue("t");
-      if ("b".equals(cellType))
-        nextDataType = xssfDataType.BOOLEAN;
-      else if ("e".equals(cellType))
-        nextDataType = xssfDataType.ERROR;
-      else if ("inlineStr".equals(cellType))
-        nextDataType = xssfDataType.INLINE_STRING;
-      else if ("s".equals(cellType))
-        nextDataType = xssfDataType.SST_STRING;
-      else if ("str".equals(cellType))
-        nextDataType = xssfDataType.FORMULA;
+    int element = XSSFOptimizedSheetProcessor_04.element(XSSFOptimizedSheetProcessor_04.localName(localName, name));
+    if (element == XSSFOptimizedSheetProcessor_04.C) {
+      // c => cell
+      processor.startCell(attributes.getValue("r"), attributes.getValue("t"), attributes.getValue("s"));
+    } else {
+      processor.startElement(element);
     }
   }
 
   public void endElement(String uri, String localName, String name)
       throws SAXException {
-    String thisStr = null;
-
-    // v => contents of a cell
-    if (isTextTag(name)) {
-      vIsOpen = false;
-
-      // Process the value contents as required, now we have it all
-      switch (nextDataType) {
-        case BOOLEAN:
-          currentCellsParsed++;
-          break;
-        case ERROR:
-          currentCellsParsed++;
-          break;
-        case FORMULA:
-          currentCellsParsed++;
-          break;
-        case INLINE_STRING:
-          // TODO: Can these ever have formatting on them?
-          XSSFRichTextString rtsi = new XSSFRichTextString(value.toString());
-          thisStr = rtsi.toString();
-          currentCellsParsed++;
-          break;
-        case SST_STRING:
-          String sstIndex = value.toString();
-          try {
-            int idx = Integer.parseInt(sstIndex);
-            XSSFRichTextString rtss = new XSSFRichTextString(sharedStringsTable.getEntryAt(idx));
-            thisStr = rtss.toString();
-          } catch (NumberFormatException ex) {
-            if (LOG.isTraceEnabled()) {
-              LOG.trace("Failed to parse SST index '" + sstIndex + "': " + ex.toString());
-            }
-          }
-          currentCellsParsed++;
-          break;
-        case NUMBER:
-          currentCellsParsed++;
-          break;
-        default:
-          if (LOG.isTraceEnabled()) {
-            LOG.trace("Failed to define the unexpected type '" + nextDataType + "'");
-          }
-          currentCellsParsed++;
-          break;
-      }
-      // Output
-      output.cell(cellRef, thisStr);
-    } else if ("f".equals(name)) {
-      fIsOpen = false;
-    } else if ("is".equals(name)) {
-      isIsOpen = false;
-    } else if ("row".equals(name)) {
-      output.endRow();
-    } else if ("oddHeader".equals(name) || "evenHeader".equals(name) ||
-        "firstHeader".equals(name)) {
-      hfIsOpen = false;
-      output.headerFooter(headerFooter.toString(), true, name);
-    } else if ("oddFooter".equals(name) || "evenFooter".equals(name) ||
-        "firstFooter".equals(name)) {
-      hfIsOpen = false;
+    String elementName = XSSFOptimizedSheetProcessor_04.localName(localName, name);
+    processor.endElement(XSSFOptimizedSheetProcessor_04.element(elementName), elementName);
+    if (processor.isMaxCellsReached()) {
+      throw new StopSheetParsingException("Maximum number of cells to parse per sheet reached (max=" + processor.getMaxCellsToParse() + ")");
     }
-    if (maxCellsToParse >= 0 && currentCellsParsed > maxCellsToParse) {
-      throw new StopSheetParsingException("Maximum number of cells to parse per sheet reached (max=" + maxCellsToParse + ")");
+    if (processor.isDeadlineExpired()) {
+      throw new StopSheetParsingException("Deadline of the extraction expired");
     }
   }
 
@@ -244,15 +126,7 @@ public class XSSFOptimizedSheetXMLHandler_04 extends DefaultHandler {
    */
   public void characters(char[] ch, int start, int length)
       throws SAXException {
-    if (vIsOpen) {
-      value.append(ch, start, length);
-    }
-    if (fIsOpen) {
-      formula.append(ch, start, length);
-    }
-    if (hfIsOpen) {
-      headerFooter.append(ch, start, length);
-    }
+    processor.characters(ch, start, length);
   }
 
   /**
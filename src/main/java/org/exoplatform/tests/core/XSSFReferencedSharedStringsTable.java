@@ -0,0 +1,132 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Shared strings of a XSSF .xlsx file resolved in two passes, only the strings referenced by the parsed cells are kept.
+ * <p/>
+ * - first pass : the sheets are parsed with this table, which records the index of each shared string asked for
+ * in a bitset, and resolves it to null
+ * - {@link #load(InputStream)} : the sharedStrings.xml part is streamed once, only the referenced strings are kept
+ * - second pass : the sheets are parsed again with this table, which now resolves the referenced strings
+ * <p/>
+ * Like the {@link org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable}, the text of the rich text runs
+ * of a string is concatenated.
+ */
+public class XSSFReferencedSharedStringsTable extends DefaultHandler implements XSSFSharedStrings {
+
+  // Indices above are not recorded (the bitset would take more than 8MB), they are resolved to null
+  private static final int MAX_INDEX = 1 << 26;
+
+  // Bitset of the referenced indices
+  private int[] referenced = new int[64];
+
+  private boolean loaded;
+
+  private final Map<Integer, String> strings = new HashMap<Integer, String>();
+
+  // Index of the current string while the sharedStrings.xml part is parsed
+  private int index = -1;
+  private boolean siIsReferenced;
+
+  // Gathers characters as they are seen.
+  private final StringBuilder characters = new StringBuilder();
+  // Set when a T start element is seen
+  private boolean tIsOpen;
+
+  /**
+   * During the first pass, records the index and returns null.
+   */
+  public String getEntryAt(int idx) {
+    if (loaded) {
+      return strings.get(idx);
+    }
+    record(idx);
+    return null;
+  }
+
+  /**
+   * The sheets of the first pass may be parsed by several threads at the same time.
+   */
+  private synchronized void record(int idx) {
+    if (idx >= 0 && idx < MAX_INDEX) {
+      int word = idx >>> 5;
+      if (word >= referenced.length) {
+        referenced = Arrays.copyOf(referenced, Math.max(word + 1, 2 * referenced.length));
+      }
+      referenced[word] |= 1 << (idx & 31);
+    }
+  }
+
+  public boolean isReferenced(int idx) {
+    int word = idx >>> 5;
+    return idx >= 0 && word < referenced.length && (referenced[word] & (1 << (idx & 31))) != 0;
+  }
+
+  /**
+   * @return the number of strings kept
+   */
+  public int size() {
+    return strings.size();
+  }
+
+  /**
+   * Streams the sharedStrings.xml part and keeps only the referenced strings.
+   *
+   * @param is the stream of the sharedStrings.xml part, which is not closed
+   */
+  public void load(InputStream is) throws IOException, SAXException {
+    InputSource sstSource = new InputSource(is);
+    XMLReader sstParser = XMLReaderPool.DEFAULT.acquire();
+    try {
+      sstParser.setContentHandler(this);
+      sstParser.parse(sstSource);
+    } finally {
+      XMLReaderPool.DEFAULT.release(sstParser);
+    }
+    loaded = true;
+    referenced = null;
+  }
+
+  public void startElement(String uri, String localName, String name,
+                           Attributes attributes) throws SAXException {
+    if ("si".equals(name)) {
+      index++;
+      siIsReferenced = isReferenced(index);
+      characters.setLength(0);
+    } else if ("t".equals(name)) {
+      tIsOpen = siIsReferenced;
+    }
+  }
+
+  public void endElement(String uri, String localName, String name)
+      throws SAXException {
+    if ("si".equals(name)) {
+      if (siIsReferenced) {
+        strings.put(index, characters.toString());
+      }
+    } else if ("t".equals(name)) {
+      tIsOpen = false;
+    }
+  }
+
+  /**
+   * Captures characters only if a t(ext) element of a referenced string is open.
+   */
+  public void characters(char[] ch, int start, int length)
+      throws SAXException {
+    if (tIsOpen) {
+      characters.append(ch, start, length);
+    }
+  }
+}
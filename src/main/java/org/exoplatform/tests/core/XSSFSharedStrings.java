@@ -0,0 +1,14 @@
+package org.exoplatform.tests.core;
+
+/**
+ * Shared strings of a XSSF .xlsx file, resolved by the {@link XSSFOptimizedSheetXMLHandler_04}
+ * for the cells with a shared string.
+ */
+public interface XSSFSharedStrings {
+
+  /**
+   * @param idx the index of the shared string, as found in the cell
+   * @return the shared string, or null if there is no string at this index
+   */
+  String getEntryAt(int idx);
+}
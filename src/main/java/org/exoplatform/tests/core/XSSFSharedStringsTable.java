@@ -0,0 +1,97 @@
+package org.exoplatform.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * This class handles the processing of the sharedStrings.xml part of a XSSF .xlsx file,
+ * read directly from its stream (see {@link XSSFZipPackage}).
+ * <p/>
+ * Like the {@link org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable}, the text of the rich text runs
+ * of a string is concatenated.
+ */
+public class XSSFSharedStringsTable extends DefaultHandler implements XSSFSharedStrings {
+
+  /**
+   * The shared strings table without any string, for the workbooks without sharedStrings.xml part
+   */
+  public static final XSSFSharedStrings EMPTY = new XSSFSharedStrings() {
+    public String getEntryAt(int idx) {
+      return null;
+    }
+  };
+
+  private List<String> strings = new ArrayList<String>();
+
+  // Gathers characters as they are seen.
+  private final StringBuilder characters = new StringBuilder();
+  // Set when a T start element is seen
+  private boolean tIsOpen;
+
+  /**
+   * @param is the stream of the sharedStrings.xml part, which is not closed
+   */
+  public XSSFSharedStringsTable(InputStream is) throws IOException, SAXException {
+    InputSource sstSource = new InputSource(is);
+    XMLReader sstParser = XMLReaderPool.DEFAULT.acquire();
+    try {
+      sstParser.setContentHandler(this);
+      sstParser.parse(sstSource);
+    } finally {
+      XMLReaderPool.DEFAULT.release(sstParser);
+    }
+  }
+
+  public int getUniqueCount() {
+    return strings.size();
+  }
+
+  public String getEntryAt(int idx) {
+    return idx >= 0 && idx < strings.size() ? strings.get(idx) : null;
+  }
+
+  public void startElement(String uri, String localName, String name,
+                           Attributes attributes) throws SAXException {
+    if ("sst".equals(name)) {
+      String uniqueCount = attributes.getValue("uniqueCount");
+      if (uniqueCount != null) {
+        try {
+          strings = new ArrayList<String>(Integer.parseInt(uniqueCount));
+        } catch (NumberFormatException e) {
+          // the list grows as the strings are read
+        }
+      }
+    } else if ("si".equals(name)) {
+      characters.setLength(0);
+    } else if ("t".equals(name)) {
+      tIsOpen = true;
+    }
+  }
+
+  public void endElement(String uri, String localName, String name)
+      throws SAXException {
+    if ("si".equals(name)) {
+      strings.add(characters.toString());
+    } else if ("t".equals(name)) {
+      tIsOpen = false;
+    }
+  }
+
+  /**
+   * Captures characters only if a t(ext) element is open.
+   */
+  public void characters(char[] ch, int start, int length)
+      throws SAXException {
+    if (tIsOpen) {
+      characters.append(ch, start, length);
+    }
+  }
+}
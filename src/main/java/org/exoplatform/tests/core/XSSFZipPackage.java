@@ -0,0 +1,565 @@
+package org.exoplatform.tests.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.exoplatform.services.document.DocumentReadException;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Lightweight read-only view of the parts of a XSSF .xlsx package, used instead of the
+ * {@link org.apache.poi.openxml4j.opc.OPCPackage} which reads every part of the package.
+ * <p/>
+ * Only the parts needed to find the sheets are parsed when the package is opened :
+ * - the relationships of the package (_rels/.rels), to find the workbook and the core properties parts
+ * - the relationships of the workbook, to find the sheets, the shared strings and the styles parts
+ * - the workbook part (workbook.xml), to get the names and the order of the sheets
+ * <p/>
+ * The package of a XSSFB .xlsb file has the same relationships, but its workbook, sheets, shared strings and styles
+ * parts are binary (see {@link #isBinary()}) : the sheets are then read from the BrtBundleSh records of the
+ * workbook.bin part.
+ * <p/>
+ * The other parts (sheets, shared strings, ...) are only inflated when their stream is asked for,
+ * the parts never asked for (images, charts, sheets beyond the budget of tabs, ...) are never inflated.
+ * <p/>
+ * A package opened from a file is read through its zip central directory ({@link ZipFile}). A package opened from
+ * a stream is kept in memory as it is, compressed, and read through its central directory too : it is only used
+ * below the spool threshold (see {@link SpooledDocument}).
+ */
+public abstract class XSSFZipPackage {
+
+  private static final String RELATIONSHIPS_PART = "_rels/.rels";
+
+  private static final String OFFICE_DOCUMENT_RELATIONSHIP = "/officeDocument";
+  private static final String CORE_PROPERTIES_RELATIONSHIP = "/metadata/core-properties";
+  private static final String WORKSHEET_RELATIONSHIP = "/worksheet";
+  private static final String CHARTSHEET_RELATIONSHIP = "/chartsheet";
+  private static final String SHARED_STRINGS_RELATIONSHIP = "/sharedStrings";
+  private static final String STYLES_RELATIONSHIP = "/styles";
+
+  private static final String BINARY_PART_SUFFIX = ".bin";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // BrtBundleSh, a sheet of the workbook
+  private static final int BUNDLE_SH = 156;
+
+  // BrtEndBundleShs, the end of the sheets of the workbook
+  private static final int END_BUNDLE_SHS = 144;
+
+  private final List<Sheet> sheets = new ArrayList<Sheet>();
+
+  private String sharedStringsPartName;
+
+  private String stylesPartName;
+
+  private String corePropertiesPartName;
+
+  private boolean binary;
+
+  /**
+   * Opens the package, only its zip central directory and the parts describing the workbook are read.
+   *
+   * @param file the .xlsx file
+   */
+  public static XSSFZipPackage open(File file) throws IOException, DocumentReadException {
+    ZipFile zip;
+    try {
+      zip = new ZipFile(file);
+    } catch (ZipException e) {
+      throw new DocumentReadException("The format of the document to read is invalid.", e);
+    }
+    XSSFZipPackage zipPackage = new ZipFilePackage(zip);
+    try {
+      zipPackage.load();
+    } catch (DocumentReadException e) {
+      zipPackage.close();
+      throw e;
+    } catch (IOException e) {
+      zipPackage.close();
+      throw e;
+    } catch (RuntimeException e) {
+      zipPackage.close();
+      throw e;
+    }
+    return zipPackage;
+  }
+
+  /**
+   * Opens the package from a stream, which is read until its end and kept in memory without being inflated.
+   *
+   * @param is the content of the .xlsx file, which is not closed
+   */
+  public static XSSFZipPackage open(InputStream is) throws IOException, DocumentReadException {
+    XSSFZipPackage zipPackage = new InMemoryPackage(is);
+    zipPackage.load();
+    return zipPackage;
+  }
+
+  /**
+   * @param partName the name of the part, without leading '/'
+   * @return the stream of the part, or null if there is no such part
+   */
+  protected abstract InputStream getPartInputStream(String partName) throws IOException;
+
+  /**
+   * @param partName the name of the part, without leading '/'
+   * @return the uncompressed size of the part, or -1 if it is unknown
+   */
+  public abstract long getPartSize(String partName);
+
+  public abstract void close() throws IOException;
+
+  /**
+   * @return the worksheets and chartsheets of the workbook, in the order of the workbook
+   */
+  public List<Sheet> getSheets() {
+    return Collections.unmodifiableList(sheets);
+  }
+
+  /**
+   * @return the name of the shared strings part, or null if the workbook has no shared strings
+   */
+  public String getSharedStringsPartName() {
+    return sharedStringsPartName;
+  }
+
+  /**
+   * @return the name of the styles part, or null if the workbook has no styles
+   */
+  public String getStylesPartName() {
+    return stylesPartName;
+  }
+
+  /**
+   * @return the name of the core properties part (docProps/core.xml), or null if the package has no core properties
+   */
+  public String getCorePropertiesPartName() {
+    return corePropertiesPartName;
+  }
+
+  /**
+   * @return true if the parts of the workbook are binary (a XSSFB .xlsb file), see {@link XSSFBRecordReader}
+   */
+  public boolean isBinary() {
+    return binary;
+  }
+
+  /**
+   * Several parts can be read at the same time, by different threads.
+   *
+   * @param partName the name of the part, as given by this package
+   * @return the stream of the part, inflated as it is read
+   */
+  public InputStream getPart(String partName) throws IOException, DocumentReadException {
+    InputStream is = getPartInputStream(partName);
+    if (is == null) {
+      throw new DocumentReadException("The part " + partName + " of the document to read is missing.");
+    }
+    return is;
+  }
+
+  private void load() throws IOException, DocumentReadException {
+    String workbookPartName = null;
+    for (Relationship relationship : parseRelationships(RELATIONSHIPS_PART)) {
+      if (relationship.type.endsWith(OFFICE_DOCUMENT_RELATIONSHIP)) {
+        if (workbookPartName == null) {
+          workbookPartName = resolve("", relationship.target);
+        }
+      } else if (relationship.type.endsWith(CORE_PROPERTIES_RELATIONSHIP)) {
+        corePropertiesPartName = resolve("", relationship.target);
+      }
+    }
+    if (workbookPartName == null) {
+      throw new DocumentReadException("The format of the document to read is invalid (no workbook part).");
+    }
+
+    int slash = workbookPartName.lastIndexOf('/');
+    String workbookFolder = workbookPartName.substring(0, slash + 1);
+    Map<String, String> sheetPartNames = new HashMap<String, String>();
+    for (Relationship relationship : parseRelationships(workbookFolder + "_rels/" + workbookPartName.substring(slash + 1) + ".rels")) {
+      if (relationship.type.endsWith(WORKSHEET_RELATIONSHIP) || relationship.type.endsWith(CHARTSHEET_RELATIONSHIP)) {
+        sheetPartNames.put(relationship.id, resolve(workbookFolder, relationship.target));
+      } else if (relationship.type.endsWith(SHARED_STRINGS_RELATIONSHIP)) {
+        sharedStringsPartName = resolve(workbookFolder, relationship.target);
+      } else if (relationship.type.endsWith(STYLES_RELATIONSHIP)) {
+        stylesPartName = resolve(workbookFolder, relationship.target);
+      }
+    }
+
+    List<String[]> workbookSheets;
+    binary = workbookPartName.endsWith(BINARY_PART_SUFFIX);
+    if (binary) {
+      workbookSheets = parseBinaryWorkbook(getPart(workbookPartName));
+    } else {
+      WorkbookHandler workbookHandler = new WorkbookHandler();
+      parse(getPart(workbookPartName), workbookHandler);
+      workbookSheets = workbookHandler.sheets;
+    }
+    for (String[] sheet : workbookSheets) {
+      String sheetPartName = sheetPartNames.get(sheet[1]);
+      if (sheetPartName != null) {
+        sheets.add(new Sheet(sheet[0], sheetPartName));
+      }
+    }
+  }
+
+  private List<Relationship> parseRelationships(String partName) throws IOException, DocumentReadException {
+    InputStream is = getPartInputStream(partName);
+    if (is == null) {
+      return Collections.emptyList();
+    }
+    RelationshipsHandler handler = new RelationshipsHandler();
+    parse(is, handler);
+    return handler.relationships;
+  }
+
+  /**
+   * @return the name and the relationship id of the sheets of the workbook.bin part, which is closed
+   */
+  private static List<String[]> parseBinaryWorkbook(InputStream is) throws IOException {
+    List<String[]> sheets = new ArrayList<String[]>();
+    try {
+      XSSFBRecordReader reader = new XSSFBRecordReader(is);
+      while (reader.next() && reader.getType() != END_BUNDLE_SHS) {
+        if (reader.getType() == BUNDLE_SH) {
+          // the state and the id of the sheet, then its relationship id and its name
+          byte[] payload = reader.readPayload();
+          int size = reader.getSize();
+          int offset = 8;
+          long tabId = size >= 8 ? XSSFBRecordReader.readInt(payload, 4) & 0xFFFFFFFFL : 0;
+          if ((tabId < 1 || tabId > 0xFFFF) && size >= 12) {
+            // Excel 2007 writes 4 more bytes before the id of the sheet
+            offset += 4;
+          }
+          int relationshipIdLength = XSSFBRecordReader.readWideStringLength(payload, offset, size);
+          String id = XSSFBRecordReader.readWideString(payload, offset, size);
+          String name = XSSFBRecordReader.readWideString(payload, offset + 4 + 2 * Math.max(relationshipIdLength, 0), size);
+          sheets.add(new String[]{name, id});
+        }
+      }
+    } finally {
+      is.close();
+    }
+    return sheets;
+  }
+
+  private static void parse(InputStream is, DefaultHandler handler) throws IOException, DocumentReadException {
+    XMLReader parser = null;
+    try {
+      parser = XMLReaderPool.NAMESPACE_AWARE.acquire();
+      parser.setContentHandler(handler);
+      parser.parse(new InputSource(is));
+    } catch (StopParsingException e) {
+      // the needed data has been read
+    } catch (SAXException e) {
+      throw new DocumentReadException("Problem during the document parsing.", e);
+    } finally {
+      if (parser != null) {
+        XMLReaderPool.NAMESPACE_AWARE.release(parser);
+      }
+      is.close();
+    }
+  }
+
+  /**
+   * Resolves the target of a relationship, relative to the folder of the source part.
+   */
+  static String resolve(String sourceFolder, String target) {
+    String path = target.startsWith("/") ? target.substring(1) : sourceFolder + target;
+    LinkedList<String> segments = new LinkedList<String>();
+    for (String segment : path.split("/")) {
+      if ("..".equals(segment)) {
+        if (!segments.isEmpty()) {
+          segments.removeLast();
+        }
+      } else if (segment.length() > 0 && !".".equals(segment)) {
+        segments.add(segment);
+      }
+    }
+    StringBuilder partName = new StringBuilder(path.length());
+    for (String segment : segments) {
+      if (partName.length() > 0) {
+        partName.append('/');
+      }
+      partName.append(segment);
+    }
+    return partName.toString();
+  }
+
+  /**
+   * A worksheet or a chartsheet of the workbook.
+   */
+  public static class Sheet {
+    private final String name;
+    private final String partName;
+
+    Sheet(String name, String partName) {
+      this.name = name;
+      this.partName = partName;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getPartName() {
+      return partName;
+    }
+  }
+
+  private static class Relationship {
+    private final String id;
+    private final String type;
+    private final String target;
+
+    Relationship(String id, String type, String target) {
+      this.id = id;
+      this.type = type;
+      this.target = target;
+    }
+  }
+
+  private static class RelationshipsHandler extends DefaultHandler {
+    private final List<Relationship> relationships = new ArrayList<Relationship>();
+
+    public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
+      if ("Relationship".equals(localName) && !"External".equals(attributes.getValue("TargetMode"))) {
+        String id = attributes.getValue("Id");
+        String type = attributes.getValue("Type");
+        String target = attributes.getValue("Target");
+        if (id != null && type != null && target != null) {
+          relationships.add(new Relationship(id, type, target));
+        }
+      }
+    }
+  }
+
+  private static class WorkbookHandler extends DefaultHandler {
+    private static final String RELATIONSHIPS_NAMESPACE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    // name and relationship id of the sheets
+    private final List<String[]> sheets = new ArrayList<String[]>();
+
+    public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
+      if ("sheet".equals(localName)) {
+        String id = attributes.getValue(RELATIONSHIPS_NAMESPACE, "id");
+        if (id == null) {
+          // strict OOXML namespace
+          for (int i = 0; i < attributes.getLength(); i++) {
+            if ("id".equals(attributes.getLocalName(i)) && attributes.getURI(i).length() > 0) {
+              id = attributes.getValue(i);
+            }
+          }
+        }
+        sheets.add(new String[]{attributes.getValue("name"), id});
+      }
+    }
+
+    public void endElement(String uri, String localName, String name) throws SAXException {
+      if ("sheets".equals(localName)) {
+        // the remaining of the workbook is not needed
+        throw new StopParsingException();
+      }
+    }
+  }
+
+  /**
+   * Stops the parsing of a part once the needed data has been read.
+   */
+  private static class StopParsingException extends SAXException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static class ZipFilePackage extends XSSFZipPackage {
+    private final ZipFile zip;
+
+    ZipFilePackage(ZipFile zip) {
+      this.zip = zip;
+    }
+
+    @Override
+    protected InputStream getPartInputStream(String partName) throws IOException {
+      ZipEntry entry = zip.getEntry(partName);
+      return entry != null ? zip.getInputStream(entry) : null;
+    }
+
+    @Override
+    public long getPartSize(String partName) {
+      ZipEntry entry = zip.getEntry(partName);
+      return entry != null ? entry.getSize() : -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+      zip.close();
+    }
+  }
+
+  /**
+   * Keeps the raw bytes of the zip file, indexed by its central directory : as with the {@link ZipFilePackage},
+   * a part is only inflated when its stream is asked for.
+   * <p/>
+   * The zip64 extensions are not supported, they are only needed above 4GB or 65535 entries.
+   */
+  private static class InMemoryPackage extends XSSFZipPackage {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final byte[] bytes;
+
+    private final int size;
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    InMemoryPackage(InputStream is) throws IOException, DocumentReadException {
+      ByteArrayOutputStream content = new ByteArrayOutputStream(Math.max(is.available(), 8192));
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = is.read(buffer)) >= 0) {
+        content.write(buffer, 0, read);
+      }
+      this.bytes = content.toByteArray();
+      this.size = bytes.length;
+      readCentralDirectory();
+    }
+
+    private void readCentralDirectory() throws DocumentReadException {
+      // the end of central directory record is followed by a comment of at most 65535 bytes
+      int end = -1;
+      for (int i = size - END_SIZE; i >= 0 && i >= size - END_SIZE - 0xFFFF; i--) {
+        if (getInt(i) == END_SIGNATURE) {
+          end = i;
+          break;
+        }
+      }
+      if (end < 0) {
+        throw new DocumentReadException("The format of the document to read is invalid (no zip central directory).");
+      }
+      int count = getShort(end + 10);
+      long offset = getInt(end + 16) & 0xFFFFFFFFL;
+      for (int i = 0; i < count; i++) {
+        if (offset + CENTRAL_HEADER_SIZE > size || getInt((int) offset) != CENTRAL_HEADER_SIGNATURE) {
+          throw new DocumentReadException("The format of the document to read is invalid (corrupted zip central directory).");
+        }
+        int header = (int) offset;
+        int nameLength = getShort(header + 28);
+        String name = new String(bytes, header + CENTRAL_HEADER_SIZE, Math.min(nameLength, size - header - CENTRAL_HEADER_SIZE), UTF_8);
+        if (!name.endsWith("/")) {
+          entries.put(name.startsWith("/") ? name.substring(1) : name,
+                      new Entry(getShort(header + 10), getInt(header + 20) & 0xFFFFFFFFL, getInt(header + 24) & 0xFFFFFFFFL,
+                                getInt(header + 42) & 0xFFFFFFFFL));
+        }
+        offset += CENTRAL_HEADER_SIZE + nameLength + getShort(header + 30) + getShort(header + 32);
+      }
+      if (entries.isEmpty()) {
+        throw new DocumentReadException("The format of the document to read is invalid (no xml part).");
+      }
+    }
+
+    @Override
+    protected InputStream getPartInputStream(String partName) throws IOException {
+      Entry entry = entries.get(partName);
+      if (entry == null) {
+        return null;
+      }
+      // the data follows the local header, whose name and extra field can differ from the central directory ones
+      long header = entry.localHeaderOffset;
+      if (header + LOCAL_HEADER_SIZE > size || getInt((int) header) != LOCAL_HEADER_SIGNATURE) {
+        throw new ZipException("Invalid local header of the part " + partName);
+      }
+      long data = header + LOCAL_HEADER_SIZE + getShort((int) header + 26) + getShort((int) header + 28);
+      if (data + entry.compressedSize > size) {
+        throw new ZipException("Truncated part " + partName);
+      }
+      switch (entry.method) {
+        case STORED:
+          return new ByteArrayInputStream(bytes, (int) data, (int) entry.compressedSize);
+        case DEFLATED:
+          // one more byte than the compressed data may be needed by the inflater, the central directory follows it
+          return new PartInputStream(new ByteArrayInputStream(bytes, (int) data, (int) Math.min(entry.compressedSize + 1, size - data)));
+        default:
+          throw new ZipException("Unsupported compression method " + entry.method + " of the part " + partName);
+      }
+    }
+
+    @Override
+    public long getPartSize(String partName) {
+      Entry entry = entries.get(partName);
+      return entry != null ? entry.size : -1;
+    }
+
+    @Override
+    public void close() {
+      entries.clear();
+    }
+
+    private int getShort(int offset) {
+      return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    private int getInt(int offset) {
+      return getShort(offset) | getShort(offset + 2) << 16;
+    }
+
+    private static class Entry {
+      private final int method;
+      private final long compressedSize;
+      private final long size;
+      private final long localHeaderOffset;
+
+      Entry(int method, long compressedSize, long size, long localHeaderOffset) {
+        this.method = method;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+      }
+    }
+
+    /**
+     * Inflates a part, the native memory of its inflater is released when it is closed.
+     */
+    private static class PartInputStream extends InflaterInputStream {
+      private boolean closed;
+
+      PartInputStream(InputStream in) {
+        super(in, new Inflater(true), 8192);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          inf.end();
+          super.close();
+        }
+      }
+    }
+  }
+}
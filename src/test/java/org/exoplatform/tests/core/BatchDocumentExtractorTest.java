@@ -0,0 +1,207 @@
+package org.exoplatform.tests.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Test the performance of the {@link BatchDocumentExtractor} on a batch of .xls and .xlsx documents
+ */
+@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 5, concurrency = -1, callgc = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class BatchDocumentExtractorTest {
+
+  public static final String MIMETYPE_XLS = "application/vnd.ms-excel";
+  public static final String MIMETYPE_XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+  // each document is extracted this number of times in the batch
+  public static final int COPIES = 8;
+
+  public static final String TEST_LABEL = "test_" + COPIES + "x_" + MSExcelDocumentReaderStreamTest.MS_XLS_500KB
+      + "_" + MSXExcelDocumentReaderStreamTest.MS_XLSX_500KB;
+
+  private final NumberFormat nf = NumberFormat.getInstance(Locale.FRENCH);
+
+  @Rule
+  public TestRule benchmarkRun = new BenchmarkRule();
+
+  private List<DocumentSource> sources;
+
+  private ExecutorService executor;
+
+  private BatchDocumentExtractor sequentialExtractor;
+
+  private BatchDocumentExtractor fixedPoolExtractor;
+
+  private ExecutorService virtualThreadsExecutor;
+
+  private BatchDocumentExtractor virtualThreadsExtractor;
+
+  private static final Map<String, Map<String, Map<String, Object>>> moreInfos = new TreeMap<String, Map<String, Map<String, Object>>>();
+
+  @Before
+  public void setUp() throws URISyntaxException {
+    File xls = new File(BatchDocumentExtractorTest.class.getResource("/" + MSExcelDocumentReaderStreamTest.MS_XLS_500KB).toURI());
+    File xlsx = new File(BatchDocumentExtractorTest.class.getResource("/" + MSXExcelDocumentReaderStreamTest.MS_XLSX_500KB).toURI());
+    sources = new ArrayList<DocumentSource>();
+    for (int i = 0; i < COPIES; i++) {
+      sources.add(new FileDocumentSource(xls, MIMETYPE_XLS));
+      sources.add(new FileDocumentSource(xlsx, MIMETYPE_XLSX));
+    }
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // one document at a time
+    sequentialExtractor = new BatchDocumentExtractor(executor, 1);
+    // as many documents as threads
+    fixedPoolExtractor = new BatchDocumentExtractor(executor, Runtime.getRuntime().availableProcessors());
+    // a thread per document (virtual if the JVM has them), but only as many documents parsed at a time as cores
+    virtualThreadsExecutor = VirtualThreads.newThreadPerTaskExecutor();
+    virtualThreadsExtractor = new BatchDocumentExtractor(virtualThreadsExecutor, sources.size());
+    virtualThreadsExtractor.setMaxParseConcurrency(Runtime.getRuntime().availableProcessors());
+    System.gc();
+  }
+
+  @Test
+  public void test_BATCH_SEQUENTIAL() {
+    final String version = "BATCH_SEQUENTIAL";
+    long startUsedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    extract(sequentialExtractor, version);
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+  }
+
+  @Test
+  public void test_BATCH_FIXED_POOL() {
+    final String version = "BATCH_FIXED_POOL";
+    long startUsedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    extract(fixedPoolExtractor, version);
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+  }
+
+  @Test
+  public void test_BATCH_VIRTUAL_THREADS() {
+    final String version = VirtualThreads.isAvailable() ? "BATCH_VIRTUAL_THREADS" : "BATCH_VIRTUAL_THREADS (platform threads)";
+    long startUsedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    extract(virtualThreadsExtractor, version);
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+  }
+
+  @Test
+  public void test_BATCH_INTERRUPTED() throws URISyntaxException {
+    File xls = new File(BatchDocumentExtractorTest.class.getResource("/" + MSExcelDocumentReaderStreamTest.MS_XLS_25KB_LIGHT).toURI());
+    List<DocumentSource> twoSources = new ArrayList<DocumentSource>();
+    twoSources.add(new FileDocumentSource(xls, MIMETYPE_XLS));
+    twoSources.add(new FileDocumentSource(xls, MIMETYPE_XLS));
+    // the first document is extracted as soon as it is given, the second one never starts
+    final List<Runnable> pending = new ArrayList<Runnable>();
+    BatchDocumentExtractor extractor = new BatchDocumentExtractor(new Executor() {
+      public void execute(Runnable command) {
+        if (pending.isEmpty()) {
+          pending.add(null);
+          command.run();
+        } else {
+          pending.add(command);
+        }
+      }
+    }, 2);
+    BatchDocumentExtractor.Batch batch = extractor.extract(twoSources);
+    batch.hasNext();
+    // the consumer is interrupted while the first document is done
+    Thread.currentThread().interrupt();
+    ExtractionResult first = batch.next();
+    assertTrue(Thread.interrupted());
+    assertEquals(ExtractionResult.Status.SUCCEEDED, first.getStatus());
+    assertNotNull(first.getText());
+    ExtractionResult second = batch.next();
+    assertEquals(ExtractionResult.Status.CANCELLED, second.getStatus());
+    assertFalse(batch.hasNext());
+  }
+
+  private void extract(BatchDocumentExtractor extractor, String version) {
+    long contentSize = 0;
+    Map<ExtractionResult.Status, Integer> statuses = new TreeMap<ExtractionResult.Status, Integer>();
+    BatchDocumentExtractor.Batch batch = extractor.extract(sources);
+    while (batch.hasNext()) {
+      ExtractionResult result = batch.next();
+      if (result.getText() != null) {
+        contentSize += result.getText().length();
+      }
+      Integer count = statuses.get(result.getStatus());
+      statuses.put(result.getStatus(), count == null ? 1 : count + 1);
+    }
+    addMoreInfos(TEST_LABEL, version, "content size", contentSize + "");
+    addMoreInfos(TEST_LABEL, version, "content", statuses.toString());
+  }
+
+  private void addMoreInfos_memory(String test, String version, long startUsedMemory) {
+    long mem = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - startUsedMemory;
+    addMoreInfos(test, version, "used memory", nf.format(mem) + " (" + mem + ")");
+  }
+
+  private void addMoreInfos(String test, String version, String type, String value) {
+    Map<String, Object> versionData;
+    if (moreInfos.containsKey(test)) {
+      Map<String, Map<String, Object>> testData = moreInfos.get(test);
+
+      if (testData.containsKey(version)) {
+        versionData = testData.get(version);
+      } else {
+        versionData = new TreeMap<String, Object>();
+        testData.put(version, versionData);
+      }
+    } else {
+      Map<String, Map<String, Object>> testData = new TreeMap<String, Map<String, Object>>();
+      moreInfos.put(test, testData);
+      versionData = new TreeMap<String, Object>();
+      testData.put(version, versionData);
+    }
+
+    versionData.put(type, value);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    virtualThreadsExecutor.shutdownNow();
+    System.gc();
+  }
+
+  @AfterClass
+  public static void afterTests() {
+    System.out.println("## MORE INFOS:\n");
+    for (Map.Entry<String, Map<String, Map<String, Object>>> entryTest : moreInfos.entrySet()) {
+      String testName = entryTest.getKey();
+      System.out.println("##    TEST:" + testName);
+      Map<String, Map<String, Object>> testData = entryTest.getValue();
+      for (Map.Entry<String, Map<String, Object>> entryVersion : testData.entrySet()) {
+        String testVersion = entryVersion.getKey();
+        Map<String, Object> testInfos = entryVersion.getValue();
+        System.out.println("##       " + testVersion + ": content size = " + testInfos.get("content size"));
+        System.out.println("##       " + testVersion + ": used memory  = " + testInfos.get("used memory"));
+        System.out.println("##       " + testVersion + ": content    = \n=====\n" + testInfos.get("content") + "\n=====");
+      }
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package org.exoplatform.tests.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the recovery of the {@link ExtractionStore} after an abrupt shutdown, through the disk tier of the
+ * {@link ExtractionCache} opened again on its directory (a warm restart).
+ */
+public class ExtractionStoreTest {
+
+  // Each record is sealed in its own segment
+  private static final long SMALL_SEGMENT_SIZE = 64;
+
+  private File storeDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    storeDirectory = Files.createTempDirectory("extraction-store").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    deleteSegments();
+    new File(storeDirectory, "store.lock").delete();
+    storeDirectory.delete();
+  }
+
+  @Test
+  public void test_torn_tail() throws IOException {
+    ExtractionCache cache = openCache(ExtractionStore.DEFAULT_MAX_SEGMENT_SIZE);
+    try {
+      cache.putText("a", "text of a");
+      cache.putText("b", "text of b");
+      cache.putText("c", "text of c");
+    } finally {
+      cache.close();
+    }
+    // the last record is only partly written
+    File segment = lastSegment();
+    truncate(segment, segment.length() - 3);
+
+    cache = openCache(ExtractionStore.DEFAULT_MAX_SEGMENT_SIZE);
+    try {
+      assertEquals("text of a", cache.getText("a"));
+      assertEquals("text of b", cache.getText("b"));
+      assertNull(cache.getText("c"));
+      assertEquals(2, cache.getDiskHits());
+      assertEquals(1, cache.getMisses());
+      // the segment is truncated at the end of the last valid record, the next records follow it
+      cache.putText("d", "text of d");
+    } finally {
+      cache.close();
+    }
+
+    cache = openCache(ExtractionStore.DEFAULT_MAX_SEGMENT_SIZE);
+    try {
+      assertEquals("text of a", cache.getText("a"));
+      assertEquals("text of b", cache.getText("b"));
+      assertEquals("text of d", cache.getText("d"));
+      assertEquals(3, cache.getDiskHits());
+    } finally {
+      cache.close();
+    }
+  }
+
+  @Test
+  public void test_corrupted_record() throws IOException {
+    ExtractionCache cache = openCache(ExtractionStore.DEFAULT_MAX_SEGMENT_SIZE);
+    try {
+      cache.putText("a", "text of a");
+      cache.putText("b", "text of b");
+      cache.putText("c", "text of c");
+    } finally {
+      cache.close();
+    }
+    // a byte of the value of the last record is changed, its CRC does not match anymore
+    File segment = lastSegment();
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    try {
+      file.seek(segment.length() - 2);
+      int b = file.read();
+      file.seek(segment.length() - 2);
+      file.write(b ^ 0xFF);
+    } finally {
+      file.close();
+    }
+
+    cache = openCache(ExtractionStore.DEFAULT_MAX_SEGMENT_SIZE);
+    try {
+      assertEquals("text of a", cache.getText("a"));
+      assertEquals("text of b", cache.getText("b"));
+      assertNull(cache.getText("c"));
+      assertEquals(2, cache.getDiskHits());
+      assertEquals(1, cache.getMisses());
+    } finally {
+      cache.close();
+    }
+    assertEquals(2, storeSize());
+  }
+
+  @Test
+  public void test_interrupted_compaction() throws IOException {
+    char[] chars = new char[1000];
+    Arrays.fill(chars, 'c');
+    String textOfC = new String(chars);
+    ExtractionCache cache = openCache(SMALL_SEGMENT_SIZE);
+    try {
+      cache.putText("a", "first text of a");
+      cache.putText("b", "text of b");
+      cache.putText("c", textOfC);
+      cache.putText("a", "second text of a");
+    } finally {
+      cache.close();
+    }
+    ExtractionStore store = new ExtractionStore(storeDirectory, SMALL_SEGMENT_SIZE);
+    Map<String, byte[]> oldSegments;
+    try {
+      store.remove("b");
+      oldSegments = readSegments();
+      store.compact();
+    } finally {
+      store.close();
+    }
+    Map<String, byte[]> newSegments = readSegments();
+
+    // the compaction is stopped before the deletion of each old segment : the oldest ones are deleted first
+    String[] oldNames = oldSegments.keySet().toArray(new String[oldSegments.size()]);
+    for (int deleted = 0; deleted <= oldNames.length; deleted++) {
+      deleteSegments();
+      for (int i = deleted; i < oldNames.length; i++) {
+        writeSegment(oldNames[i], oldSegments.get(oldNames[i]));
+      }
+      for (Map.Entry<String, byte[]> segment : newSegments.entrySet()) {
+        writeSegment(segment.getKey(), segment.getValue());
+      }
+      cache = openCache(SMALL_SEGMENT_SIZE);
+      try {
+        assertEquals("second text of a", cache.getText("a"));
+        assertNull(cache.getText("b"));
+        assertEquals(textOfC, cache.getText("c"));
+        assertEquals(2, cache.getDiskHits());
+        assertEquals(1, cache.getMisses());
+      } finally {
+        cache.close();
+      }
+    }
+  }
+
+  @Test
+  public void test_reopen_after_remove() throws IOException {
+    ExtractionCache cache = openCache(ExtractionStore.DEFAULT_MAX_SEGMENT_SIZE);
+    try {
+      cache.putText("a", "text of a");
+      cache.putText("b", "text of b");
+    } finally {
+      cache.close();
+    }
+    ExtractionStore store = new ExtractionStore(storeDirectory);
+    try {
+      store.remove("a");
+    } finally {
+      store.close();
+    }
+
+    // the remove is kept by the next restarts
+    for (int i = 0; i < 2; i++) {
+      cache = openCache(ExtractionStore.DEFAULT_MAX_SEGMENT_SIZE);
+      try {
+        assertNull(cache.getText("a"));
+        assertEquals("text of b", cache.getText("b"));
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(1, cache.getMisses());
+      } finally {
+        cache.close();
+      }
+    }
+  }
+
+  private ExtractionCache openCache(long maxSegmentSize) throws IOException {
+    return new ExtractionCache(ExtractionCache.DEFAULT_MAX_MEMORY_SIZE,
+                               new ExtractionStore(storeDirectory, maxSegmentSize), Long.MAX_VALUE);
+  }
+
+  /**
+   * @return the segment files, the oldest first
+   */
+  private File[] segments() {
+    File[] segments = storeDirectory.listFiles();
+    Map<Integer, File> sorted = new TreeMap<Integer, File>();
+    for (File segment : segments) {
+      String name = segment.getName();
+      if (name.startsWith("segment-") && name.endsWith(".log")) {
+        sorted.put(Integer.parseInt(name.substring(8, name.length() - 4)), segment);
+      }
+    }
+    return sorted.values().toArray(new File[sorted.size()]);
+  }
+
+  /**
+   * @return the last segment which is not empty
+   */
+  private File lastSegment() {
+    File[] segments = segments();
+    for (int i = segments.length - 1; i >= 0; i--) {
+      if (segments[i].length() > 0) {
+        return segments[i];
+      }
+    }
+    throw new IllegalStateException("No segment in " + storeDirectory);
+  }
+
+  private Map<String, byte[]> readSegments() throws IOException {
+    Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+    for (File segment : segments()) {
+      contents.put(segment.getName(), Files.readAllBytes(segment.toPath()));
+    }
+    return contents;
+  }
+
+  private void writeSegment(String name, byte[] content) throws IOException {
+    Files.write(new File(storeDirectory, name).toPath(), content);
+  }
+
+  private void deleteSegments() {
+    for (File segment : segments()) {
+      segment.delete();
+    }
+  }
+
+  private static void truncate(File file, long length) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(length);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * @return the number of entries of the store opened again
+   */
+  private int storeSize() throws IOException {
+    ExtractionStore store = new ExtractionStore(storeDirectory);
+    try {
+      return store.size();
+    } finally {
+      store.close();
+    }
+  }
+}
@@ -2,6 +2,9 @@ package org.exoplatform.tests.core;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.NumberFormat;
 import java.util.Locale;
 import java.util.Map;
@@ -51,12 +54,15 @@ public class MSExcelDocumentReaderPropertiesTest {
 
   private DocumentReader docReaderPatched01;
 
+  private FileDocumentReader docReaderStream05;
+
   private static final Map<String, Map<String, Map<String, Object>>> moreInfos = new TreeMap<String, Map<String, Map<String, Object>>>();
 
   @Before
   public void setUp() {
     docReaderORI = new MSExcelDocumentReader();
     docReaderPatched01 = new MSExcelDocumentReader_Patched_01();
+    docReaderStream05 = new MSExcelDocumentReader_Stream_05();
     System.gc();
   }
 
@@ -84,6 +90,17 @@ public class MSExcelDocumentReaderPropertiesTest {
     addMoreInfos(TEST_LABEL, version, "content", properties);
   }
 
+  @Test
+  public void test_XLS_STREAM_05_PATH() throws IOException, DocumentReadException, URISyntaxException {
+    final String version = "STREAM_05_PATH";
+    Path docPath = Paths.get(MSExcelDocumentReaderPropertiesTest.class.getResource("/" + MS_XLS_2_USE).toURI());
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    Properties properties = docReaderStream05.getProperties(docPath);
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "properties size", properties.keySet().size() + "");
+    addMoreInfos(TEST_LABEL, version, "content", properties);
+  }
+
   private void addMoreInfos_memory (String test, String version, long startUsedMemory) {
     long mem = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - startUsedMemory;
     addMoreInfos(test, version, "used memory", nf.format(mem)+" ("+mem+")");
@@ -1,7 +1,20 @@
 package org.exoplatform.tests.core;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.Locale;
 import java.util.Map;
@@ -10,6 +23,10 @@ import java.util.TreeMap;
 
 import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
 import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.exoplatform.services.document.DocumentReadException;
 import org.exoplatform.services.document.DocumentReader;
 import org.exoplatform.services.document.impl.MSExcelDocumentReader;
@@ -62,6 +79,16 @@ public class MSExcelDocumentReaderStreamTest {
 
   private DocumentReader docReaderStream05;
 
+  private DocumentReader docReaderStream05Policy02;
+
+  private DocumentReader docReaderStream05TimeBudget;
+
+  private DocumentReader docReaderStream05MaxChars;
+
+  private CachingDocumentReader docReaderStream05Cached;
+
+  private DocumentReader docReaderSniffed;
+
   private static final Map<String, Map<String, Map<String, Object>>> moreInfos = new TreeMap<String, Map<String, Map<String, Object>>>();
 
   @Before
@@ -75,6 +102,31 @@ public class MSExcelDocumentReaderStreamTest {
     docReaderStream03 = new MSExcelDocumentReader_Stream_03();
     docReaderStream04 = new MSExcelDocumentReader_Stream_04();
     docReaderStream05 = new MSExcelDocumentReader_Stream_05();
+    // same mix of cells and budget than MSExcelDocumentReader_Stream_02
+    SpreadsheetExtractionPolicy policy02 = new SpreadsheetExtractionPolicy();
+    policy02.setKeepNumbers(true);
+    policy02.setMinStringLength(0);
+    policy02.setMaxTabs(SpreadsheetExtractionPolicy.UNLIMITED);
+    policy02.setMaxCellsPerTab(SpreadsheetExtractionPolicy.UNLIMITED);
+    policy02.setMaxCells(5000);
+    docReaderStream05Policy02 = new MSExcelDocumentReader_Stream_05(policy02);
+    // all the cells, but only what is parsed within 10ms
+    SpreadsheetExtractionPolicy timeBudgetPolicy = new SpreadsheetExtractionPolicy();
+    timeBudgetPolicy.setKeepNumbers(true);
+    timeBudgetPolicy.setMaxTabs(SpreadsheetExtractionPolicy.UNLIMITED);
+    timeBudgetPolicy.setMaxCellsPerTab(SpreadsheetExtractionPolicy.UNLIMITED);
+    timeBudgetPolicy.setMaxTime(10);
+    docReaderStream05TimeBudget = new MSExcelDocumentReader_Stream_05(timeBudgetPolicy);
+    // all the cells, but only the first 100k chars of text
+    SpreadsheetExtractionPolicy maxCharsPolicy = new SpreadsheetExtractionPolicy();
+    maxCharsPolicy.setKeepNumbers(true);
+    maxCharsPolicy.setMaxTabs(SpreadsheetExtractionPolicy.UNLIMITED);
+    maxCharsPolicy.setMaxCellsPerTab(SpreadsheetExtractionPolicy.UNLIMITED);
+    maxCharsPolicy.setMaxChars(100000);
+    docReaderStream05MaxChars = new MSExcelDocumentReader_Stream_05(maxCharsPolicy);
+    // the text truncated by the maximum number of chars is cached by the digest of the document
+    docReaderStream05Cached = new CachingDocumentReader(new MSExcelDocumentReader_Stream_05(maxCharsPolicy), new ExtractionCache());
+    docReaderSniffed = new SpreadsheetDocumentReader();
     System.gc();
   }
 
@@ -174,6 +226,246 @@ public class MSExcelDocumentReaderStreamTest {
     addMoreInfos(TEST_LABEL, version, "content", content);
   }
 
+  @Test
+  public void test_XLS_STREAM_05_STRING_FORMULAS() throws IOException, DocumentReadException {
+    // a tab of 800 rows : a label, then a formula with a string result, stored in a StringRecord after the formula
+    HSSFWorkbook workbook = new HSSFWorkbook();
+    HSSFSheet sheet = workbook.createSheet("formulas");
+    for (int i = 0; i < 800; i++) {
+      HSSFRow row = sheet.createRow(i);
+      row.createCell(0).setCellValue("label " + i);
+      row.createCell(1).setCellFormula("A" + (i + 1) + "&\"!\"");
+    }
+    HSSFFormulaEvaluator.evaluateAllFormulaCells(workbook);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    workbook.write(out);
+
+    // the label, the formula and its StringRecord are 3 cells : the 1000th cell of the tab is the label of the row 333
+    String content = docReaderStream05.getContentAsText(new ByteArrayInputStream(out.toByteArray()));
+    assertTrue(content.endsWith(" label 332 label 333 "));
+    assertFalse(content.contains("label 332!"));
+    // the same cells are counted when the formula results are kept
+    SpreadsheetExtractionPolicy formulasPolicy = new SpreadsheetExtractionPolicy();
+    formulasPolicy.setKeepFormulas(true);
+    content = new MSExcelDocumentReader_Stream_05(formulasPolicy).getContentAsText(new ByteArrayInputStream(out.toByteArray()));
+    assertTrue(content.endsWith(" label 332 label 332! label 333 "));
+  }
+
+  @Test
+  public void test_XLS_STREAM_05_POLICY_02() throws IOException, DocumentReadException {
+    final String version = "STREAM_05_POLICY_02";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream05Policy02.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_05_TIME_BUDGET() throws IOException, DocumentReadException {
+    final String version = "STREAM_05_TIME_BUDGET";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream05TimeBudget.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_05_MAX_CHARS() throws IOException, DocumentReadException {
+    final String version = "STREAM_05_MAX_CHARS";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream05MaxChars.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_05_CACHED() throws IOException, DocumentReadException {
+    final String version = "STREAM_05_CACHED";
+    // the first read parses the document, the second one finds its text in the cache
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+    String parsedContent = docReaderStream05Cached.getContentAsText(docIS);
+    docIS.close();
+    docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream05Cached.getContentAsText(docIS);
+    docIS.close();
+    assertEquals(1, docReaderStream05Cached.getCache().getMisses());
+    assertEquals(1, docReaderStream05Cached.getCache().getHits());
+    assertEquals(parsedContent, content);
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_SNIFFED() throws IOException, DocumentReadException {
+    final String version = "SNIFFED";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderSniffed.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test(timeout = 10000)
+  public void test_XLS_SNIFFED_UNSUPPORTED() throws IOException {
+    SpreadsheetDocumentReader reader = new SpreadsheetDocumentReader();
+    byte[] text = "This is not a spreadsheet".getBytes("UTF-8");
+    // the first bytes of the OLE2 signature, the document is shorter than the signature
+    byte[] truncated = {(byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1};
+    for (byte[] document : new byte[][]{text, truncated, new byte[0]}) {
+      CloseTrackingInputStream docIS = new CloseTrackingInputStream(document);
+      try {
+        reader.getContentAsText(docIS);
+        fail("The format of the stream is not rejected");
+      } catch (DocumentReadException e) {
+        assertTrue(docIS.closed);
+      }
+      docIS = new CloseTrackingInputStream(document);
+      try {
+        reader.getContentAsReader(docIS, new ExtractionDeadline(ExtractionDeadline.UNLIMITED, ExtractionDeadline.UNLIMITED));
+        fail("The format of the stream is not rejected");
+      } catch (DocumentReadException e) {
+        assertTrue(docIS.closed);
+      }
+      docIS = new CloseTrackingInputStream(document);
+      try {
+        reader.getProperties(docIS);
+        fail("The format of the stream is not rejected");
+      } catch (DocumentReadException e) {
+        assertTrue(docIS.closed);
+      }
+
+      Path docPath = Files.createTempFile("unsupported", ".xls");
+      try {
+        Files.write(docPath, document);
+        try {
+          reader.getContentAsText(docPath);
+          fail("The format of the file is not rejected");
+        } catch (DocumentReadException e) {
+          // the format is not supported
+        }
+        try {
+          reader.getProperties(docPath);
+          fail("The format of the file is not rejected");
+        } catch (DocumentReadException e) {
+          // the format is not supported
+        }
+      } finally {
+        Files.delete(docPath);
+      }
+    }
+  }
+
+  /**
+   * Records whether the stream has been closed.
+   */
+  private static class CloseTrackingInputStream extends ByteArrayInputStream {
+    private boolean closed;
+
+    CloseTrackingInputStream(byte[] bytes) {
+      super(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+
+  @Test
+  public void test_XLS_STREAM_05_STORED() throws IOException, DocumentReadException {
+    final String version = "STREAM_05_STORED";
+    File storeDirectory = Files.createTempDirectory("extraction-store").toFile();
+    try {
+      String storedContent;
+      // the first cache stores the extraction, the second one is the cache of a warm restart
+      ExtractionCache cache = new ExtractionCache(ExtractionCache.DEFAULT_MAX_MEMORY_SIZE, storeDirectory, Long.MAX_VALUE);
+      try {
+        InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+        storedContent = new CachingDocumentReader(new MSExcelDocumentReader_Stream_05(), cache).getContentAsText(docIS);
+        docIS.close();
+      } finally {
+        cache.close();
+      }
+      cache = new ExtractionCache(ExtractionCache.DEFAULT_MAX_MEMORY_SIZE, storeDirectory, Long.MAX_VALUE);
+      try {
+        InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+        long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+        String content = new CachingDocumentReader(new MSExcelDocumentReader_Stream_05(), cache).getContentAsText(docIS);
+        docIS.close();
+        addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+        addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+        addMoreInfos(TEST_LABEL, version, "content", content);
+        // the text is read from the store, not extracted again
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(0, cache.getMisses());
+        assertEquals(storedContent, content);
+      } finally {
+        cache.close();
+      }
+    } finally {
+      for (File file : storeDirectory.listFiles()) {
+        file.delete();
+      }
+      storeDirectory.delete();
+    }
+  }
+
+  @Test
+  public void test_XLS_STREAM_05_FILE() throws IOException, DocumentReadException, URISyntaxException {
+    final String version = "STREAM_05_FILE";
+    File docFile = new File(MSExcelDocumentReaderStreamTest.class.getResource("/" + MS_XLS_2_USE).toURI());
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = ((MSExcelDocumentReader_Stream_05) docReaderStream05).getContentAsText(docFile);
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_05_WRITER() throws IOException, DocumentReadException {
+    final String version = "STREAM_05_WRITER";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    StringWriter writer = new StringWriter();
+    ((MSExcelDocumentReader_Stream_05) docReaderStream05).writeContentAsText(docIS, writer);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", writer.getBuffer().length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", writer.toString());
+  }
+
+  @Test
+  public void test_XLS_STREAM_05_READER() throws IOException, DocumentReadException {
+    final String version = "STREAM_05_READER";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLS_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    Reader reader = ((MSExcelDocumentReader_Stream_05) docReaderStream05).getContentAsReader(docIS);
+    StringBuilder content = new StringBuilder();
+    char[] chars = new char[1024];
+    int read;
+    while ((read = reader.read(chars)) >= 0) {
+      content.append(chars, 0, read);
+    }
+    reader.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content.toString());
+  }
+
   private void addMoreInfos_memory (String test, String version, long startUsedMemory) {
     long mem = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - startUsedMemory;
     addMoreInfos(test, version, "used memory", nf.format(mem)+" ("+mem+")");
@@ -1,15 +1,37 @@
 package org.exoplatform.tests.core;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.NumberFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
 import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import org.exoplatform.services.document.DCMetaData;
 import org.exoplatform.services.document.DocumentReadException;
 import org.exoplatform.services.document.DocumentReader;
 import org.exoplatform.services.document.impl.MSXExcelDocumentReader;
@@ -36,6 +58,11 @@ public class MSXExcelDocumentReaderStreamTest {
   public static final String MS_XLSX_500KB = "MS-XLSX_500KB.xlsx";
   public static final String MS_XLSX_11MB_FORMULA = "MS_XLSX_11MB-formula.xlsx";
   public static final String MS_XLSX_18MB_FORMULA = "MS-XLSX_18MB-lot-of-formula.xlsx";
+  public static final String MS_XLSB_23KB = "MS-XLSB_23KB.xlsb";
+  public static final String MS_XLSB_2007_9KB = "MS-XLSB-2007_9KB.xlsb";
+  public static final String MS_XLSM_15KB = "MS-XLSM_15KB.xlsm";
+  public static final String MS_XLTX_9KB = "MS-XLTX_9KB.xltx";
+  public static final String MS_XLTM_9KB = "MS-XLTM_9KB.xltm";
 
   public static final String MS_XLSX_2_USE = MS_XLSX_18MB_FORMULA;
 
@@ -58,6 +85,28 @@ public class MSXExcelDocumentReaderStreamTest {
 
   private DocumentReader docReaderStream04;
 
+  private FileDocumentReader docReaderStream04Path;
+
+  private DocumentReader docReaderStream04LazySST;
+
+  private DocumentReader docReaderStream04TwoPassSST;
+
+  private DocumentReader docReaderStream04Pull;
+
+  private DocumentReader docReaderStream04FormattedNumbers;
+
+  private DocumentReader docReaderStream04TimeBudget;
+
+  private DocumentReader docReaderStream04MaxChars;
+
+  private CachingDocumentReader docReaderStream04Cached;
+
+  private DocumentReader docReaderSniffed;
+
+  private ExecutorService sheetExecutor;
+
+  private DocumentReader docReaderStream04ParallelSheets;
+
   private static final Map<String, Map<String, Map<String, Object>>> moreInfos = new TreeMap<String, Map<String, Map<String, Object>>>();
 
   @Before
@@ -68,6 +117,46 @@ public class MSXExcelDocumentReaderStreamTest {
     docReaderStream02 = new MSXExcelDocumentReader_Stream_02();
     docReaderStream03 = new MSXExcelDocumentReader_Stream_03();
     docReaderStream04 = new MSXExcelDocumentReader_Stream_04();
+    docReaderStream04Path = new MSXExcelDocumentReader_Stream_04();
+    // the shared strings are always stored in temporary files
+    MSXExcelDocumentReader_Stream_04 readerLazySST = new MSXExcelDocumentReader_Stream_04();
+    readerLazySST.setSharedStringsThreshold(0);
+    docReaderStream04LazySST = readerLazySST;
+    // only the shared strings referenced by the parsed cells are kept
+    MSXExcelDocumentReader_Stream_04 readerTwoPassSST = new MSXExcelDocumentReader_Stream_04();
+    readerTwoPassSST.setTwoPassSharedStrings(true);
+    docReaderStream04TwoPassSST = readerTwoPassSST;
+    // the sheets are parsed with a StAX pull parser
+    MSXExcelDocumentReader_Stream_04 readerPull = new MSXExcelDocumentReader_Stream_04();
+    readerPull.setPullSheetParser(true);
+    docReaderStream04Pull = readerPull;
+    // the numbers are kept and formatted, so the styles are read
+    SpreadsheetExtractionPolicy formattedNumbersPolicy = new SpreadsheetExtractionPolicy();
+    formattedNumbersPolicy.setKeepNumbers(true);
+    formattedNumbersPolicy.setFormatNumbers(true);
+    docReaderStream04FormattedNumbers = new MSXExcelDocumentReader_Stream_04(formattedNumbersPolicy);
+    // all the cells, but only what is parsed within 10ms
+    SpreadsheetExtractionPolicy timeBudgetPolicy = new SpreadsheetExtractionPolicy();
+    timeBudgetPolicy.setKeepNumbers(true);
+    timeBudgetPolicy.setMaxTabs(SpreadsheetExtractionPolicy.UNLIMITED);
+    timeBudgetPolicy.setMaxCellsPerTab(SpreadsheetExtractionPolicy.UNLIMITED);
+    timeBudgetPolicy.setMaxTime(10);
+    docReaderStream04TimeBudget = new MSXExcelDocumentReader_Stream_04(timeBudgetPolicy);
+    // all the cells, but only the first 100k chars of text
+    SpreadsheetExtractionPolicy maxCharsPolicy = new SpreadsheetExtractionPolicy();
+    maxCharsPolicy.setKeepNumbers(true);
+    maxCharsPolicy.setMaxTabs(SpreadsheetExtractionPolicy.UNLIMITED);
+    maxCharsPolicy.setMaxCellsPerTab(SpreadsheetExtractionPolicy.UNLIMITED);
+    maxCharsPolicy.setMaxChars(100000);
+    docReaderStream04MaxChars = new MSXExcelDocumentReader_Stream_04(maxCharsPolicy);
+    // the text truncated by the maximum number of chars is cached by the digest of the document
+    docReaderStream04Cached = new CachingDocumentReader(new MSXExcelDocumentReader_Stream_04(maxCharsPolicy), new ExtractionCache());
+    docReaderSniffed = new SpreadsheetDocumentReader();
+    // the sheets are parsed at the same time
+    sheetExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    MSXExcelDocumentReader_Stream_04 readerParallelSheets = new MSXExcelDocumentReader_Stream_04();
+    readerParallelSheets.setSheetExecutor(sheetExecutor);
+    docReaderStream04ParallelSheets = readerParallelSheets;
     System.gc();
   }
 
@@ -83,6 +172,18 @@ public class MSXExcelDocumentReaderStreamTest {
     addMoreInfos(TEST_LABEL, version, "content", content);
   }
 
+  @Test
+  public void test_XLS_ORI_XLSM() throws IOException, DocumentReadException {
+    final String version = "ORI_XLSM";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSM_15KB);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderORI.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
   @Test
   public void test_XLS_PATCHED_01() throws IOException, DocumentReadException {
     final String version = "PATCHED_01";
@@ -143,6 +244,487 @@ public class MSXExcelDocumentReaderStreamTest {
     addMoreInfos(TEST_LABEL, version, "content", content);
   }
 
+  @Test
+  public void test_XLS_STREAM_04_XLSB() throws IOException, DocumentReadException, URISyntaxException, ParseException {
+    final String version = "STREAM_04_XLSB";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSB_23KB);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+    // the strings of the cells are shared strings, the numbers are not kept
+    assertTrue(content.contains("String This is a string"));
+    assertTrue(content.contains("hyperlink tika_link"));
+    assertFalse(content.contains("13.1211231321"));
+    assertEquals(content, assertSameContent(MS_XLSB_23KB, new SpreadsheetExtractionPolicy()));
+    assertEquals(content, parallelContent(MS_XLSB_23KB));
+    // the RK numbers (an integer, an integer / 100 and a float), the real numbers and the formula results
+    String numbers = assertSameContent(MS_XLSB_23KB, keepAllPolicy());
+    assertTrue(numbers.contains("integer 13"));
+    assertTrue(numbers.contains("currency 3.03"));
+    assertTrue(numbers.contains("percent 0.2"));
+    assertTrue(numbers.contains("float 13.1211231321"));
+    assertTrue(numbers.contains("long int 123456789012345"));
+    assertTrue(numbers.contains("date 42803"));
+    assertTrue(numbers.contains("formulaFloat 0.5"));
+    // the numbers formatted with the number formats of their cell, in the default locale
+    SpreadsheetExtractionPolicy formattedNumbersPolicy = keepAllPolicy();
+    formattedNumbersPolicy.setFormatNumbers(true);
+    Locale defaultLocale = Locale.getDefault();
+    String formattedNumbers;
+    Locale.setDefault(Locale.US);
+    try {
+      formattedNumbers = assertSameContent(MS_XLSB_23KB, formattedNumbersPolicy);
+    } finally {
+      Locale.setDefault(defaultLocale);
+    }
+    assertTrue(formattedNumbers.contains("currency $3.03"));
+    assertTrue(formattedNumbers.contains("percent 20%"));
+    assertTrue(formattedNumbers.contains("float 2 13.12"));
+    assertFalse(formattedNumbers.contains("13.12131231"));
+    assertTrue(formattedNumbers.contains("fraction 1/4"));
+    assertTrue(formattedNumbers.contains("date 3/9/17"));
+    Properties properties = assertSameProperties(MS_XLSB_23KB);
+    assertEquals("Allison, Timothy B.", properties.get(DCMetaData.CREATOR));
+    assertEquals("Allison, Timothy B.", properties.get(DCMetaData.CONTRIBUTOR));
+    assertEquals(date("2017-03-10T14:58:49Z"), properties.get(DCMetaData.DATE));
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_XLSB_2007()
+      throws IOException, DocumentReadException, URISyntaxException, ParseException {
+    final String version = "STREAM_04_XLSB_2007";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSB_2007_9KB);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+    // the sheets of the workbook part written by Excel 2007 are found
+    assertTrue(content.contains("This is an example spreadsheet created with Microsoft Excel 2007 Beta 2."));
+    assertEquals(content, assertSameContent(MS_XLSB_2007_9KB, new SpreadsheetExtractionPolicy()));
+    assertEquals(content, parallelContent(MS_XLSB_2007_9KB));
+    Properties properties = assertSameProperties(MS_XLSB_2007_9KB);
+    assertEquals("Example document", properties.get(DCMetaData.TITLE));
+    assertEquals("testing document extractors", properties.get(DCMetaData.SUBJECT));
+    assertEquals("These are some sample comments.", properties.get(DCMetaData.DESCRIPTION));
+    assertEquals("Microsoft", properties.get(DCMetaData.CREATOR));
+    assertEquals("Christiaan Fluit", properties.get(DCMetaData.CONTRIBUTOR));
+    assertEquals(date("2006-07-13T13:48:56Z"), properties.get(DCMetaData.DATE));
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_XLSB_STRING_CELLS() throws IOException {
+    // Excel writes the rich strings of the cells in the shared strings, so the string cells are in a sheet part built
+    // here : a BrtRowHdr, a BrtCellSt, a BrtCellRString with a formatting run, and the BrtEndSheetData
+    ByteArrayOutputStream sheet = new ByteArrayOutputStream();
+    writeRecord(sheet, 0, new byte[]{0, 0, 0, 0, 0, 0, 0, 0});
+    writeRecord(sheet, 6, concat(new byte[8], wideString("plain string")));
+    writeRecord(sheet, 62, concat(concat(new byte[]{1, 0, 0, 0, 0, 0, 0, 0, 1}, wideString("rich string")),
+                                  new byte[]{1, 0, 0, 0, 0, 0, 0, 0}));
+    writeRecord(sheet, 146, new byte[0]);
+    final StringBuilder cells = new StringBuilder();
+    XSSFBOptimizedSheetParser_04 parser = new XSSFBOptimizedSheetParser_04(null, null,
+        new XSSFOptimizedSheetXMLHandler_04.SheetContentsHandler() {
+          public void startRow(int rowNum) {
+          }
+
+          public void endRow() {
+          }
+
+          public void cell(String cellReference, String formattedValue) {
+            cells.append(cellReference).append('=').append(formattedValue).append(';');
+          }
+
+          public void headerFooter(String text, boolean isHeader, String tagName) {
+          }
+        }, null, -1);
+    assertTrue(parser.parse(new ByteArrayInputStream(sheet.toByteArray())));
+    assertEquals("A1=plain string;B1=rich string;", cells.toString());
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_XLSM() throws IOException, DocumentReadException, URISyntaxException, ParseException {
+    final String version = "STREAM_04_XLSM";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSM_15KB);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+    assertTrue(content.contains("This is a blank worksheet"));
+    assertTrue(content.contains("However, a macro is about to be created"));
+    // the same text from a stream, a path, the Reader and the sniffing reader, with the default and keep-all policies
+    assertEquals(content, assertSameContent(MS_XLSM_15KB, new SpreadsheetExtractionPolicy()));
+    assertSameContent(MS_XLSM_15KB, keepAllPolicy());
+    Properties properties = assertSameProperties(MS_XLSM_15KB);
+    // the creator of the workbook is empty
+    assertNull(properties.get(DCMetaData.CREATOR));
+    assertNull(properties.get(DCMetaData.CONTRIBUTOR));
+    assertEquals(date("2016-09-21T20:12:03Z"), properties.get(DCMetaData.DATE));
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_XLTM() throws IOException, DocumentReadException, URISyntaxException, ParseException {
+    final String version = "STREAM_04_XLTM";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLTM_9KB);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+    assertTrue(content.contains("this is a template"));
+    // the same text from a stream, a path, the Reader and the sniffing reader, with the default and keep-all policies
+    assertEquals(content, assertSameContent(MS_XLTM_9KB, new SpreadsheetExtractionPolicy()));
+    assertSameContent(MS_XLTM_9KB, keepAllPolicy());
+    Properties properties = assertSameProperties(MS_XLTM_9KB);
+    assertEquals("Allison, Timothy B.", properties.get(DCMetaData.CREATOR));
+    assertEquals("Allison, Timothy B.", properties.get(DCMetaData.CONTRIBUTOR));
+    assertEquals(date("2019-06-04T15:26:03Z"), properties.get(DCMetaData.DATE));
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_XLTX() throws IOException, DocumentReadException, URISyntaxException, ParseException {
+    final String version = "STREAM_04_XLTX";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLTX_9KB);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+    assertTrue(content.contains("this is a template"));
+    // the same text from a stream, a path, the Reader and the sniffing reader, with the default and keep-all policies
+    assertEquals(content, assertSameContent(MS_XLTX_9KB, new SpreadsheetExtractionPolicy()));
+    assertSameContent(MS_XLTX_9KB, keepAllPolicy());
+    Properties properties = assertSameProperties(MS_XLTX_9KB);
+    assertEquals("Allison, Timothy B.", properties.get(DCMetaData.CREATOR));
+    assertEquals("Allison, Timothy B.", properties.get(DCMetaData.CONTRIBUTOR));
+    assertEquals(date("2019-06-04T15:25:40Z"), properties.get(DCMetaData.DATE));
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_LAZY_SST() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_LAZY_SST";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04LazySST.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_TWO_PASS_SST() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_TWO_PASS_SST";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04TwoPassSST.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_PULL() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_PULL";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04Pull.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_FORMATTED_NUMBERS() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_FORMATTED_NUMBERS";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04FormattedNumbers.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_PARALLEL_SHEETS() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_PARALLEL_SHEETS";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04ParallelSheets.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_TIME_BUDGET() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_TIME_BUDGET";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04TimeBudget.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_MAX_CHARS() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_MAX_CHARS";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04MaxChars.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_CACHED() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_CACHED";
+    // the first read parses the document, the second one finds its text in the cache
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    String parsedContent = docReaderStream04Cached.getContentAsText(docIS);
+    docIS.close();
+    docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04Cached.getContentAsText(docIS);
+    docIS.close();
+    assertEquals(1, docReaderStream04Cached.getCache().getMisses());
+    assertEquals(1, docReaderStream04Cached.getCache().getHits());
+    assertEquals(parsedContent, content);
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_SNIFFED() throws IOException, DocumentReadException {
+    final String version = "SNIFFED";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderSniffed.getContentAsText(docIS);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_STORED() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_STORED";
+    File storeDirectory = Files.createTempDirectory("extraction-store").toFile();
+    try {
+      String storedContent;
+      // the first cache stores the extraction, the second one is the cache of a warm restart
+      ExtractionCache cache = new ExtractionCache(ExtractionCache.DEFAULT_MAX_MEMORY_SIZE, storeDirectory, Long.MAX_VALUE);
+      try {
+        InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+        storedContent = new CachingDocumentReader(new MSXExcelDocumentReader_Stream_04(), cache).getContentAsText(docIS);
+        docIS.close();
+      } finally {
+        cache.close();
+      }
+      cache = new ExtractionCache(ExtractionCache.DEFAULT_MAX_MEMORY_SIZE, storeDirectory, Long.MAX_VALUE);
+      try {
+        InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+        long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+        String content = new CachingDocumentReader(new MSXExcelDocumentReader_Stream_04(), cache).getContentAsText(docIS);
+        docIS.close();
+        addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+        addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+        addMoreInfos(TEST_LABEL, version, "content", content);
+        // the text is read from the store, not extracted again
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(0, cache.getMisses());
+        assertEquals(storedContent, content);
+      } finally {
+        cache.close();
+      }
+    } finally {
+      for (File file : storeDirectory.listFiles()) {
+        file.delete();
+      }
+      storeDirectory.delete();
+    }
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_WRITER() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_WRITER";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    StringWriter writer = new StringWriter();
+    ((MSXExcelDocumentReader_Stream_04) docReaderStream04).writeContentAsText(docIS, writer);
+    docIS.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", writer.getBuffer().length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", writer.toString());
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_PATH() throws IOException, DocumentReadException, URISyntaxException {
+    final String version = "STREAM_04_PATH";
+    Path docPath = Paths.get(MSExcelDocumentReaderStreamTest.class.getResource("/" + MS_XLSX_2_USE).toURI());
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    String content = docReaderStream04Path.getContentAsText(docPath);
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content);
+  }
+
+  @Test
+  public void test_XLS_STREAM_04_READER() throws IOException, DocumentReadException {
+    final String version = "STREAM_04_READER";
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + MS_XLSX_2_USE);
+    long startUsedMemory = Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
+    Reader reader = ((MSXExcelDocumentReader_Stream_04) docReaderStream04).getContentAsReader(docIS);
+    StringBuilder content = new StringBuilder();
+    char[] chars = new char[1024];
+    int read;
+    while ((read = reader.read(chars)) >= 0) {
+      content.append(chars, 0, read);
+    }
+    reader.close();
+    addMoreInfos_memory(TEST_LABEL, version, startUsedMemory);
+    addMoreInfos(TEST_LABEL, version, "content size", content.length() + "");
+    addMoreInfos(TEST_LABEL, version, "content", content.toString());
+  }
+
+  /**
+   * Asserts the text of the document is the same from a stream, from a path, from the Reader and from the reader
+   * sniffing the format.
+   *
+   * @return the text of the document
+   */
+  private String assertSameContent(String document, SpreadsheetExtractionPolicy policy)
+      throws IOException, DocumentReadException, URISyntaxException {
+    MSXExcelDocumentReader_Stream_04 reader = new MSXExcelDocumentReader_Stream_04(policy);
+    Path docPath = Paths.get(MSExcelDocumentReaderStreamTest.class.getResource("/" + document).toURI());
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + document);
+    String content = reader.getContentAsText(docIS);
+    docIS.close();
+    assertEquals(content, reader.getContentAsText(docPath));
+    docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + document);
+    assertEquals(content, read(reader.getContentAsReader(docIS)));
+    assertEquals(content, read(reader.getContentAsReader(docPath.toFile())));
+    assertEquals(content, new SpreadsheetDocumentReader(policy).getContentAsText(docPath));
+    return content;
+  }
+
+  /**
+   * Asserts the properties of the document are the same from a stream, from a path and from the reader sniffing
+   * the format.
+   *
+   * @return the properties of the document
+   */
+  private Properties assertSameProperties(String document)
+      throws IOException, DocumentReadException, URISyntaxException {
+    MSXExcelDocumentReader_Stream_04 reader = new MSXExcelDocumentReader_Stream_04();
+    Path docPath = Paths.get(MSExcelDocumentReaderStreamTest.class.getResource("/" + document).toURI());
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + document);
+    Properties properties = reader.getProperties(docIS);
+    docIS.close();
+    assertEquals(properties, reader.getProperties(docPath));
+    assertEquals(properties, new SpreadsheetDocumentReader().getProperties(docPath));
+    return properties;
+  }
+
+  /**
+   * @return the text of the document, its sheets parsed in parallel
+   */
+  private String parallelContent(String document) throws IOException, DocumentReadException {
+    InputStream docIS = MSExcelDocumentReaderStreamTest.class.getResourceAsStream("/" + document);
+    try {
+      return docReaderStream04ParallelSheets.getContentAsText(docIS);
+    } finally {
+      docIS.close();
+    }
+  }
+
+  /**
+   * Writes a BIFF12 record : its type and its size as 7-bit varints, then its payload.
+   */
+  private static void writeRecord(ByteArrayOutputStream out, int type, byte[] payload) {
+    writeVarint(out, type);
+    writeVarint(out, payload.length);
+    out.write(payload, 0, payload.length);
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while (value >= 0x80) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * @return the XLWideString of the value : its length, then its UTF-16LE chars
+   */
+  private static byte[] wideString(String value) {
+    byte[] bytes = new byte[4 + 2 * value.length()];
+    bytes[0] = (byte) value.length();
+    for (int i = 0; i < value.length(); i++) {
+      bytes[4 + 2 * i] = (byte) value.charAt(i);
+      bytes[5 + 2 * i] = (byte) (value.charAt(i) >> 8);
+    }
+    return bytes;
+  }
+
+  private static byte[] concat(byte[] first, byte[] second) {
+    byte[] bytes = new byte[first.length + second.length];
+    System.arraycopy(first, 0, bytes, 0, first.length);
+    System.arraycopy(second, 0, bytes, first.length, second.length);
+    return bytes;
+  }
+
+  /**
+   * @return a policy keeping all the cells of all the tabs
+   */
+  private static SpreadsheetExtractionPolicy keepAllPolicy() {
+    SpreadsheetExtractionPolicy policy = new SpreadsheetExtractionPolicy();
+    policy.setKeepNumbers(true);
+    policy.setKeepFormulas(true);
+    policy.setMinStringLength(0);
+    policy.setMaxTabs(SpreadsheetExtractionPolicy.UNLIMITED);
+    policy.setMaxCellsPerTab(SpreadsheetExtractionPolicy.UNLIMITED);
+    return policy;
+  }
+
+  /**
+   * @return the date of a core property, parsed like the readers do (in the default time zone)
+   */
+  private static Date date(String value) throws ParseException {
+    SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    df.setTimeZone(TimeZone.getDefault());
+    return df.parse(value);
+  }
+
+  private static String read(Reader reader) throws IOException {
+    StringBuilder content = new StringBuilder();
+    char[] chars = new char[1024];
+    int read;
+    while ((read = reader.read(chars)) >= 0) {
+      content.append(chars, 0, read);
+    }
+    reader.close();
+    return content.toString();
+  }
+
   private void addMoreInfos_memory(String test, String version, long startUsedMemory) {
     long mem = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - startUsedMemory;
     addMoreInfos(test, version, "used memory", nf.format(mem) + " (" + mem + ")");
@@ -171,6 +753,7 @@ public class MSXExcelDocumentReaderStreamTest {
 
   @After
   public void tearDown() {
+    sheetExecutor.shutdownNow();
     System.gc();
   }
 